@@ -5,6 +5,13 @@ import com.hospital.services.*;
 import com.hospital.repositories.*;
 import com.hospital.models.*;
 import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.utils.AppointmentJournal;
+import com.hospital.utils.DoctorStore;
+import com.hospital.utils.FileIOManager;
+import com.hospital.utils.IdGenerators;
+import com.hospital.utils.SegmentedPatientStore;
+import com.hospital.utils.SerializedPatientStore;
+import com.hospital.utils.WriteBehindPatientStore;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
@@ -15,12 +22,27 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main {
     private static HospitalController controller;
     private static PatientService patientService;
     private static DoctorService doctorService;
     private static AppointmentService appointmentService;
+    private static final String APPOINTMENT_JOURNAL = "data/journal/appointments.log";
+    private static final String DOCTOR_STORE = "data/doctors/doctors.ser";
+    private static final String PATIENT_STORE_DIR = "data/patients";
+    private static final int PATIENT_WRITE_QUEUE = 10000;
+    // patients plus history entries kept on the heap; 0 keeps every patient in memory
+    private static final long PATIENT_CACHE_WEIGHT = 200000;
+    private static final int REHYDRATE_BATCH = 10000;
+    // exports last as long as the client takes to read them, so they run off the
+    // dispatcher thread; beyond this many at once they queue
+    private static final int EXPORT_THREADS = 2;
+    // imports already parse on their own pool; this only bounds how many run at once
+    private static final int IMPORT_THREADS = 1;
     
     public static void main(String[] args) throws Exception {
         initializeServices();
@@ -46,30 +68,139 @@ public class Main {
         System.out.println("\nAccess the application at the URL shown above");
     }
     
-    private static void initializeServices() {
+    private static void initializeServices() throws IOException {
         PatientRepository patientRepository = new PatientRepository();
         DoctorRepository doctorRepository = new DoctorRepository();
         AppointmentRepository appointmentRepository = new AppointmentRepository();
         
         patientService = new PatientService(patientRepository);
+        SegmentedPatientStore segmentStore = new SegmentedPatientStore(Paths.get(PATIENT_STORE_DIR));
+        WriteBehindPatientStore patientStore = new WriteBehindPatientStore(
+            segmentStore, Integer.getInteger("hospital.patients.writeQueue", PATIENT_WRITE_QUEUE));
+        long cacheWeight = Long.getLong("hospital.patients.cacheWeight", PATIENT_CACHE_WEIGHT);
+        if (cacheWeight > 0) {
+            // cold patients are read back through the write-behind queue, so pending writes are seen
+            patientRepository.enableTiering(patientStore, cacheWeight);
+        }
+        rehydratePatients(segmentStore, patientRepository);
+        patientService.setPatientStore(patientStore);
         doctorService = new DoctorService(doctorRepository);
+        // appointments refer to doctors by id, so the roster has to survive restarts too
+        DoctorStore doctorStore = new DoctorStore(Paths.get(DOCTOR_STORE));
+        for (Doctor doctor : doctorStore.loadAll()) {
+            doctorRepository.addDoctor(doctor);
+        }
+        doctorService.setDoctorStore(doctorStore);
+        doctorService.setAppointmentRepository(appointmentRepository);
         appointmentService = new AppointmentService(appointmentRepository, patientRepository, doctorRepository);
         
+        long replayStart = System.currentTimeMillis();
+        List<Appointment> journaled = AppointmentJournal.replay(Paths.get(APPOINTMENT_JOURNAL));
+        for (Appointment appointment : journaled) {
+            appointmentRepository.addAppointment(appointment);
+        }
+        AppointmentJournal.compact(Paths.get(APPOINTMENT_JOURNAL), journaled);
+        System.out.println("Replayed and compacted " + journaled.size() + " appointments from journal in "
+                           + (System.currentTimeMillis() - replayStart) + " ms");
+        
+        // ids embed the clock: never issue one at or below an id already on disk
+        segmentStore.getPatientIds().forEach(IdGenerators::advancePast);
+        doctorService.getAllDoctors().forEach(doctor -> IdGenerators.advancePast(doctor.getDoctorId()));
+        journaled.forEach(appointment -> IdGenerators.advancePast(appointment.getAppointmentId()));
+        
+        AppointmentJournal.DurabilityMode durability =
+            journalDurability(System.getProperty("hospital.journal.durability"));
+        AppointmentJournal journal = new AppointmentJournal(Paths.get(APPOINTMENT_JOURNAL), durability);
+        appointmentService.setJournal(journal);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Warning: Failed to close appointment journal: " + e.getMessage());
+            }
+            try {
+                patientStore.close();
+            } catch (IOException e) {
+                System.err.println("Warning: Failed to drain patient store: " + e.getMessage());
+            }
+            try {
+                FileIOManager.closeMedicalHistory();
+            } catch (IOException e) {
+                System.err.println("Warning: Failed to close medical history files: " + e.getMessage());
+            }
+        }));
+        
         controller = new HospitalController(patientService, doctorService, appointmentService);
     }
     
+    // a typo in the property should not keep the server from starting
+    private static AppointmentJournal.DurabilityMode journalDurability(String value) {
+        if (value == null) {
+            return AppointmentJournal.DurabilityMode.BATCHED;
+        }
+        try {
+            return AppointmentJournal.DurabilityMode.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: Unknown hospital.journal.durability mode '" + value + "', expected one of "
+                               + Arrays.toString(AppointmentJournal.DurabilityMode.values()) + "; using BATCHED");
+            return AppointmentJournal.DurabilityMode.BATCHED;
+        }
+    }
+    
+    private static void rehydratePatients(SegmentedPatientStore store, PatientRepository repository)
+            throws IOException {
+        long loadStart = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            if (store.getPatientIds().isEmpty()) {
+                // first start on segment storage: carry over patients saved as individual .ser files
+                store.saveAll(new SerializedPatientStore().loadAll(pool));
+                store.flush();
+            }
+            // decoded a batch at a time; beyond the cache only directory summaries stay on the heap
+            long[] loaded = new long[1];
+            store.loadAll(pool, REHYDRATE_BATCH, batch -> {
+                repository.bulkLoad(batch);
+                loaded[0] += batch.size();
+            });
+            repository.rebuildExistenceFilter();
+            long elapsedNanos = Math.max(1, System.nanoTime() - loadStart);
+            System.out.printf("Loaded %d patients in %d ms (%.0f records/sec)%n", loaded[0],
+                              elapsedNanos / 1_000_000, loaded[0] * 1e9 / elapsedNanos);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
     private static void loadSampleData() throws InvalidPatientException {
-        Patient p1 = patientService.registerPatient("John Smith", 45, "Male", "O+", "555-0101", "123 Main St");
-        Patient p2 = patientService.registerPatient("Sarah Johnson", 32, "Female", "A+", "555-0102", "456 Oak Ave");
+        // sample data is persisted, so it is only seeded into a system with nothing stored:
+        // a restart, or a roster whose patients were all discharged, must not gain sample records
+        if (patientService.getTotalPatients() > 0 || doctorService.getTotalDoctors() > 0
+                || appointmentService.getTotalAppointments() > 0) {
+            return;
+        }
+        patientService.registerPatient("John Smith", 45, "Male", "O+", "555-0101", "123 Main St");
+        patientService.registerPatient("Sarah Johnson", 32, "Female", "A+", "555-0102", "456 Oak Ave");
         Patient p3 = patientService.registerPatient("Michael Brown", 58, "Male", "B+", "555-0103", "789 Pine Rd");
         patientService.markPatientAsCritical(p3.getPatientId(), true);
         
-        Doctor d1 = doctorService.registerDoctor("Dr. Emily Davis", "Cardiology", "Cardiology", "555-0201", "emily.davis@hospital.com", 15, 250.0);
-        Doctor d2 = doctorService.registerDoctor("Dr. Robert Wilson", "Orthopedics", "Orthopedics", "555-0202", "robert.wilson@hospital.com", 12, 200.0);
-        Doctor d3 = doctorService.registerDoctor("Dr. Lisa Anderson", "Neurology", "Neurology", "555-0203", "lisa.anderson@hospital.com", 10, 300.0);
+        doctorService.registerDoctor("Dr. Emily Davis", "Cardiology", "Cardiology", "555-0201", "emily.davis@hospital.com", 15, 250.0);
+        doctorService.registerDoctor("Dr. Robert Wilson", "Orthopedics", "Orthopedics", "555-0202", "robert.wilson@hospital.com", 12, 200.0);
+        doctorService.registerDoctor("Dr. Lisa Anderson", "Neurology", "Neurology", "555-0203", "lisa.anderson@hospital.com", 10, 300.0);
     }
     
     static class ApiHandler implements HttpHandler {
+        private final ExecutorService exportExecutor = Executors.newFixedThreadPool(EXPORT_THREADS, r -> {
+            Thread thread = new Thread(r, "export-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final ExecutorService importExecutor = Executors.newFixedThreadPool(IMPORT_THREADS, r -> {
+            Thread thread = new Thread(r, "import-reader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             String method = exchange.getRequestMethod();
@@ -77,6 +208,21 @@ public class Main {
             
             Map<String, String> params = new HashMap<>();
             
+            if ("POST".equals(method) && "/patients/import".equals(path)) {
+                // the body is the record stream, read as it arrives
+                String query = exchange.getRequestURI().getQuery();
+                Map<String, String> importParams = query == null ? params : parseQueryString(query);
+                importExecutor.execute(() -> importPatients(exchange, importParams));
+                return;
+            }
+            
+            if ("GET".equals(method) && "/export".equals(path)) {
+                String query = exchange.getRequestURI().getQuery();
+                Map<String, String> exportParams = query == null ? params : parseQueryString(query);
+                exportExecutor.execute(() -> export(exchange, exportParams));
+                return;
+            }
+            
             if ("POST".equals(method)) {
                 InputStreamReader isr = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8);
                 BufferedReader br = new BufferedReader(isr);
@@ -91,16 +237,50 @@ public class Main {
                 }
             }
             
-            String response = controller.handleRequest(method, path, params);
-            
-            exchange.getResponseHeaders().set("Content-Type", "application/json");
-            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+            send(exchange, controller.handleRequest(method, path, params));
+        }
+        
+        private void export(HttpExchange exchange, Map<String, String> params) {
+            try {
+                String error = controller.exportData(params, () -> {
+                    setHeaders(exchange);
+                    // a length of 0 selects chunked transfer, as the size is not known up front
+                    exchange.sendResponseHeaders(200, 0);
+                    return exchange.getResponseBody();
+                });
+                if (error != null) {
+                    send(exchange, error);
+                }
+            } catch (Exception e) {
+                System.err.println("Warning: Export failed: " + e.getMessage());
+            } finally {
+                exchange.close();
+            }
+        }
+        
+        private void importPatients(HttpExchange exchange, Map<String, String> params) {
+            try {
+                send(exchange, controller.importPatients(params, exchange.getRequestBody()));
+            } catch (Exception e) {
+                System.err.println("Warning: Import failed: " + e.getMessage());
+            } finally {
+                exchange.close();
+            }
+        }
+        
+        private void send(HttpExchange exchange, String response) throws IOException {
+            setHeaders(exchange);
             exchange.sendResponseHeaders(200, response.getBytes().length);
             OutputStream os = exchange.getResponseBody();
             os.write(response.getBytes());
             os.close();
         }
         
+        private void setHeaders(HttpExchange exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        }
+        
         private Map<String, String> parseQueryString(String query) {
             Map<String, String> params = new HashMap<>();
             if (query != null && !query.isEmpty()) {
@@ -6,12 +6,23 @@ import com.hospital.strategies.*;
 import com.hospital.factories.MedicalReportFactory;
 import com.hospital.utils.ReflectionUtils;
 import com.hospital.exceptions.InvalidPatientException;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Stream;
 
 public class HospitalController {
+    private static final List<String> EXPORT_TYPES = List.of("patients", "doctors", "appointments");
+    
     private PatientService patientService;
     private DoctorService doctorService;
     private AppointmentService appointmentService;
@@ -39,6 +50,10 @@ public class HospitalController {
                     return getCriticalPatients();
                 case "GET /patients/stats":
                     return getPatientStats();
+                case "GET /patients/history":
+                    return getMedicalHistory(params);
+                case "GET /patients/search":
+                    return searchPatients(params);
                 case "POST /doctors":
                     return registerDoctor(params);
                 case "GET /doctors":
@@ -47,10 +62,18 @@ public class HospitalController {
                     return getDoctorStats();
                 case "POST /appointments":
                     return bookAppointment(params);
+                case "POST /appointments/batch":
+                    return bookAppointments(params);
+                case "GET /appointments/available":
+                    return findAvailableSlots(params);
                 case "GET /appointments":
-                    return getAllAppointments();
+                    return params.isEmpty() ? getAllAppointments() : getAppointmentsPage(params);
                 case "POST /appointments/cancel":
                     return cancelAppointment(params);
+                case "POST /appointments/waitlist":
+                    return joinWaitlist(params);
+                case "GET /appointments/waitlist":
+                    return getWaitlist(params);
                 case "POST /appointments/complete":
                     return completeAppointment(params);
                 case "POST /billing":
@@ -98,11 +121,57 @@ public class HospitalController {
     private String getPatientStats() throws Exception {
         Map<String, Object> stats = new HashMap<>();
         stats.put("total", patientService.getTotalPatients());
-        stats.put("critical", patientService.getCriticalPatients().size());
+        stats.put("critical", patientService.getCriticalPatientCount());
         stats.put("byBloodGroup", patientService.getPatientCountByBloodGroup());
+        stats.put("durabilityLagMs", patientService.getDurabilityLagMillis());
+        stats.put("cache", patientService.getCacheStats());
+        stats.put("existenceFilter", patientService.getExistenceFilterStats());
+        stats.put("search", patientService.getSearchIndexStats());
         return successResponse(stats);
     }
     
+    private String getMedicalHistory(Map<String, String> params) throws Exception {
+        String patientId = params.get("patientId");
+        // only known ids become file names
+        patientService.getPatient(patientId);
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 50;
+        limit = Math.max(1, Math.min(limit, 500));
+        if (!params.containsKey("from") && !params.containsKey("to") && !params.containsKey("cursor")) {
+            return successResponse(patientService.getRecentMedicalHistory(patientId, limit));
+        }
+        LocalDateTime from;
+        LocalDateTime to;
+        try {
+            from = params.containsKey("from") ? LocalDateTime.parse(params.get("from")) : null;
+            to = params.containsKey("to") ? LocalDateTime.parse(params.get("to")) : null;
+        } catch (DateTimeParseException e) {
+            return errorResponse("Invalid date: " + e.getParsedString() + " (expected yyyy-MM-ddTHH:mm:ss)");
+        }
+        // cursors are the line numbers handed out with earlier pages
+        String cursor = params.get("cursor");
+        if (cursor != null && !cursor.matches("\\d{1,18}")) {
+            return errorResponse("Invalid cursor: " + cursor);
+        }
+        
+        HistoryPage page = patientService.getMedicalHistoryPage(
+            patientId,
+            from,
+            to,
+            cursor,
+            limit
+        );
+        return successResponse(page);
+    }
+    
+    private String searchPatients(Map<String, String> params) throws Exception {
+        String query = params.get("q");
+        if (query == null || query.trim().isEmpty()) {
+            return errorResponse("Search query q is required");
+        }
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 20;
+        return successResponse(patientService.searchPatients(query, Math.max(1, Math.min(limit, 100))));
+    }
+    
     private String registerDoctor(Map<String, String> params) throws Exception {
         Doctor doctor = doctorService.registerDoctor(
             params.get("name"),
@@ -138,24 +207,91 @@ public class HospitalController {
         );
         
         if (params.containsKey("symptoms")) {
-            appointment.setSymptoms(params.get("symptoms"));
-            appointmentService.updateAppointment(appointment);
+            Appointment withSymptoms = new Appointment(appointment);
+            withSymptoms.setSymptoms(params.get("symptoms"));
+            appointment = appointmentService.updateAppointment(withSymptoms, appointment.getVersion());
         }
         
         return successResponse(appointment);
     }
     
+    private String bookAppointments(Map<String, String> params) throws Exception {
+        List<BookingRequest> requests = objectMapper.readValue(
+            params.get("bookings"),
+            objectMapper.getTypeFactory().constructCollectionType(List.class, BookingRequest.class)
+        );
+        List<Appointment> appointments = appointmentService.bookAppointments(requests);
+        return successResponse(appointments);
+    }
+    
+    private String findAvailableSlots(Map<String, String> params) throws Exception {
+        LocalDate from = params.containsKey("from") ? LocalDate.parse(params.get("from")) : LocalDate.now();
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 10;
+        limit = Math.max(1, Math.min(limit, 100));
+        
+        List<AvailableSlot> slots;
+        if (params.containsKey("specialization")) {
+            slots = appointmentService.findEarliestAvailableBySpecialization(params.get("specialization"), from, limit);
+        } else if (params.containsKey("department")) {
+            slots = appointmentService.findEarliestAvailableByDepartment(params.get("department"), from, limit);
+        } else {
+            return errorResponse("specialization or department is required");
+        }
+        return successResponse(slots);
+    }
+    
     private String getAllAppointments() throws Exception {
         List<Appointment> appointments = appointmentService.getAllAppointments();
         return successResponse(appointments);
     }
     
+    private String getAppointmentsPage(Map<String, String> params) throws Exception {
+        LocalDate from = params.containsKey("from") ? LocalDate.parse(params.get("from")) : null;
+        LocalDate to = params.containsKey("to") ? LocalDate.parse(params.get("to")) : null;
+        int limit = params.containsKey("limit") ? Integer.parseInt(params.get("limit")) : 50;
+        
+        AppointmentPage page = appointmentService.getAppointmentsInRange(
+            from,
+            to,
+            params.get("doctorId"),
+            params.get("cursor"),
+            Math.max(1, Math.min(limit, 500))
+        );
+        return successResponse(page);
+    }
+    
     private String cancelAppointment(Map<String, String> params) throws Exception {
         appointmentService.cancelAppointment(params.get("appointmentId"));
         return successResponse("Appointment cancelled successfully");
     }
     
+    private String joinWaitlist(Map<String, String> params) throws Exception {
+        WaitlistEntry entry = appointmentService.joinWaitlist(
+            params.get("patientId"),
+            params.get("doctorId"),
+            LocalDate.parse(params.get("date"))
+        );
+        return successResponse(entry);
+    }
+    
+    private String getWaitlist(Map<String, String> params) throws Exception {
+        List<WaitlistEntry> entries = appointmentService.getWaitlist(
+            params.get("doctorId"),
+            LocalDate.parse(params.get("date"))
+        );
+        return successResponse(entries);
+    }
+    
     private String completeAppointment(Map<String, String> params) throws Exception {
+        if (params.containsKey("version")) {
+            Appointment appointment = appointmentService.completeAppointment(
+                params.get("appointmentId"),
+                params.get("diagnosis"),
+                params.get("prescription"),
+                Long.parseLong(params.get("version"))
+            );
+            return successResponse(appointment);
+        }
         appointmentService.completeAppointment(
             params.get("appointmentId"),
             params.get("diagnosis"),
@@ -204,6 +340,73 @@ public class HospitalController {
         return successResponse(result);
     }
     
+    /**
+     * Handles POST /patients/import, whose body is the CSV or NDJSON stream itself
+     * rather than form parameters; the format comes from the query string.
+     */
+    public String importPatients(Map<String, String> params, InputStream body) {
+        try {
+            return successResponse(patientService.importPatients(body, params.get("format")));
+        } catch (Exception e) {
+            return errorResponse(e.getMessage());
+        }
+    }
+    
+    /**
+     * Handles GET /export: writes every record of the requested types (type=patients,
+     * doctors and/or appointments, comma-separated; all three by default) as
+     * {"success":true,"data":{"patients":[...],...}}. Records are serialized one at a
+     * time straight to the stream body opens, so memory use does not grow with the
+     * tables. Returns an error response, without opening body, for an unknown type;
+     * otherwise null once the stream has been written and closed.
+     */
+    public String exportData(Map<String, String> params, Callable<OutputStream> body) throws Exception {
+        List<String> types = new ArrayList<>();
+        for (String type : params.getOrDefault("type", String.join(",", EXPORT_TYPES)).split(",")) {
+            type = type.trim();
+            if (!EXPORT_TYPES.contains(type)) {
+                return errorResponse("Unknown export type: " + type);
+            }
+            if (!types.contains(type)) {
+                types.add(type);
+            }
+        }
+        
+        // flushing after each record would send one tiny chunk per record
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body.call())) {
+            // an export cut short by an error must not end as well-formed JSON
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.writeStartObject();
+            generator.writeBooleanField("success", true);
+            generator.writeObjectFieldStart("data");
+            for (String type : types) {
+                generator.writeArrayFieldStart(type);
+                Iterator<?> records = exportRecords(type).iterator();
+                while (records.hasNext()) {
+                    writer.writeValue(generator, records.next());
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return null;
+    }
+    
+    private Stream<?> exportRecords(String type) {
+        switch (type) {
+            case "patients":
+                return patientService.streamAllPatients();
+            case "doctors":
+                return doctorService.streamAllDoctors();
+            case "appointments":
+                return appointmentService.streamAllAppointments();
+            default:
+                throw new IllegalArgumentException("Unknown export type: " + type);
+        }
+    }
+    
     private String successResponse(Object data) throws Exception {
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
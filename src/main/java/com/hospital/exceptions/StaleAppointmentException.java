@@ -0,0 +1,32 @@
+package com.hospital.exceptions;
+
+public class StaleAppointmentException extends RuntimeException {
+    private String appointmentId;
+    private long expectedVersion;
+    private long currentVersion;
+    
+    public StaleAppointmentException(String appointmentId, long expectedVersion, long currentVersion) {
+        super("Appointment " + appointmentId + " was modified by another request (expected version "
+              + expectedVersion + ", current version " + currentVersion + ")");
+        this.appointmentId = appointmentId;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+    }
+    
+    public String getAppointmentId() {
+        return appointmentId;
+    }
+    
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+    
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+    
+    @Override
+    public String toString() {
+        return "StaleAppointmentException: " + getMessage();
+    }
+}
@@ -1,12 +1,12 @@
 package com.hospital.factories;
 
 import com.hospital.models.MedicalReport;
-import java.util.UUID;
+import com.hospital.utils.IdGenerators;
 
 public class MedicalReportFactory {
     
     public static MedicalReport createReport(String patientId, String reportType, String content, String generatedBy) {
-        String reportId = "RPT-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        String reportId = IdGenerators.next("RPT");
         
         switch (reportType.toUpperCase()) {
             case "BLOOD_TEST":
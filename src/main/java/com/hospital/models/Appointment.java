@@ -17,6 +17,7 @@ public class Appointment implements Serializable {
     private String diagnosis;
     private String prescription;
     private LocalDateTime createdAt;
+    private long version;
     
     public Appointment() {
         this.status = "SCHEDULED";
@@ -34,6 +35,23 @@ public class Appointment implements Serializable {
         this.createdAt = LocalDateTime.now();
     }
     
+    /**
+     * Copies every field, so an update can be prepared without touching the shared instance.
+     */
+    public Appointment(Appointment other) {
+        this.appointmentId = other.appointmentId;
+        this.patientId = other.patientId;
+        this.doctorId = other.doctorId;
+        this.appointmentDate = other.appointmentDate;
+        this.timeSlot = other.timeSlot;
+        this.status = other.status;
+        this.symptoms = other.symptoms;
+        this.diagnosis = other.diagnosis;
+        this.prescription = other.prescription;
+        this.createdAt = other.createdAt;
+        this.version = other.version;
+    }
+    
     public String getAppointmentId() {
         return appointmentId;
     }
@@ -114,6 +132,14 @@ public class Appointment implements Serializable {
         this.createdAt = createdAt;
     }
     
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+    
     @Override
     public String toString() {
         return "Appointment{" +
@@ -123,6 +149,7 @@ public class Appointment implements Serializable {
                 ", appointmentDate=" + appointmentDate +
                 ", timeSlot='" + timeSlot + '\'' +
                 ", status='" + status + '\'' +
+                ", version=" + version +
                 '}';
     }
 }
@@ -0,0 +1,25 @@
+package com.hospital.models;
+
+import java.util.List;
+
+public class AppointmentPage {
+    private List<Appointment> appointments;
+    private String nextCursor;
+    
+    public AppointmentPage(List<Appointment> appointments, String nextCursor) {
+        this.appointments = appointments;
+        this.nextCursor = nextCursor;
+    }
+    
+    public List<Appointment> getAppointments() {
+        return appointments;
+    }
+    
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hospital.models;
+
+import java.time.LocalDate;
+
+public class AvailableSlot {
+    private String doctorId;
+    private String doctorName;
+    private String specialization;
+    private String department;
+    private LocalDate date;
+    private String timeSlot;
+    
+    public AvailableSlot() {
+    }
+    
+    public AvailableSlot(Doctor doctor, LocalDate date, String timeSlot) {
+        this.doctorId = doctor.getDoctorId();
+        this.doctorName = doctor.getName();
+        this.specialization = doctor.getSpecialization();
+        this.department = doctor.getDepartment();
+        this.date = date;
+        this.timeSlot = timeSlot;
+    }
+    
+    public String getDoctorId() {
+        return doctorId;
+    }
+    
+    public String getDoctorName() {
+        return doctorName;
+    }
+    
+    public String getSpecialization() {
+        return specialization;
+    }
+    
+    public String getDepartment() {
+        return department;
+    }
+    
+    public LocalDate getDate() {
+        return date;
+    }
+    
+    public String getTimeSlot() {
+        return timeSlot;
+    }
+    
+    @Override
+    public String toString() {
+        return "AvailableSlot{" +
+                "doctorId='" + doctorId + '\'' +
+                ", date=" + date +
+                ", timeSlot='" + timeSlot + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,71 @@
+package com.hospital.models;
+
+import java.time.LocalDate;
+
+public class BookingRequest {
+    private String patientId;
+    private String doctorId;
+    private LocalDate date;
+    private String timeSlot;
+    private String symptoms;
+    
+    public BookingRequest() {
+    }
+    
+    public BookingRequest(String patientId, String doctorId, LocalDate date, String timeSlot) {
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.date = date;
+        this.timeSlot = timeSlot;
+    }
+    
+    public String getPatientId() {
+        return patientId;
+    }
+    
+    public void setPatientId(String patientId) {
+        this.patientId = patientId;
+    }
+    
+    public String getDoctorId() {
+        return doctorId;
+    }
+    
+    public void setDoctorId(String doctorId) {
+        this.doctorId = doctorId;
+    }
+    
+    public LocalDate getDate() {
+        return date;
+    }
+    
+    public void setDate(LocalDate date) {
+        this.date = date;
+    }
+    
+    public String getTimeSlot() {
+        return timeSlot;
+    }
+    
+    public void setTimeSlot(String timeSlot) {
+        this.timeSlot = timeSlot;
+    }
+    
+    public String getSymptoms() {
+        return symptoms;
+    }
+    
+    public void setSymptoms(String symptoms) {
+        this.symptoms = symptoms;
+    }
+    
+    @Override
+    public String toString() {
+        return "BookingRequest{" +
+                "patientId='" + patientId + '\'' +
+                ", doctorId='" + doctorId + '\'' +
+                ", date=" + date +
+                ", timeSlot='" + timeSlot + '\'' +
+                '}';
+    }
+}
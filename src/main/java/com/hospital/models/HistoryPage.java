@@ -0,0 +1,31 @@
+package com.hospital.models;
+
+import java.util.List;
+
+public class HistoryPage {
+    private List<String> entries;
+    private String nextCursor;
+    private long totalEntries;
+    
+    public HistoryPage(List<String> entries, String nextCursor, long totalEntries) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+        this.totalEntries = totalEntries;
+    }
+    
+    public List<String> getEntries() {
+        return entries;
+    }
+    
+    public String getNextCursor() {
+        return nextCursor;
+    }
+    
+    public long getTotalEntries() {
+        return totalEntries;
+    }
+    
+    public boolean isHasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,19 @@
+package com.hospital.models;
+
+public class ImportError {
+    private long line;
+    private String message;
+    
+    public ImportError(long line, String message) {
+        this.line = line;
+        this.message = message;
+    }
+    
+    public long getLine() {
+        return line;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+}
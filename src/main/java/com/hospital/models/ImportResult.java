@@ -0,0 +1,44 @@
+package com.hospital.models;
+
+import java.util.List;
+
+public class ImportResult {
+    private long imported;
+    private long failed;
+    private List<ImportError> errors;
+    private long elapsedMillis;
+    
+    public ImportResult(long imported, long failed, List<ImportError> errors, long elapsedMillis) {
+        this.imported = imported;
+        this.failed = failed;
+        this.errors = errors;
+        this.elapsedMillis = elapsedMillis;
+    }
+    
+    public long getImported() {
+        return imported;
+    }
+    
+    public long getFailed() {
+        return failed;
+    }
+    
+    /**
+     * The first failures in input order; failed counts all of them.
+     */
+    public List<ImportError> getErrors() {
+        return errors;
+    }
+    
+    public boolean isErrorsTruncated() {
+        return failed > errors.size();
+    }
+    
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+    
+    public long getRecordsPerSecond() {
+        return elapsedMillis == 0 ? imported * 1000 : imported * 1000 / elapsedMillis;
+    }
+}
@@ -3,11 +3,30 @@ package com.hospital.models;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 public class Patient implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    /**
+     * The fields whose changes are tracked for incremental persistence.
+     */
+    public enum Field {
+        NAME,
+        AGE,
+        GENDER,
+        BLOOD_GROUP,
+        CONTACT_NUMBER,
+        ADDRESS,
+        MEDICAL_HISTORY,
+        CRITICAL,
+        CONSULTATION_FEE,
+        REGISTRATION_DATE
+    }
+    
+    private static final int ALL_FIELDS = (1 << Field.values().length) - 1;
+    
     private String patientId;
     private String name;
     private int age;
@@ -19,10 +38,15 @@ public class Patient implements Serializable {
     private boolean isCritical;
     private double consultationFee;
     private LocalDate registrationDate;
+    // changes since the last markClean; not serialized, so a deserialized patient starts clean
+    private transient int changedFields;
+    // entries added to the end of the history since the last markClean
+    private transient int appendedHistory;
     
     public Patient() {
         this.medicalHistory = new ArrayList<>();
         this.registrationDate = LocalDate.now();
+        this.changedFields = ALL_FIELDS;
     }
     
     public Patient(String patientId, String name, int age, String gender, 
@@ -38,6 +62,29 @@ public class Patient implements Serializable {
         this.isCritical = false;
         this.consultationFee = 0.0;
         this.registrationDate = LocalDate.now();
+        this.changedFields = ALL_FIELDS;
+    }
+    
+    /**
+     * Copies every field, including a private copy of the medical history and the
+     * record of what changed.
+     */
+    public Patient(Patient other) {
+        synchronized (other) {
+            this.patientId = other.patientId;
+            this.name = other.name;
+            this.age = other.age;
+            this.gender = other.gender;
+            this.bloodGroup = other.bloodGroup;
+            this.contactNumber = other.contactNumber;
+            this.address = other.address;
+            this.medicalHistory = new ArrayList<>(other.medicalHistory);
+            this.isCritical = other.isCritical;
+            this.consultationFee = other.consultationFee;
+            this.registrationDate = other.registrationDate;
+            this.changedFields = other.changedFields;
+            this.appendedHistory = other.appendedHistory;
+        }
     }
     
     public String getPatientId() {
@@ -52,84 +99,173 @@ public class Patient implements Serializable {
         return name;
     }
     
-    public void setName(String name) {
+    public synchronized void setName(String name) {
         this.name = name;
+        changed(Field.NAME);
     }
     
     public int getAge() {
         return age;
     }
     
-    public void setAge(int age) {
+    public synchronized void setAge(int age) {
         this.age = age;
+        changed(Field.AGE);
     }
     
     public String getGender() {
         return gender;
     }
     
-    public void setGender(String gender) {
+    public synchronized void setGender(String gender) {
         this.gender = gender;
+        changed(Field.GENDER);
     }
     
     public String getBloodGroup() {
         return bloodGroup;
     }
     
-    public void setBloodGroup(String bloodGroup) {
+    public synchronized void setBloodGroup(String bloodGroup) {
         this.bloodGroup = bloodGroup;
+        changed(Field.BLOOD_GROUP);
     }
     
     public String getContactNumber() {
         return contactNumber;
     }
     
-    public void setContactNumber(String contactNumber) {
+    public synchronized void setContactNumber(String contactNumber) {
         this.contactNumber = contactNumber;
+        changed(Field.CONTACT_NUMBER);
     }
     
     public String getAddress() {
         return address;
     }
     
-    public void setAddress(String address) {
+    public synchronized void setAddress(String address) {
         this.address = address;
+        changed(Field.ADDRESS);
     }
     
-    public List<String> getMedicalHistory() {
+    public synchronized List<String> getMedicalHistory() {
         return new ArrayList<>(medicalHistory);
     }
     
-    public void addMedicalHistory(String record) {
+    // not a bean getter, so it stays out of the JSON
+    public int medicalHistorySize() {
+        return medicalHistory.size();
+    }
+    
+    public synchronized void addMedicalHistory(String record) {
         this.medicalHistory.add(record);
+        appendedHistory++;
     }
     
-    public void setMedicalHistory(List<String> medicalHistory) {
+    public synchronized void setMedicalHistory(List<String> medicalHistory) {
         this.medicalHistory = new ArrayList<>(medicalHistory);
+        changed(Field.MEDICAL_HISTORY);
     }
     
     public boolean isCritical() {
         return isCritical;
     }
     
-    public void setCritical(boolean critical) {
+    public synchronized void setCritical(boolean critical) {
         isCritical = critical;
+        changed(Field.CRITICAL);
     }
     
     public double getConsultationFee() {
         return consultationFee;
     }
     
-    public void setConsultationFee(double consultationFee) {
+    public synchronized void setConsultationFee(double consultationFee) {
         this.consultationFee = consultationFee;
+        changed(Field.CONSULTATION_FEE);
     }
     
     public LocalDate getRegistrationDate() {
         return registrationDate;
     }
     
-    public void setRegistrationDate(LocalDate registrationDate) {
+    public synchronized void setRegistrationDate(LocalDate registrationDate) {
         this.registrationDate = registrationDate;
+        changed(Field.REGISTRATION_DATE);
+    }
+    
+    /**
+     * Fields set since the last markClean. MEDICAL_HISTORY means the history was
+     * replaced; entries only added to it are reported by appendedHistory instead.
+     */
+    public synchronized EnumSet<Field> changedFields() {
+        EnumSet<Field> fields = EnumSet.noneOf(Field.class);
+        for (Field field : Field.values()) {
+            if ((changedFields & (1 << field.ordinal())) != 0) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+    
+    /**
+     * History entries added since the last markClean, unless the history was replaced.
+     */
+    public synchronized List<String> appendedHistory() {
+        if ((changedFields & (1 << Field.MEDICAL_HISTORY.ordinal())) != 0 || appendedHistory == 0) {
+            return new ArrayList<>();
+        }
+        int size = medicalHistory.size();
+        return new ArrayList<>(medicalHistory.subList(size - Math.min(appendedHistory, size), size));
+    }
+    
+    public synchronized boolean hasChanges() {
+        return changedFields != 0 || appendedHistory != 0;
+    }
+    
+    /**
+     * True for a patient that was never stored, so every field is new.
+     */
+    public boolean allFieldsChanged() {
+        return changedFields == ALL_FIELDS;
+    }
+    
+    /**
+     * Call once the patient's current state is stored. Prefer snapshotAndMarkClean when
+     * other threads may be changing the patient meanwhile.
+     */
+    public synchronized void markClean() {
+        changedFields = 0;
+        appendedHistory = 0;
+    }
+    
+    /**
+     * Copies the patient and marks it clean in one step, so a change made concurrently
+     * either is in the copy or stays recorded on the patient for the next store. If
+     * storing the copy fails, hand it back through mergeChanges.
+     */
+    public synchronized Patient snapshotAndMarkClean() {
+        Patient snapshot = new Patient(this);
+        markClean();
+        return snapshot;
+    }
+    
+    /**
+     * Adds the changes recorded on an earlier snapshot of this patient that were never
+     * stored, so storing this snapshot's changes covers both.
+     */
+    public synchronized void mergeChanges(Patient earlier) {
+        int historyReplaced = 1 << Field.MEDICAL_HISTORY.ordinal();
+        if ((changedFields & historyReplaced) == 0 && earlier.appendedHistory != 0) {
+            // the earlier appends are still at the end, just before this snapshot's own
+            appendedHistory += earlier.appendedHistory;
+        }
+        changedFields |= earlier.changedFields;
+    }
+    
+    private void changed(Field field) {
+        changedFields |= 1 << field.ordinal();
     }
     
     @Override
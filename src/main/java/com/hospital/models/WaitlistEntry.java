@@ -0,0 +1,74 @@
+package com.hospital.models;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+public class WaitlistEntry implements Comparable<WaitlistEntry> {
+    private final String patientId;
+    private final String doctorId;
+    private final LocalDate date;
+    private final boolean critical;
+    private final long sequence;
+    private final LocalDateTime requestedAt;
+    // set once the entry is promoted to a booking
+    private volatile String appointmentId;
+    
+    public WaitlistEntry(String patientId, String doctorId, LocalDate date, boolean critical, long sequence) {
+        this.patientId = patientId;
+        this.doctorId = doctorId;
+        this.date = date;
+        this.critical = critical;
+        this.sequence = sequence;
+        this.requestedAt = LocalDateTime.now();
+    }
+    
+    public String getPatientId() {
+        return patientId;
+    }
+    
+    public String getDoctorId() {
+        return doctorId;
+    }
+    
+    public LocalDate getDate() {
+        return date;
+    }
+    
+    public boolean isCritical() {
+        return critical;
+    }
+    
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public LocalDateTime getRequestedAt() {
+        return requestedAt;
+    }
+    
+    public String getAppointmentId() {
+        return appointmentId;
+    }
+    
+    public void setAppointmentId(String appointmentId) {
+        this.appointmentId = appointmentId;
+    }
+    
+    @Override
+    public int compareTo(WaitlistEntry other) {
+        if (critical != other.critical) {
+            return critical ? -1 : 1;
+        }
+        return Long.compare(sequence, other.sequence);
+    }
+    
+    @Override
+    public String toString() {
+        return "WaitlistEntry{" +
+                "patientId='" + patientId + '\'' +
+                ", doctorId='" + doctorId + '\'' +
+                ", date=" + date +
+                ", critical=" + critical +
+                '}';
+    }
+}
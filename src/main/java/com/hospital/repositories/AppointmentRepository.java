@@ -1,29 +1,97 @@
 package com.hospital.repositories;
 
 import com.hospital.models.Appointment;
+import com.hospital.models.AppointmentPage;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class AppointmentRepository {
     private Map<String, Appointment> appointments;
-    private Map<String, Set<String>> bookedSlots;
+    private Map<String, SlotCalendar> slotCalendars;
+    private Map<String, Set<String>> appointmentsByPatient;
+    private Map<String, Set<String>> appointmentsByDoctor;
+    private NavigableSet<String> appointmentsByDate;
+    private Map<String, NavigableSet<String>> appointmentsByDoctorAndDate;
+    private Map<String, Set<String>> appointmentsByStatus;
+    private Map<String, IndexKeys> indexedKeys;
     
     public AppointmentRepository() {
         this.appointments = new ConcurrentHashMap<>();
-        this.bookedSlots = new ConcurrentHashMap<>();
+        this.slotCalendars = new ConcurrentHashMap<>();
+        this.appointmentsByPatient = new ConcurrentHashMap<>();
+        this.appointmentsByDoctor = new ConcurrentHashMap<>();
+        this.appointmentsByDate = new ConcurrentSkipListSet<>();
+        this.appointmentsByDoctorAndDate = new ConcurrentHashMap<>();
+        this.appointmentsByStatus = new ConcurrentHashMap<>();
+        this.indexedKeys = new ConcurrentHashMap<>();
     }
     
-    public synchronized void addAppointment(Appointment appointment) {
-        if (appointment != null && appointment.getAppointmentId() != null) {
-            appointments.put(appointment.getAppointmentId(), appointment);
-            
-            String slotKey = appointment.getDoctorId() + "_" + 
-                           appointment.getAppointmentDate() + "_" + 
-                           appointment.getTimeSlot();
-            bookedSlots.computeIfAbsent(appointment.getDoctorId(), k -> ConcurrentHashMap.newKeySet())
-                      .add(slotKey);
+    /**
+     * Stores an appointment read back from the journal and marks its slot as taken.
+     * Returns false when the slot could not be marked because the doctor does not offer
+     * it or another appointment already holds it; the appointment is stored either way.
+     */
+    public boolean addAppointment(Appointment appointment) {
+        if (appointment == null || appointment.getAppointmentId() == null) {
+            return false;
+        }
+        appointments.put(appointment.getAppointmentId(), appointment);
+        reindex(appointment);
+        if (!holdsSlot(appointment)) {
+            return true;
+        }
+        SlotCalendar calendar = appointment.getDoctorId() == null ? null
+                              : slotCalendars.get(appointment.getDoctorId());
+        // without a calendar yet, the slot is marked when the doctor's slots are registered
+        return calendar == null || reserve(calendar, appointment);
+    }
+    
+    /**
+     * Reserves the appointment's slot and stores it, or returns false without storing it.
+     */
+    public boolean tryAddAppointment(Appointment appointment) {
+        if (appointment == null || appointment.getAppointmentId() == null) {
+            return false;
+        }
+        if (!reserveSlot(appointment.getDoctorId(), appointment.getAppointmentDate(), appointment.getTimeSlot())) {
+            return false;
+        }
+        addReservedAppointment(appointment);
+        return true;
+    }
+    
+    /**
+     * Stores an appointment whose slot the caller has already taken through reserveSlot.
+     */
+    public void addReservedAppointment(Appointment appointment) {
+        appointments.put(appointment.getAppointmentId(), appointment);
+        reindex(appointment);
+    }
+    
+    /**
+     * Fails for doctors without registered slots and for slots the doctor does not offer.
+     */
+    public boolean reserveSlot(String doctorId, LocalDate date, String timeSlot) {
+        SlotCalendar calendar = doctorId == null ? null : slotCalendars.get(doctorId);
+        if (calendar == null || date == null) {
+            return false;
+        }
+        int slotIndex = calendar.slotIndex(timeSlot);
+        return slotIndex >= 0 && calendar.reserve(date, slotIndex);
+    }
+    
+    public void releaseSlot(String doctorId, LocalDate date, String timeSlot) {
+        SlotCalendar calendar = slotCalendars.get(doctorId);
+        if (calendar != null) {
+            int slotIndex = calendar.slotIndex(timeSlot);
+            if (slotIndex >= 0) {
+                calendar.release(date, slotIndex);
+            }
         }
     }
     
@@ -31,21 +99,57 @@ public class AppointmentRepository {
         return appointments.get(appointmentId);
     }
     
-    public synchronized void updateAppointment(Appointment appointment) {
-        if (appointment != null && appointments.containsKey(appointment.getAppointmentId())) {
-            appointments.put(appointment.getAppointmentId(), appointment);
+    public void updateAppointment(Appointment appointment) {
+        if (appointment != null && appointment.getAppointmentId() != null) {
+            Appointment stored = appointments.computeIfPresent(appointment.getAppointmentId(), (id, current) -> {
+                appointment.setVersion(current.getVersion() + 1);
+                return appointment;
+            });
+            if (stored != null) {
+                reindex(appointment);
+            }
         }
     }
     
-    public synchronized void deleteAppointment(String appointmentId) {
+    /**
+     * Stores the updated appointment only if the current one is still at expectedVersion,
+     * and bumps its version. Only the appointment's own map bin is locked, so updates to
+     * different appointments never wait on each other. Returns false on a stale write.
+     */
+    public boolean compareAndUpdate(Appointment updated, long expectedVersion) {
+        if (updated == null || updated.getAppointmentId() == null) {
+            return false;
+        }
+        boolean[] swapped = new boolean[1];
+        appointments.computeIfPresent(updated.getAppointmentId(), (id, current) -> {
+            if (current.getVersion() != expectedVersion) {
+                return current;
+            }
+            updated.setVersion(expectedVersion + 1);
+            swapped[0] = true;
+            return updated;
+        });
+        if (swapped[0]) {
+            reindex(updated);
+        }
+        return swapped[0];
+    }
+    
+    public void deleteAppointment(String appointmentId) {
         Appointment appointment = appointments.remove(appointmentId);
         if (appointment != null) {
-            String slotKey = appointment.getDoctorId() + "_" + 
-                           appointment.getAppointmentDate() + "_" + 
-                           appointment.getTimeSlot();
-            Set<String> slots = bookedSlots.get(appointment.getDoctorId());
-            if (slots != null) {
-                slots.remove(slotKey);
+            IndexKeys keys = indexedKeys.remove(appointmentId);
+            if (keys != null) {
+                keys.removeFrom(this, appointmentId);
+            }
+            
+            SlotCalendar calendar = appointment.getDoctorId() == null ? null
+                                  : slotCalendars.get(appointment.getDoctorId());
+            if (calendar != null && appointment.getAppointmentDate() != null && holdsSlot(appointment)) {
+                int slotIndex = calendar.slotIndex(appointment.getTimeSlot());
+                if (slotIndex >= 0) {
+                    calendar.release(appointment.getAppointmentDate(), slotIndex);
+                }
             }
         }
     }
@@ -54,37 +158,298 @@ public class AppointmentRepository {
         return new ArrayList<>(appointments.values());
     }
     
+    /**
+     * Every appointment, without copying; weakly consistent with concurrent changes.
+     */
+    public Stream<Appointment> streamAllAppointments() {
+        return appointments.values().stream();
+    }
+    
     public List<Appointment> getAppointmentsByPatient(String patientId) {
-        return appointments.values().stream()
-                .filter(a -> a.getPatientId().equals(patientId))
-                .collect(Collectors.toList());
+        return lookup(appointmentsByPatient, patientId, a -> patientId.equals(a.getPatientId()));
     }
     
     public List<Appointment> getAppointmentsByDoctor(String doctorId) {
-        return appointments.values().stream()
-                .filter(a -> a.getDoctorId().equals(doctorId))
-                .collect(Collectors.toList());
+        return lookup(appointmentsByDoctor, doctorId, a -> doctorId.equals(a.getDoctorId()));
     }
     
     public List<Appointment> getAppointmentsByDate(LocalDate date) {
-        return appointments.values().stream()
-                .filter(a -> a.getAppointmentDate().equals(date))
-                .collect(Collectors.toList());
+        List<Appointment> result = new ArrayList<>();
+        for (String key : appointmentsByDate.subSet(date + "|", date + "|\uffff")) {
+            Appointment appointment = appointments.get(idOf(key));
+            if (appointment != null && date.equals(appointment.getAppointmentDate())) {
+                result.add(appointment);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Returns up to limit appointments dated within [from, to] (either bound may be null),
+     * ordered by date, time slot and id. Pass the previous page's nextCursor to continue;
+     * each page costs one skip-list seek plus the page itself.
+     */
+    public AppointmentPage getAppointmentsInRange(LocalDate from, LocalDate to, String doctorId,
+                                                  String cursor, int limit) {
+        NavigableSet<String> order = doctorId == null ? appointmentsByDate
+                                                      : appointmentsByDoctorAndDate.get(doctorId);
+        List<Appointment> page = new ArrayList<>();
+        if (order == null || limit <= 0) {
+            return new AppointmentPage(page, null);
+        }
+        
+        NavigableSet<String> window;
+        if (cursor != null && !cursor.isEmpty()) {
+            window = order.tailSet(decodeCursor(cursor), false);
+        } else if (from != null) {
+            window = order.tailSet(from + "|", true);
+        } else {
+            window = order;
+        }
+        String upperBound = to == null ? null : to + "|\uffff";
+        
+        String lastKey = null;
+        for (String key : window) {
+            if (upperBound != null && key.compareTo(upperBound) > 0) {
+                return new AppointmentPage(page, null);
+            }
+            if (page.size() == limit) {
+                return new AppointmentPage(page, encodeCursor(lastKey));
+            }
+            Appointment appointment = appointments.get(idOf(key));
+            if (appointment != null) {
+                page.add(appointment);
+            }
+            lastKey = key;
+        }
+        return new AppointmentPage(page, null);
+    }
+    
+    public boolean isSlotAvailable(String doctorId, LocalDate date, String timeSlot) {
+        SlotCalendar calendar = slotCalendars.get(doctorId);
+        if (calendar == null) {
+            return getAppointmentsByDoctor(doctorId).stream()
+                    .noneMatch(a -> date.equals(a.getAppointmentDate()) && timeSlot.equals(a.getTimeSlot())
+                                    && holdsSlot(a));
+        }
+        int slotIndex = calendar.slotIndex(timeSlot);
+        return slotIndex >= 0 && calendar.isAvailable(date, slotIndex);
+    }
+    
+    public boolean offersSlot(String doctorId, String timeSlot) {
+        SlotCalendar calendar = slotCalendars.get(doctorId);
+        return calendar != null && calendar.slotIndex(timeSlot) >= 0;
+    }
+    
+    public boolean isFullyBooked(String doctorId, LocalDate date) {
+        SlotCalendar calendar = slotCalendars.get(doctorId);
+        return calendar != null && calendar.isFullyBooked(date);
+    }
+    
+    /**
+     * Builds the doctor's calendar from their configured slots and marks the slots of
+     * appointments stored before it existed, such as those replayed at startup.
+     */
+    public void registerDoctorSlots(String doctorId, String[] timeSlots) {
+        slotCalendars.computeIfAbsent(doctorId, k -> markBookedSlots(doctorId, new SlotCalendar(timeSlots)));
+    }
+    
+    /**
+     * Swaps in a calendar for the doctor's changed slot list, carrying over the slots their
+     * stored appointments hold. An appointment in a slot the doctor no longer offers is kept
+     * but no longer occupies the calendar.
+     */
+    public void replaceDoctorSlots(String doctorId, String[] timeSlots) {
+        SlotCalendar calendar = markBookedSlots(doctorId, new SlotCalendar(timeSlots));
+        slotCalendars.put(doctorId, calendar);
+        // picks up bookings stored against the old calendar while this one was being built
+        markBookedSlots(doctorId, calendar);
+    }
+    
+    public void removeDoctorSlots(String doctorId) {
+        slotCalendars.remove(doctorId);
+    }
+    
+    private SlotCalendar markBookedSlots(String doctorId, SlotCalendar calendar) {
+        for (Appointment appointment : getAppointmentsByDoctor(doctorId)) {
+            if (appointment.getAppointmentDate() != null && holdsSlot(appointment)) {
+                reserve(calendar, appointment);
+            }
+        }
+        return calendar;
+    }
+    
+    public boolean hasDoctorSlots(String doctorId) {
+        return slotCalendars.containsKey(doctorId);
     }
     
-    public synchronized boolean isSlotAvailable(String doctorId, LocalDate date, String timeSlot) {
-        String slotKey = doctorId + "_" + date + "_" + timeSlot;
-        Set<String> slots = bookedSlots.get(doctorId);
-        return slots == null || !slots.contains(slotKey);
+    public SlotCalendar getSlotCalendar(String doctorId) {
+        return slotCalendars.get(doctorId);
+    }
+    
+    public void pruneSlotsBefore(LocalDate date) {
+        for (SlotCalendar calendar : slotCalendars.values()) {
+            calendar.pruneBefore(date);
+        }
     }
     
     public List<Appointment> getAppointmentsByStatus(String status) {
-        return appointments.values().stream()
-                .filter(a -> a.getStatus().equalsIgnoreCase(status))
-                .collect(Collectors.toList());
+        if (status == null) {
+            return new ArrayList<>();
+        }
+        return lookup(appointmentsByStatus, statusKey(status), a -> status.equalsIgnoreCase(a.getStatus()));
     }
     
     public long getTotalAppointments() {
         return appointments.size();
     }
+    
+    private <K> List<Appointment> lookup(Map<K, Set<String>> index, K key, Predicate<Appointment> matches) {
+        List<Appointment> result = new ArrayList<>();
+        Set<String> ids = key == null ? null : index.get(key);
+        if (ids == null) {
+            return result;
+        }
+        for (String id : ids) {
+            Appointment appointment = appointments.get(id);
+            // entries are moved after the object is mutated, so re-check the live value
+            if (appointment != null && matches.test(appointment)) {
+                result.add(appointment);
+            }
+        }
+        return result;
+    }
+    
+    private void reindex(Appointment appointment) {
+        String appointmentId = appointment.getAppointmentId();
+        indexedKeys.compute(appointmentId, (id, previous) -> {
+            // index whatever is stored now, so racing updates cannot leave an older version indexed
+            Appointment stored = appointments.get(id);
+            IndexKeys current = IndexKeys.of(stored != null ? stored : appointment);
+            if (previous != null) {
+                previous.removeFrom(this, id, current);
+            }
+            current.addTo(this, id);
+            return current;
+        });
+        if (!appointments.containsKey(appointmentId)) {
+            // lost a race with deleteAppointment; drop whatever we just indexed
+            IndexKeys keys = indexedKeys.remove(appointmentId);
+            if (keys != null) {
+                keys.removeFrom(this, appointmentId);
+            }
+        }
+    }
+    
+    private static boolean reserve(SlotCalendar calendar, Appointment appointment) {
+        int slotIndex = calendar.slotIndex(appointment.getTimeSlot());
+        return slotIndex >= 0 && appointment.getAppointmentDate() != null
+               && calendar.reserve(appointment.getAppointmentDate(), slotIndex);
+    }
+    
+    // a cancelled appointment has already handed its slot back, possibly to someone else
+    private static boolean holdsSlot(Appointment appointment) {
+        return !"CANCELLED".equalsIgnoreCase(appointment.getStatus());
+    }
+    
+    private static String orderKey(LocalDate date, String timeSlot, String appointmentId) {
+        return date == null ? null : date + "|" + timeSlot + "|" + appointmentId;
+    }
+    
+    private static String idOf(String orderKey) {
+        return orderKey.substring(orderKey.lastIndexOf('|') + 1);
+    }
+    
+    private static String encodeCursor(String orderKey) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(orderKey.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+    }
+    
+    private static String statusKey(String status) {
+        return status == null ? "" : status.toUpperCase(Locale.ROOT);
+    }
+    
+    private static <K> void addToBucket(Map<K, Set<String>> index, K key, String appointmentId) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(appointmentId);
+        }
+    }
+    
+    private static <K> void removeFromBucket(Map<K, Set<String>> index, K key, String appointmentId) {
+        if (key != null) {
+            Set<String> bucket = index.get(key);
+            if (bucket != null) {
+                bucket.remove(appointmentId);
+            }
+        }
+    }
+    
+    private static final class IndexKeys {
+        private final String patientId;
+        private final String doctorId;
+        private final String orderKey;
+        private final String status;
+        
+        private IndexKeys(String patientId, String doctorId, String orderKey, String status) {
+            this.patientId = patientId;
+            this.doctorId = doctorId;
+            this.orderKey = orderKey;
+            this.status = status;
+        }
+        
+        static IndexKeys of(Appointment appointment) {
+            return new IndexKeys(appointment.getPatientId(), appointment.getDoctorId(),
+                                 orderKey(appointment.getAppointmentDate(), appointment.getTimeSlot(),
+                                          appointment.getAppointmentId()),
+                                 statusKey(appointment.getStatus()));
+        }
+        
+        void addTo(AppointmentRepository repository, String appointmentId) {
+            addToBucket(repository.appointmentsByPatient, patientId, appointmentId);
+            addToBucket(repository.appointmentsByDoctor, doctorId, appointmentId);
+            if (orderKey != null) {
+                repository.appointmentsByDate.add(orderKey);
+                if (doctorId != null) {
+                    repository.appointmentsByDoctorAndDate
+                              .computeIfAbsent(doctorId, k -> new ConcurrentSkipListSet<>())
+                              .add(orderKey);
+                }
+            }
+            addToBucket(repository.appointmentsByStatus, status, appointmentId);
+        }
+        
+        void removeFrom(AppointmentRepository repository, String appointmentId) {
+            removeFrom(repository, appointmentId, null);
+        }
+        
+        void removeFrom(AppointmentRepository repository, String appointmentId, IndexKeys replacement) {
+            if (replacement == null || !Objects.equals(patientId, replacement.patientId)) {
+                removeFromBucket(repository.appointmentsByPatient, patientId, appointmentId);
+            }
+            if (replacement == null || !Objects.equals(doctorId, replacement.doctorId)) {
+                removeFromBucket(repository.appointmentsByDoctor, doctorId, appointmentId);
+            }
+            if (orderKey != null && (replacement == null || !Objects.equals(orderKey, replacement.orderKey)
+                                     || !Objects.equals(doctorId, replacement.doctorId))) {
+                if (replacement == null || !Objects.equals(orderKey, replacement.orderKey)) {
+                    repository.appointmentsByDate.remove(orderKey);
+                }
+                NavigableSet<String> doctorOrder = doctorId == null ? null
+                                                 : repository.appointmentsByDoctorAndDate.get(doctorId);
+                if (doctorOrder != null) {
+                    doctorOrder.remove(orderKey);
+                }
+            }
+            if (replacement == null || !Objects.equals(status, replacement.status)) {
+                removeFromBucket(repository.appointmentsByStatus, status, appointmentId);
+            }
+        }
+    }
 }
@@ -5,6 +5,7 @@ import com.hospital.models.Patient;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class DoctorRepository {
     private Map<String, Doctor> doctors;
@@ -41,6 +42,13 @@ public class DoctorRepository {
         return new ArrayList<>(doctors.values());
     }
     
+    /**
+     * Every doctor, without copying; weakly consistent with concurrent changes.
+     */
+    public Stream<Doctor> streamAllDoctors() {
+        return doctors.values().stream();
+    }
+    
     public void assignPatientToDoctor(String doctorId, Patient patient) {
         if (doctors.containsKey(doctorId) && patient != null) {
             doctorPatients.computeIfAbsent(doctorId, k -> new ArrayList<>()).add(patient);
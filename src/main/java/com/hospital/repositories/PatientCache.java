@@ -0,0 +1,174 @@
+package com.hospital.repositories;
+
+import com.hospital.models.Patient;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Recently used patients, bounded by total weight rather than count: a patient weighs
+ * one plus one per medical history entry, so a few long-stay patients cannot crowd the
+ * heap the way a count bound would allow. Reads never lock. An unbounded cache is a
+ * plain concurrent map; a bounded one also stamps each entry when it is read and, once
+ * over weight, evicts the least recently used of a small sample of entries taken by a
+ * hand sweeping the map, which approximates LRU without ordering every read. A patient
+ * with changes not yet saved is never evicted, since the store cannot read it back.
+ */
+final class PatientCache {
+    private static final int EVICTION_SAMPLE = 16;
+    
+    private final long maxWeight;
+    private final boolean bounded;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private final LongAdder weight;
+    // taken only by inserts that push the cache over its weight
+    private final ReentrantLock evictionLock;
+    private Iterator<Entry> hand;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+    
+    PatientCache(long maxWeight) {
+        this.maxWeight = maxWeight;
+        this.bounded = maxWeight != Long.MAX_VALUE;
+        this.entries = new ConcurrentHashMap<>();
+        this.weight = new LongAdder();
+        this.evictionLock = new ReentrantLock();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+    }
+    
+    /**
+     * Returns the cached patient, counting a hit or a miss.
+     */
+    Patient get(String patientId) {
+        Patient patient = getQuietly(patientId);
+        (patient == null ? misses : hits).increment();
+        return patient;
+    }
+    
+    /**
+     * Like get, but for scans that should not skew the hit ratio.
+     */
+    Patient getQuietly(String patientId) {
+        Entry entry = entries.get(patientId);
+        if (entry == null) {
+            return null;
+        }
+        if (bounded) {
+            entry.lastUsed = System.nanoTime();
+        }
+        return entry.patient;
+    }
+    
+    void put(Patient patient) {
+        Entry entry = new Entry(patient);
+        Entry replaced = entries.put(patient.getPatientId(), entry);
+        weight.add(entry.weight - (replaced == null ? 0 : replaced.weight));
+        evictIfOver(entry);
+    }
+    
+    void putAll(Collection<Patient> patients) {
+        for (Patient patient : patients) {
+            put(patient);
+        }
+    }
+    
+    /**
+     * Caches a patient just loaded from disk unless another thread cached one first,
+     * and returns whichever is cached, so callers share one instance.
+     */
+    Patient putIfAbsent(Patient patient) {
+        Entry entry = new Entry(patient);
+        Entry existing = entries.putIfAbsent(patient.getPatientId(), entry);
+        if (existing != null) {
+            return existing.patient;
+        }
+        weight.add(entry.weight);
+        evictIfOver(entry);
+        return patient;
+    }
+    
+    void remove(String patientId) {
+        Entry removed = entries.remove(patientId);
+        if (removed != null) {
+            weight.add(-removed.weight);
+        }
+    }
+    
+    long getMaxWeight() {
+        return maxWeight;
+    }
+    
+    int size() {
+        return entries.size();
+    }
+    
+    long getWeight() {
+        return weight.sum();
+    }
+    
+    long getHitCount() {
+        return hits.sum();
+    }
+    
+    long getMissCount() {
+        return misses.sum();
+    }
+    
+    long getEvictionCount() {
+        return evictions.sum();
+    }
+    
+    // never evicts the entry just inserted, even if it alone is over the limit, nor an unsaved one
+    private void evictIfOver(Entry inserted) {
+        if (!bounded || weight.sum() <= maxWeight) {
+            return;
+        }
+        evictionLock.lock();
+        try {
+            while (weight.sum() > maxWeight) {
+                Entry victim = null;
+                for (int sampled = 0; sampled < EVICTION_SAMPLE; sampled++) {
+                    if (hand == null || !hand.hasNext()) {
+                        hand = entries.values().iterator();
+                        if (!hand.hasNext()) {
+                            break;
+                        }
+                    }
+                    Entry candidate = hand.next();
+                    if (candidate != inserted && (victim == null || candidate.lastUsed < victim.lastUsed)
+                            && !candidate.patient.hasChanges()) {
+                        victim = candidate;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                // a concurrent put or remove of the same patient has already adjusted the weight
+                if (entries.remove(victim.patient.getPatientId(), victim)) {
+                    weight.add(-victim.weight);
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    private static final class Entry {
+        private final Patient patient;
+        // fixed when cached; updatePatient re-caches, which re-weighs
+        private final long weight;
+        private volatile long lastUsed;
+        
+        Entry(Patient patient) {
+            this.patient = patient;
+            this.weight = 1 + patient.medicalHistorySize();
+            this.lastUsed = System.nanoTime();
+        }
+    }
+}
@@ -2,15 +2,72 @@ package com.hospital.repositories;
 
 import com.hospital.models.Patient;
 import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.utils.PatientStore;
+import com.hospital.utils.ScalableBloomFilter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+/**
+ * Every patient's id is known in memory along with the few fields the statistics need;
+ * the full records are cached. By default the cache is unbounded and nothing is ever
+ * cold. With tiering enabled, the cache is bounded and patients it evicted are read
+ * back from the patient store on demand. A Bloom filter of every id ever added answers
+ * most lookups of unknown ids before the directory is consulted. Statistics are counters
+ * adjusted whenever a directory entry changes, so reading them costs the same however
+ * many patients there are. Critical patients are also indexed in the order they were
+ * flagged, so listing them costs in proportion to how many there are. A search index
+ * over names, contact numbers and ids follows the same changes.
+ */
 public class PatientRepository {
-    private Map<String, Patient> patients;
+    private static final double EXISTENCE_FALSE_POSITIVE_RATE = 0.01;
+    
+    // every patient, hot or cold
+    private Map<String, PatientSummary> directory;
+    private volatile PatientCache cache;
+    private volatile PatientStore coldStore;
+    // deleted ids stay in it; a hit is confirmed against the directory
+    private volatile ScalableBloomFilter knownIds;
+    private final ConcurrentHashMap<String, LongAdder> bloodGroupCounts;
+    private final LongAdder criticalCount;
+    // critical patients keyed by when they were flagged, earliest first
+    private final ConcurrentSkipListMap<Long, CriticalFlag> criticalPatients;
+    private final AtomicLong flagSequence;
+    private final PatientSearchIndex searchIndex;
     
     public PatientRepository() {
-        this.patients = new ConcurrentHashMap<>();
+        this.directory = new ConcurrentHashMap<>();
+        this.cache = new PatientCache(Long.MAX_VALUE);
+        this.knownIds = new ScalableBloomFilter(1024, EXISTENCE_FALSE_POSITIVE_RATE);
+        this.bloodGroupCounts = new ConcurrentHashMap<>();
+        this.criticalCount = new LongAdder();
+        this.criticalPatients = new ConcurrentSkipListMap<>();
+        this.flagSequence = new AtomicLong();
+        this.searchIndex = new PatientSearchIndex();
+    }
+    
+    /**
+     * Keeps at most maxWeight worth of patients on the heap (one per patient plus one
+     * per medical history entry) and reads the rest through from the store, which must
+     * already hold every patient added to this repository. Call before loading patients.
+     */
+    public void enableTiering(PatientStore store, long maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache weight must be positive: " + maxWeight);
+        }
+        this.coldStore = store;
+        this.cache = new PatientCache(maxWeight);
+    }
+    
+    public boolean isTiered() {
+        return coldStore != null;
     }
     
     public void addPatient(Patient patient) throws InvalidPatientException {
@@ -18,11 +75,77 @@ public class PatientRepository {
             throw new InvalidPatientException("Patient or Patient ID cannot be null or empty");
         }
         
-        if (patients.containsKey(patient.getPatientId())) {
+        // into the filter first, so a concurrent lookup can never miss a listed patient
+        knownIds.add(patient.getPatientId());
+        boolean[] added = new boolean[1];
+        directory.computeIfAbsent(patient.getPatientId(), id -> {
+            added[0] = true;
+            return replace(id, null, patient);
+        });
+        if (!added[0]) {
             throw new InvalidPatientException("Patient already exists", patient.getPatientId());
         }
         
-        patients.put(patient.getPatientId(), patient);
+        cache.put(patient);
+    }
+    
+    /**
+     * Adds a batch of new patients and returns those added, in order. A patient without
+     * an id, or whose id is already taken (also by an earlier patient in the batch), is
+     * skipped rather than failing the batch. The added patients are cached under one lock.
+     */
+    public List<Patient> addPatients(List<Patient> patients) {
+        List<Patient> added = new ArrayList<>(patients.size());
+        for (Patient patient : patients) {
+            if (patient == null || patient.getPatientId() == null || patient.getPatientId().trim().isEmpty()) {
+                continue;
+            }
+            knownIds.add(patient.getPatientId());
+            boolean[] inserted = new boolean[1];
+            directory.computeIfAbsent(patient.getPatientId(), id -> {
+                inserted[0] = true;
+                return replace(id, null, patient);
+            });
+            if (inserted[0]) {
+                added.add(patient);
+            }
+        }
+        cache.putAll(added);
+        return added;
+    }
+    
+    /**
+     * Inserts patients that were already validated when first registered, such as those
+     * rehydrated from disk, without the per-record checks of addPatient. A later record
+     * replaces an earlier one with the same id. When tiered, only as many stay cached as
+     * the cache holds and the rest are kept as directory summaries, so a store can be
+     * loaded in batches without ever holding every patient. Meant for startup; call
+     * rebuildExistenceFilter after the last batch. The time a patient was flagged
+     * critical is not stored, so critical patients loaded here are ordered as they were
+     * loaded.
+     */
+    public void bulkLoad(Collection<Patient> loaded) {
+        ScalableBloomFilter filter = knownIds;
+        for (Patient patient : loaded) {
+            filter.add(patient.getPatientId());
+            directory.compute(patient.getPatientId(), (id, previous) -> summarize(previous, patient));
+            cache.put(patient);
+        }
+        searchIndex.indexAll(loaded);
+    }
+    
+    /**
+     * Replaces the existence filter with one sized for twice the current patient count,
+     * which also forgets deleted ids. Ids added while it runs could be missed, so call it
+     * before serving requests.
+     */
+    public void rebuildExistenceFilter() {
+        ScalableBloomFilter rebuilt = new ScalableBloomFilter(Math.max(1024, 2L * directory.size()),
+                                                              EXISTENCE_FALSE_POSITIVE_RATE);
+        for (String patientId : directory.keySet()) {
+            rebuilt.add(patientId);
+        }
+        knownIds = rebuilt;
     }
     
     public Patient getPatient(String patientId) throws InvalidPatientException {
@@ -30,7 +153,7 @@ public class PatientRepository {
             throw new InvalidPatientException("Patient ID cannot be null or empty");
         }
         
-        Patient patient = patients.get(patientId);
+        Patient patient = patientExists(patientId) ? lookup(patientId, true) : null;
         if (patient == null) {
             throw new InvalidPatientException("Patient not found", patientId);
         }
@@ -43,44 +166,232 @@ public class PatientRepository {
             throw new InvalidPatientException("Patient or Patient ID cannot be null");
         }
         
-        if (!patients.containsKey(patient.getPatientId())) {
+        // replaced inside compute, so the counters and critical index move exactly as the
+        // directory entry does
+        PatientSummary updated = directory.computeIfPresent(patient.getPatientId(),
+                                                            (id, previous) -> replace(id, previous, patient));
+        if (updated == null) {
             throw new InvalidPatientException("Patient not found", patient.getPatientId());
         }
         
-        patients.put(patient.getPatientId(), patient);
+        cache.put(patient);
     }
     
     public void deletePatient(String patientId) throws InvalidPatientException {
-        if (patientId == null || !patients.containsKey(patientId)) {
+        boolean[] removed = new boolean[1];
+        if (patientId != null) {
+            directory.computeIfPresent(patientId, (id, previous) -> {
+                removed[0] = true;
+                return replace(id, previous, null);
+            });
+        }
+        if (!removed[0]) {
             throw new InvalidPatientException("Patient not found", patientId);
         }
         
-        patients.remove(patientId);
+        cache.remove(patientId);
     }
     
+    /**
+     * When tiered, cold patients are read from disk for the result but not cached.
+     */
     public List<Patient> getAllPatients() {
-        return new ArrayList<>(patients.values());
+        return streamAllPatients().collect(Collectors.toCollection(() -> new ArrayList<>(directory.size())));
+    }
+    
+    /**
+     * Every patient, looked up one at a time as the stream is consumed rather than copied
+     * up front. Cold patients are read from the store without being cached, so a full
+     * pass does not flush the hot ones. Weakly consistent, like the directory it walks.
+     */
+    public Stream<Patient> streamAllPatients() {
+        return directory.keySet().stream()
+                        .map(patientId -> lookup(patientId, false))
+                        .filter(Objects::nonNull);
     }
     
+    /**
+     * Critical patients, longest flagged first. Walks only the critical index, which is
+     * weakly consistent: patients flagged or cleared during the walk may or may not appear.
+     */
     public List<Patient> getCriticalPatients() {
-        return patients.values().stream()
-                .filter(Patient::isCritical)
+        return criticalPatients.values().stream()
+                .map(flag -> lookup(flag.patientId, false))
+                .filter(Objects::nonNull)
                 .collect(Collectors.toList());
     }
     
+    /**
+     * When the patient was last flagged critical, or null if they are not critical.
+     */
+    public LocalDateTime getCriticalSince(String patientId) {
+        PatientSummary summary = patientId == null ? null : directory.get(patientId);
+        return summary == null || summary.flag == null ? null : summary.flag.flaggedAt;
+    }
+    
+    public long getCriticalPatientCount() {
+        return criticalCount.sum();
+    }
+    
+    /**
+     * Up to limit patients matching every word of the query by name, contact number or
+     * id, best match first.
+     */
+    public List<Patient> searchPatients(String query, int limit) {
+        List<Patient> matches = new ArrayList<>();
+        for (String patientId : searchIndex.search(query, limit)) {
+            Patient patient = lookup(patientId, false);
+            if (patient != null) {
+                matches.add(patient);
+            }
+        }
+        return matches;
+    }
+    
     public Map<String, Long> getPatientCountByBloodGroup() {
-        return patients.values().stream()
-                .collect(Collectors.groupingBy(
-                    Patient::getBloodGroup,
-                    Collectors.counting()
-                ));
+        Map<String, Long> counts = new HashMap<>();
+        bloodGroupCounts.forEach((bloodGroup, count) -> {
+            long sum = count.sum();
+            if (sum > 0) {
+                counts.put(bloodGroup, sum);
+            }
+        });
+        return counts;
     }
     
     public boolean patientExists(String patientId) {
-        return patients.containsKey(patientId);
+        return patientId != null && knownIds.mightContain(patientId) && directory.containsKey(patientId);
     }
     
     public long getTotalPatients() {
-        return patients.size();
+        return directory.size();
+    }
+    
+    public Map<String, Object> getCacheStats() {
+        PatientCache current = cache;
+        long hits = current.getHitCount();
+        long misses = current.getMissCount();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("tiered", isTiered());
+        stats.put("cached", current.size());
+        stats.put("weight", current.getWeight());
+        stats.put("maxWeight", isTiered() ? current.getMaxWeight() : null);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("evictions", current.getEvictionCount());
+        return stats;
+    }
+    
+    public Map<String, Object> getExistenceFilterStats() {
+        ScalableBloomFilter filter = knownIds;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("ids", filter.getApproximateCount());
+        stats.put("stages", filter.getStageCount());
+        stats.put("bits", filter.getBitCount());
+        stats.put("falsePositiveRate", filter.getFalsePositiveRate());
+        return stats;
+    }
+    
+    public Map<String, Object> getSearchIndexStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("patients", searchIndex.size());
+        stats.put("words", searchIndex.getWordCount());
+        stats.put("trigrams", searchIndex.getTrigramCount());
+        return stats;
+    }
+    
+    // cached copy, else the stored one (and caches it if cacheLoaded); null if neither has it
+    private Patient lookup(String patientId, boolean cacheLoaded) {
+        PatientCache current = cache;
+        Patient patient = cacheLoaded ? current.get(patientId) : current.getQuietly(patientId);
+        PatientStore store = coldStore;
+        if (patient != null || store == null) {
+            return patient;
+        }
+        try {
+            patient = store.load(patientId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load patient " + patientId, e);
+        }
+        if (patient == null || !cacheLoaded) {
+            return patient;
+        }
+        return current.putIfAbsent(patient);
+    }
+    
+    /**
+     * Builds the directory entry that replaces previous (null for none) with the patient
+     * (null to remove), moving the counters, critical index and search index to match. Called only
+     * inside a directory compute for the patient's id, so transitions of one patient
+     * never interleave.
+     */
+    private PatientSummary replace(String patientId, PatientSummary previous, Patient patient) {
+        if (patient == null) {
+            searchIndex.remove(patientId);
+        } else {
+            searchIndex.index(patient);
+        }
+        return summarize(previous, patient);
+    }
+    
+    // replace without the search index, which bulkLoad fills in one pass
+    private PatientSummary summarize(PatientSummary previous, Patient patient) {
+        PatientSummary next = null;
+        if (patient != null) {
+            CriticalFlag flag = null;
+            if (patient.isCritical()) {
+                // staying critical keeps the original flag time
+                flag = previous != null && previous.flag != null
+                        ? previous.flag
+                        : new CriticalFlag(patient.getPatientId(), flagSequence.incrementAndGet());
+            }
+            next = new PatientSummary(patient.getBloodGroup(), flag);
+        }
+        
+        if (previous != null) {
+            if (previous.bloodGroup != null) {
+                bloodGroupCounts.computeIfAbsent(previous.bloodGroup, group -> new LongAdder()).decrement();
+            }
+            if (previous.flag != null && (next == null || next.flag != previous.flag)) {
+                criticalPatients.remove(previous.flag.sequence);
+                criticalCount.decrement();
+            }
+        }
+        if (next != null) {
+            if (next.bloodGroup != null) {
+                bloodGroupCounts.computeIfAbsent(next.bloodGroup, group -> new LongAdder()).increment();
+            }
+            if (next.flag != null && (previous == null || previous.flag != next.flag)) {
+                criticalPatients.put(next.flag.sequence, next.flag);
+                criticalCount.increment();
+            }
+        }
+        return next;
+    }
+    
+    // what the statistics need, kept for cold patients too
+    private static final class PatientSummary {
+        private final String bloodGroup;
+        // null unless critical
+        private final CriticalFlag flag;
+        
+        PatientSummary(String bloodGroup, CriticalFlag flag) {
+            this.bloodGroup = bloodGroup;
+            this.flag = flag;
+        }
+    }
+    
+    private static final class CriticalFlag {
+        private final String patientId;
+        // orders flags issued in the same millisecond
+        private final long sequence;
+        private final LocalDateTime flaggedAt;
+        
+        CriticalFlag(String patientId, long sequence) {
+            this.patientId = patientId;
+            this.sequence = sequence;
+            this.flaggedAt = LocalDateTime.now();
+        }
     }
 }
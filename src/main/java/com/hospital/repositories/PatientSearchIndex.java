@@ -0,0 +1,524 @@
+package com.hospital.repositories;
+
+import com.hospital.models.Patient;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Finds patients by name, contact number or id. Every query term must match the
+ * patient's id or contact number as a prefix, or one of the words of their name exactly,
+ * as a prefix, or failing both by trigram similarity; the best-scoring k patients are
+ * returned. Fuzzy matching looks up similar words in the name vocabulary rather than
+ * patients. Ids and contact numbers are near-unique, so they are kept in sorted sets
+ * of plain strings rather than posting lists, which keeps the index to a few small
+ * objects per patient. Callers must not index or remove the same patient concurrently.
+ */
+final class PatientSearchIndex {
+    // vocabulary words a prefix term expands to
+    private static final int MAX_PREFIX_WORDS = 2000;
+    // patients scored per query; beyond it results are best effort
+    private static final int MAX_CANDIDATES = 2000;
+    // Jaccard similarity of padded trigrams for a fuzzy match
+    private static final double FUZZY_THRESHOLD = 0.3;
+    private static final int MIN_FUZZY_LENGTH = 3;
+    // separates a contact number from the id in contactKeys
+    private static final char SEPARATOR = '\0';
+    
+    // name word -> ids; a singleton set until a second patient shares the word
+    private final ConcurrentHashMap<String, Set<String>> wordPostings;
+    // the same words, sorted for prefix scans
+    private final ConcurrentSkipListSet<String> sortedWords;
+    // trigram -> words containing it
+    private final ConcurrentHashMap<String, Set<String>> trigramWords;
+    // generated ids are upper case, so terms are upper-cased to match them
+    private final ConcurrentSkipListSet<String> ids;
+    // contact digits, SEPARATOR, id: unique even when patients share a number
+    private final ConcurrentSkipListSet<String> contactKeys;
+    // id, contact key or null, then the name words, so a change can be undone
+    private final ConcurrentHashMap<String, String[]> documents;
+    
+    PatientSearchIndex() {
+        this.wordPostings = new ConcurrentHashMap<>();
+        this.sortedWords = new ConcurrentSkipListSet<>();
+        this.trigramWords = new ConcurrentHashMap<>();
+        this.ids = new ConcurrentSkipListSet<>();
+        this.contactKeys = new ConcurrentSkipListSet<>();
+        this.documents = new ConcurrentHashMap<>();
+    }
+    
+    void index(Patient patient) {
+        index(patient, ids, contactKeys);
+    }
+    
+    /**
+     * Indexes many patients at once, as bulkLoad needs; a later patient replaces an
+     * earlier one with the same id. Ids and contact numbers go into their skip lists in
+     * sorted order, which is several times faster than the random order they come in.
+     */
+    void indexAll(Collection<Patient> patients) {
+        List<String> newIds = new ArrayList<>(patients.size());
+        List<String> newContactKeys = new ArrayList<>(patients.size());
+        for (Patient patient : patients) {
+            index(patient, newIds, newContactKeys);
+        }
+        Collections.sort(newIds);
+        ids.addAll(newIds);
+        Collections.sort(newContactKeys);
+        for (String contactKey : newContactKeys) {
+            // skip numbers a later record with the same id replaced
+            String patientId = contactKey.substring(contactKey.indexOf(SEPARATOR) + 1);
+            String[] document = documents.get(patientId);
+            if (document != null && contactKey.equals(document[1])) {
+                contactKeys.add(contactKey);
+            }
+        }
+    }
+    
+    // new ids and contact keys are added to the given collections
+    private void index(Patient patient, Collection<String> newIds, Collection<String> newContactKeys) {
+        String patientId = patient.getPatientId();
+        String[] document = documentOf(patient);
+        String[] previous = documents.get(patientId);
+        if (previous != null && Arrays.equals(previous, document)) {
+            return;
+        }
+        if (previous == null) {
+            newIds.add(patientId);
+        } else if (previous[1] != null && !previous[1].equals(document[1])) {
+            contactKeys.remove(previous[1]);
+        }
+        if (document[1] != null && (previous == null || !document[1].equals(previous[1]))) {
+            newContactKeys.add(document[1]);
+        }
+        List<String> oldWords = previous == null
+                ? Collections.emptyList()
+                : Arrays.asList(previous).subList(2, previous.length);
+        List<String> newWords = new ArrayList<>(Arrays.asList(document).subList(2, document.length));
+        for (String word : oldWords) {
+            if (!newWords.contains(word)) {
+                unpost(word, patientId);
+            }
+        }
+        for (int i = 2; i < document.length; i++) {
+            if (!oldWords.contains(document[i])) {
+                post(document[i], patientId);
+            }
+            // share the vocabulary's copy of the word
+            document[i] = sortedWords.ceiling(document[i]);
+        }
+        documents.put(patientId, document);
+    }
+    
+    void remove(String patientId) {
+        String[] previous = documents.remove(patientId);
+        if (previous == null) {
+            return;
+        }
+        ids.remove(patientId);
+        if (previous[1] != null) {
+            contactKeys.remove(previous[1]);
+        }
+        for (int i = 2; i < previous.length; i++) {
+            unpost(previous[i], patientId);
+        }
+    }
+    
+    int size() {
+        return documents.size();
+    }
+    
+    int getWordCount() {
+        return wordPostings.size();
+    }
+    
+    int getTrigramCount() {
+        return trigramWords.size();
+    }
+    
+    /**
+     * Ids of the best k matches, best first. Each term is first expanded to the sources
+     * of patients it can match, each with the best score a patient from it could get;
+     * candidates are read from the term with the fewest, best source first, and reading
+     * stops once no later source could place a patient in the top k.
+     */
+    List<String> search(String query, int k) {
+        List<TermMatch> matches = new ArrayList<>();
+        for (String term : termsOf(query)) {
+            TermMatch match = expand(term);
+            if (match.sources.isEmpty()) {
+                return new ArrayList<>();
+            }
+            matches.add(match);
+        }
+        if (matches.isEmpty() || k <= 0) {
+            return new ArrayList<>();
+        }
+        TermMatch lead = matches.get(0);
+        double othersBest = 0;
+        for (TermMatch match : matches) {
+            othersBest += match.sources.get(0).bound;
+            if (match.candidates < lead.candidates) {
+                lead = match;
+            }
+        }
+        othersBest -= lead.sources.get(0).bound;
+        
+        PriorityQueue<Match> best = new PriorityQueue<>(k + 1);
+        Set<String> seen = new HashSet<>();
+        scan:
+        for (Source source : lead.sources) {
+            double bound = source.bound + othersBest;
+            for (String patientId : source.patientIds) {
+                if (best.size() == k && best.peek().score >= bound || seen.size() >= MAX_CANDIDATES) {
+                    break scan;
+                }
+                if (seen.add(patientId)) {
+                    offer(best, k, patientId, matches);
+                }
+            }
+        }
+        
+        Match[] ranked = best.toArray(new Match[0]);
+        Arrays.sort(ranked, Collections.reverseOrder());
+        List<String> found = new ArrayList<>(ranked.length);
+        for (Match match : ranked) {
+            found.add(match.patientId);
+        }
+        return found;
+    }
+    
+    private void offer(PriorityQueue<Match> best, int k, String patientId, List<TermMatch> matches) {
+        String[] document = documents.get(patientId);
+        if (document == null) {
+            return;
+        }
+        double score = 0;
+        for (TermMatch match : matches) {
+            double termScore = match.score(document);
+            if (termScore == 0) {
+                return;
+            }
+            score += termScore;
+        }
+        best.add(new Match(patientId, score));
+        if (best.size() > k) {
+            best.poll();
+        }
+    }
+    
+    // a term of only digits and separators is a contact number; any other may be a
+    // name word or the start of an id
+    private TermMatch expand(String term) {
+        String digits = digitsOf(term);
+        if (!digits.isEmpty() && term.matches("[\\d()+\\-.]+")) {
+            TermMatch match = new TermMatch(null, null, digits, Collections.emptyMap());
+            Iterable<String> patientIds = () -> contactKeys.subSet(digits, digits + Character.MAX_VALUE).stream()
+                    .map(key -> key.substring(key.indexOf(SEPARATOR) + 1))
+                    .iterator();
+            String first = contactKeys.ceiling(digits);
+            if (first != null && first.startsWith(digits)) {
+                match.add(first.indexOf(SEPARATOR) == digits.length() ? 1 : prefixBound(digits), patientIds);
+            }
+            match.sources.sort(null);
+            return match;
+        }
+        
+        String word = wordOf(term);
+        String idPrefix = term.toUpperCase(Locale.ROOT);
+        TermMatch match = new TermMatch(word, idPrefix, null, fuzzyWords(word));
+        NavigableSet<String> idMatches = ids.subSet(idPrefix, idPrefix + Character.MAX_VALUE);
+        if (!idMatches.isEmpty()) {
+            match.add(ids.contains(idPrefix) ? 1 : prefixBound(idPrefix), idMatches);
+        }
+        if (!word.isEmpty()) {
+            int prefixes = 0;
+            for (String vocabulary : sortedWords.tailSet(word)) {
+                if (!vocabulary.startsWith(word) || prefixes++ >= MAX_PREFIX_WORDS) {
+                    break;
+                }
+                match.addWord(vocabulary);
+            }
+            for (String similar : match.fuzzy.keySet()) {
+                match.addWord(similar);
+            }
+        }
+        match.sources.sort(null);
+        return match;
+    }
+    
+    /**
+     * Vocabulary words within the fuzzy threshold of word that it is not a prefix of.
+     * Such a word shares at least threshold times the term's trigrams with it, so only
+     * words counted that often across the term's trigram lists are compared in full.
+     */
+    private Map<String, Double> fuzzyWords(String word) {
+        Map<String, Double> similar = new HashMap<>();
+        if (word.length() < MIN_FUZZY_LENGTH) {
+            return similar;
+        }
+        Set<String> trigrams = trigramsOf(word);
+        Map<String, Integer> shared = new HashMap<>();
+        for (String trigram : trigrams) {
+            for (String candidate : trigramWords.getOrDefault(trigram, Collections.emptySet())) {
+                shared.merge(candidate, 1, Integer::sum);
+            }
+        }
+        int minShared = (int) Math.ceil(FUZZY_THRESHOLD * trigrams.size());
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+            String candidate = entry.getKey();
+            if (entry.getValue() < minShared || candidate.startsWith(word)) {
+                continue;
+            }
+            double similarity = similarity(trigrams, trigramsOf(candidate));
+            if (similarity >= FUZZY_THRESHOLD) {
+                similar.put(candidate, similarity);
+            }
+        }
+        return similar;
+    }
+    
+    private void post(String word, String patientId) {
+        wordPostings.compute(word, (key, patientIds) -> {
+            if (patientIds == null) {
+                sortedWords.add(key);
+                for (String trigram : trigramsOf(key)) {
+                    // added inside the compute, so it cannot land in a set unpost has just dropped
+                    trigramWords.compute(trigram, (t, words) -> {
+                        Set<String> posted = words == null ? ConcurrentHashMap.newKeySet() : words;
+                        posted.add(key);
+                        return posted;
+                    });
+                }
+                return Collections.singleton(patientId);
+            }
+            if (!(patientIds instanceof ConcurrentHashMap.KeySetView)) {
+                Set<String> shared = ConcurrentHashMap.newKeySet();
+                shared.addAll(patientIds);
+                patientIds = shared;
+            }
+            patientIds.add(patientId);
+            return patientIds;
+        });
+    }
+    
+    private void unpost(String word, String patientId) {
+        wordPostings.computeIfPresent(word, (key, patientIds) -> {
+            if (patientIds instanceof ConcurrentHashMap.KeySetView) {
+                patientIds.remove(patientId);
+            } else if (patientIds.contains(patientId)) {
+                patientIds = Collections.emptySet();
+            }
+            if (!patientIds.isEmpty()) {
+                return patientIds;
+            }
+            sortedWords.remove(key);
+            for (String trigram : trigramsOf(key)) {
+                trigramWords.computeIfPresent(trigram, (t, words) -> {
+                    words.remove(key);
+                    return words.isEmpty() ? null : words;
+                });
+            }
+            return null;
+        });
+    }
+    
+    private static String[] documentOf(Patient patient) {
+        List<String> words = new ArrayList<>(4);
+        String name = patient.getName();
+        if (name != null) {
+            // the words of the name, as split on whitespace and then cleaned by wordOf
+            int start = -1;
+            for (int i = 0; i <= name.length(); i++) {
+                boolean space = i == name.length() || Character.isWhitespace(name.charAt(i));
+                if (!space && start < 0) {
+                    start = i;
+                } else if (space && start >= 0) {
+                    String word = wordOf(name.substring(start, i));
+                    if (!word.isEmpty() && !words.contains(word)) {
+                        words.add(word);
+                    }
+                    start = -1;
+                }
+            }
+        }
+        String digits = digitsOf(patient.getContactNumber());
+        String[] document = new String[2 + words.size()];
+        document[0] = patient.getPatientId();
+        document[1] = digits.isEmpty() ? null : digits + SEPARATOR + patient.getPatientId();
+        for (int i = 0; i < words.size(); i++) {
+            document[2 + i] = words.get(i);
+        }
+        return document;
+    }
+    
+    // whitespace-separated; neighbouring contact-number groups are joined, since numbers
+    // are often typed in groups
+    private static List<String> termsOf(String query) {
+        List<String> terms = new ArrayList<>();
+        if (query == null) {
+            return terms;
+        }
+        boolean previousDigits = false;
+        for (String raw : query.trim().split("\\s+")) {
+            boolean isDigits = raw.matches("[\\d()+\\-.]*\\d[\\d()+\\-.]*");
+            if (isDigits && previousDigits) {
+                terms.set(terms.size() - 1, terms.get(terms.size() - 1) + digitsOf(raw));
+            } else if (isDigits || raw.matches(".*[\\p{L}\\d].*")) {
+                terms.add(raw);
+            }
+            previousDigits = isDigits;
+        }
+        return terms;
+    }
+    
+    // lower case, letters and digits only, so "O'Brien" is "obrien"
+    private static String wordOf(String text) {
+        StringBuilder word = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            }
+        }
+        return word.toString();
+    }
+    
+    private static String digitsOf(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+    
+    // 1 for the whole token, over 0.5 for a prefix of it, more the more it covers
+    private static double prefixScore(String term, String token, int tokenLength) {
+        if (!token.startsWith(term)) {
+            return 0;
+        }
+        return 0.5 + 0.5 * term.length() / tokenLength;
+    }
+    
+    // the most a strict prefix can score
+    private static double prefixBound(String term) {
+        return 0.5 + 0.5 * term.length() / (term.length() + 1);
+    }
+    
+    // padded so the start and end of a word count, as "  a", " ab", "abc", "bc "
+    private static Set<String> trigramsOf(String word) {
+        String padded = "  " + word + " ";
+        Set<String> trigrams = new HashSet<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            trigrams.add(padded.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+    
+    private static double similarity(Set<String> a, Set<String> b) {
+        int shared = 0;
+        for (String trigram : a) {
+            if (b.contains(trigram)) {
+                shared++;
+            }
+        }
+        return (double) shared / (a.size() + b.size() - shared);
+    }
+    
+    // a query term: a contact number (digits), or a name word and id prefix; a similar
+    // name word scores at most 0.5, below any prefix
+    private final class TermMatch {
+        private final String word;
+        private final String idPrefix;
+        private final String digits;
+        private final Map<String, Double> fuzzy;
+        private final List<Source> sources;
+        // patients listed under the sources, an upper bound on the candidates
+        private long candidates;
+        
+        TermMatch(String word, String idPrefix, String digits, Map<String, Double> fuzzy) {
+            this.word = word;
+            this.idPrefix = idPrefix;
+            this.digits = digits;
+            this.fuzzy = fuzzy;
+            this.sources = new ArrayList<>();
+        }
+        
+        void add(double bound, Iterable<String> patientIds) {
+            sources.add(new Source(bound, patientIds));
+            long counted = 0;
+            for (Iterator<String> it = patientIds.iterator(); it.hasNext() && counted < MAX_CANDIDATES; it.next()) {
+                counted++;
+            }
+            candidates += counted;
+        }
+        
+        void addWord(String vocabulary) {
+            Set<String> patientIds = wordPostings.get(vocabulary);
+            if (patientIds != null) {
+                sources.add(new Source(wordScore(vocabulary), patientIds));
+                candidates += patientIds.size();
+            }
+        }
+        
+        double score(String[] document) {
+            if (digits != null) {
+                String contact = document[1];
+                return contact == null ? 0 : prefixScore(digits, contact, contact.indexOf(SEPARATOR));
+            }
+            double best = prefixScore(idPrefix, document[0], document[0].length());
+            for (int i = 2; i < document.length; i++) {
+                best = Math.max(best, wordScore(document[i]));
+            }
+            return best;
+        }
+        
+        private double wordScore(String vocabulary) {
+            if (word.isEmpty()) {
+                return 0;
+            }
+            double prefix = prefixScore(word, vocabulary, vocabulary.length());
+            return prefix > 0 ? prefix : 0.5 * fuzzy.getOrDefault(vocabulary, 0.0);
+        }
+    }
+    
+    // patients a term can match, and the most any of them can score for it
+    private static final class Source implements Comparable<Source> {
+        private final double bound;
+        private final Iterable<String> patientIds;
+        
+        Source(double bound, Iterable<String> patientIds) {
+            this.bound = bound;
+            this.patientIds = patientIds;
+        }
+        
+        // best first
+        @Override
+        public int compareTo(Source other) {
+            return Double.compare(other.bound, bound);
+        }
+    }
+    
+    private static final class Match implements Comparable<Match> {
+        private final String patientId;
+        private final double score;
+        
+        Match(String patientId, double score) {
+            this.patientId = patientId;
+            this.score = score;
+        }
+        
+        // worst first, so the queue's head is the one to drop; ties go to the lower id
+        @Override
+        public int compareTo(Match other) {
+            int byScore = Double.compare(score, other.score);
+            return byScore != 0 ? byScore : other.patientId.compareTo(patientId);
+        }
+    }
+}
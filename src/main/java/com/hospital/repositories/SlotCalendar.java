@@ -0,0 +1,243 @@
+package com.hospital.repositories;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Booked-slot bitmap for one doctor. Each day is a single long keyed by epoch day,
+ * with bit i set when the doctor's i-th appointment slot is taken. Every 64-day chunk
+ * also carries a summary word with bit d set when day d is fully booked, which lets
+ * availability searches skip full days without reading them.
+ */
+public class SlotCalendar {
+    public static final int MAX_SLOTS = 64;
+    private static final int DAYS_PER_CHUNK = 64;
+    private static final int FULL_DAYS = DAYS_PER_CHUNK;
+    
+    private final String[] slots;
+    private volatile Chunks chunks;
+    
+    /**
+     * The slot list is fixed to the doctor's configured slots; bookings for any other
+     * label are rejected rather than growing the calendar.
+     */
+    public SlotCalendar(String[] doctorSlots) {
+        String[] distinct = doctorSlots == null ? new String[0]
+                          : Arrays.stream(doctorSlots).filter(Objects::nonNull).distinct().toArray(String[]::new);
+        if (distinct.length > MAX_SLOTS) {
+            throw new IllegalArgumentException("A doctor cannot have more than " + MAX_SLOTS + " appointment slots");
+        }
+        this.slots = distinct;
+        this.chunks = new Chunks(0, new AtomicLongArray[0]);
+    }
+    
+    public int slotIndex(String timeSlot) {
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i].equals(timeSlot)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    public String[] getSlots() {
+        return slots.clone();
+    }
+    
+    public String getSlot(int slotIndex) {
+        return slots[slotIndex];
+    }
+    
+    public int getSlotCount() {
+        return slots.length;
+    }
+    
+    public long getBookedMask(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        AtomicLongArray chunk = chunkFor(epochDay, false);
+        return chunk == null ? 0L : chunk.get(dayOffset(epochDay));
+    }
+    
+    public boolean isAvailable(LocalDate date, int slotIndex) {
+        return (getBookedMask(date) & (1L << slotIndex)) == 0;
+    }
+    
+    public boolean isFullyBooked(LocalDate date) {
+        long full = fullMask(slots.length);
+        return full != 0 && (getBookedMask(date) & full) == full;
+    }
+    
+    public boolean reserve(LocalDate date, int slotIndex) {
+        long epochDay = date.toEpochDay();
+        AtomicLongArray chunk = chunkFor(epochDay, true);
+        int offset = dayOffset(epochDay);
+        long bit = 1L << slotIndex;
+        while (true) {
+            long booked = chunk.get(offset);
+            if ((booked & bit) != 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(offset, booked, booked | bit)) {
+                refreshFullDay(chunk, offset);
+                return true;
+            }
+        }
+    }
+    
+    public boolean release(LocalDate date, int slotIndex) {
+        long epochDay = date.toEpochDay();
+        AtomicLongArray chunk = chunkFor(epochDay, false);
+        if (chunk == null) {
+            return false;
+        }
+        int offset = dayOffset(epochDay);
+        long bit = 1L << slotIndex;
+        while (true) {
+            long booked = chunk.get(offset);
+            if ((booked & bit) == 0) {
+                return false;
+            }
+            if (chunk.compareAndSet(offset, booked, booked & ~bit)) {
+                refreshFullDay(chunk, offset);
+                return true;
+            }
+        }
+    }
+    
+    public synchronized void pruneBefore(LocalDate date) {
+        long epochDay = date.toEpochDay();
+        long cutoffChunk = Math.floorDiv(epochDay, DAYS_PER_CHUNK);
+        Chunks current = chunks;
+        int drop = (int) Math.max(0, Math.min(current.days.length, cutoffChunk - current.firstChunk));
+        if (drop > 0) {
+            AtomicLongArray[] kept = new AtomicLongArray[current.days.length - drop];
+            System.arraycopy(current.days, drop, kept, 0, kept.length);
+            chunks = new Chunks(current.firstChunk + drop, kept);
+        }
+        AtomicLongArray partial = chunkFor(epochDay, false);
+        if (partial != null) {
+            for (int i = 0; i < dayOffset(epochDay); i++) {
+                partial.set(i, 0L);
+            }
+            partial.set(FULL_DAYS, partial.get(FULL_DAYS) & (-1L << dayOffset(epochDay)));
+        }
+    }
+    
+    /**
+     * Returns the first day in [from, to] with at least one free slot, or null.
+     */
+    public LocalDate nextDayWithFreeSlot(LocalDate from, LocalDate to) {
+        long full = fullMask(slots.length);
+        if (full == 0) {
+            return null;
+        }
+        long day = from.toEpochDay();
+        long last = to.toEpochDay();
+        while (day <= last) {
+            AtomicLongArray chunk = chunkFor(day, false);
+            if (chunk == null) {
+                return LocalDate.ofEpochDay(day);
+            }
+            int offset = dayOffset(day);
+            long chunkEnd = day - offset + DAYS_PER_CHUNK - 1;
+            long inRange = -1L << offset;
+            if (last < chunkEnd) {
+                inRange &= -1L >>> (DAYS_PER_CHUNK - 1 - dayOffset(last));
+            }
+            long candidates = ~chunk.get(FULL_DAYS) & inRange;
+            while (candidates != 0) {
+                int candidate = Long.numberOfTrailingZeros(candidates);
+                // the summary is a hint; confirm against the day word itself
+                if ((chunk.get(candidate) & full) != full) {
+                    return LocalDate.ofEpochDay(day - offset + candidate);
+                }
+                candidates &= candidates - 1;
+            }
+            day = chunkEnd + 1;
+        }
+        return null;
+    }
+    
+    /**
+     * Returns the first free slot index on the given day strictly after afterIndex, or -1.
+     */
+    public int nextFreeSlot(LocalDate date, int afterIndex) {
+        long free = ~getBookedMask(date) & fullMask(slots.length);
+        if (afterIndex >= 0) {
+            free &= afterIndex >= 63 ? 0L : -1L << (afterIndex + 1);
+        }
+        return free == 0 ? -1 : Long.numberOfTrailingZeros(free);
+    }
+    
+    static long fullMask(int slotCount) {
+        return slotCount >= 64 ? -1L : (1L << slotCount) - 1;
+    }
+    
+    private static int dayOffset(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) DAYS_PER_CHUNK);
+    }
+    
+    private void refreshFullDay(AtomicLongArray chunk, int offset) {
+        long bit = 1L << offset;
+        while (true) {
+            long full = fullMask(slots.length);
+            boolean isFull = full != 0 && (chunk.get(offset) & full) == full;
+            long summary = chunk.get(FULL_DAYS);
+            long updated = isFull ? summary | bit : summary & ~bit;
+            if (updated == summary || chunk.compareAndSet(FULL_DAYS, summary, updated)) {
+                // a concurrent reserve/release may have flipped the day meanwhile
+                if (isFull == (full != 0 && (chunk.get(offset) & full) == full)) {
+                    return;
+                }
+            }
+        }
+    }
+    
+    private AtomicLongArray chunkFor(long epochDay, boolean create) {
+        long chunkIndex = Math.floorDiv(epochDay, DAYS_PER_CHUNK);
+        AtomicLongArray chunk = chunks.get(chunkIndex);
+        if (chunk != null || !create) {
+            return chunk;
+        }
+        synchronized (this) {
+            Chunks current = chunks;
+            chunk = current.get(chunkIndex);
+            if (chunk == null) {
+                chunk = new AtomicLongArray(DAYS_PER_CHUNK + 1);
+                chunks = current.with(chunkIndex, chunk);
+            }
+            return chunk;
+        }
+    }
+    
+    // Copy-on-write so lock-free readers always see a consistent first/array pair;
+    // the day words themselves are shared between versions.
+    private static final class Chunks {
+        private final long firstChunk;
+        private final AtomicLongArray[] days;
+        
+        Chunks(long firstChunk, AtomicLongArray[] days) {
+            this.firstChunk = firstChunk;
+            this.days = days;
+        }
+        
+        AtomicLongArray get(long chunkIndex) {
+            long i = chunkIndex - firstChunk;
+            return i >= 0 && i < days.length ? days[(int) i] : null;
+        }
+        
+        Chunks with(long chunkIndex, AtomicLongArray chunk) {
+            if (days.length == 0) {
+                return new Chunks(chunkIndex, new AtomicLongArray[]{chunk});
+            }
+            long first = Math.min(firstChunk, chunkIndex);
+            long last = Math.max(firstChunk + days.length - 1, chunkIndex);
+            AtomicLongArray[] grown = new AtomicLongArray[(int) (last - first + 1)];
+            System.arraycopy(days, 0, grown, (int) (firstChunk - first), days.length);
+            grown[(int) (chunkIndex - first)] = chunk;
+            return new Chunks(first, grown);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.hospital.repositories;
+
+import com.hospital.models.WaitlistEntry;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WaitlistRepository {
+    private Map<String, DayWaitlist> waitlists;
+    private AtomicLong sequence;
+    // waitlists of days before this one have been dropped
+    private volatile LocalDate prunedBefore;
+    
+    public WaitlistRepository() {
+        this.waitlists = new ConcurrentHashMap<>();
+        this.sequence = new AtomicLong();
+    }
+    
+    /**
+     * Queues the patient, or returns their entry if they are already waiting for the
+     * doctor's day.
+     */
+    public WaitlistEntry join(String patientId, String doctorId, LocalDate date, boolean critical) {
+        return offer(new WaitlistEntry(patientId, doctorId, date, critical, sequence.incrementAndGet()));
+    }
+    
+    public WaitlistEntry pollNext(String doctorId, LocalDate date) {
+        DayWaitlist waitlist = waitlists.get(key(doctorId, date));
+        return waitlist == null ? null : waitlist.poll();
+    }
+    
+    public void requeue(WaitlistEntry entry) {
+        offer(entry);
+    }
+    
+    /**
+     * Drops the waitlists of days before today. Cheap to call on every join: the scan
+     * runs at most once a day.
+     */
+    public void pruneBefore(LocalDate today) {
+        LocalDate pruned = prunedBefore;
+        if (pruned != null && !today.isAfter(pruned)) {
+            return;
+        }
+        prunedBefore = today;
+        waitlists.keySet().removeIf(key -> dateOf(key).isBefore(today));
+    }
+    
+    public List<WaitlistEntry> getWaitlist(String doctorId, LocalDate date) {
+        DayWaitlist waitlist = waitlists.get(key(doctorId, date));
+        return waitlist == null ? new ArrayList<>() : waitlist.entries();
+    }
+    
+    public int getWaitlistSize(String doctorId, LocalDate date) {
+        DayWaitlist waitlist = waitlists.get(key(doctorId, date));
+        return waitlist == null ? 0 : waitlist.size();
+    }
+    
+    private WaitlistEntry offer(WaitlistEntry entry) {
+        return waitlists.computeIfAbsent(key(entry.getDoctorId(), entry.getDate()), key -> new DayWaitlist())
+                        .offer(entry);
+    }
+    
+    private static String key(String doctorId, LocalDate date) {
+        return doctorId + "_" + date;
+    }
+    
+    private static LocalDate dateOf(String key) {
+        return LocalDate.parse(key.substring(key.lastIndexOf('_') + 1));
+    }
+    
+    // one doctor's day in rank order, with each patient's entry also found by patient id,
+    // so joining costs O(log n) however long the line is
+    private static final class DayWaitlist {
+        private final TreeSet<WaitlistEntry> queue = new TreeSet<>();
+        private final Map<String, WaitlistEntry> byPatient = new HashMap<>();
+        
+        // one entry per patient: whichever ranks first, so a requeued entry keeps its place
+        synchronized WaitlistEntry offer(WaitlistEntry entry) {
+            WaitlistEntry waiting = byPatient.get(entry.getPatientId());
+            if (waiting != null) {
+                if (waiting.compareTo(entry) <= 0) {
+                    return waiting;
+                }
+                queue.remove(waiting);
+            }
+            queue.add(entry);
+            byPatient.put(entry.getPatientId(), entry);
+            return entry;
+        }
+        
+        synchronized WaitlistEntry poll() {
+            WaitlistEntry next = queue.pollFirst();
+            if (next != null) {
+                byPatient.remove(next.getPatientId());
+            }
+            return next;
+        }
+        
+        synchronized List<WaitlistEntry> entries() {
+            return new ArrayList<>(queue);
+        }
+        
+        synchronized int size() {
+            return queue.size();
+        }
+    }
+}
@@ -1,56 +1,390 @@
 package com.hospital.services;
 
 import com.hospital.models.Appointment;
+import com.hospital.models.AppointmentPage;
+import com.hospital.models.AvailableSlot;
+import com.hospital.models.BookingRequest;
+import com.hospital.models.Doctor;
+import com.hospital.models.Patient;
+import com.hospital.models.WaitlistEntry;
 import com.hospital.repositories.AppointmentRepository;
+import com.hospital.repositories.SlotCalendar;
+import com.hospital.repositories.WaitlistRepository;
 import com.hospital.repositories.PatientRepository;
 import com.hospital.repositories.DoctorRepository;
 import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.exceptions.StaleAppointmentException;
+import com.hospital.utils.AppointmentJournal;
+import com.hospital.utils.IdGenerators;
+import java.io.UncheckedIOException;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
-import java.util.UUID;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 public class AppointmentService {
+    /**
+     * How concurrent bookings are serialized. GLOBAL funnels every booking in the
+     * hospital through one monitor; PER_DOCTOR_DAY only makes bookings for the same
+     * doctor on the same day contend, which is all the double-booking check needs.
+     * LOCK_FREE holds no monitor while booking and claims the slot with a single
+     * CAS on its calendar word; cancellations still use the per-doctor-day stripe.
+     */
+    public enum LockingMode {
+        GLOBAL,
+        PER_DOCTOR_DAY,
+        LOCK_FREE
+    }
+    
+    private static final int LOCK_STRIPES = 256;
+    public static final int SEARCH_HORIZON_DAYS = 90;
+    
     private AppointmentRepository appointmentRepository;
     private PatientRepository patientRepository;
     private DoctorRepository doctorRepository;
+    private WaitlistRepository waitlistRepository;
+    private final LockingMode lockingMode;
     private final Object schedulingLock = new Object();
+    private final Object[] bookingLocks;
+    private final ExecutorService waitlistExecutor;
+    private AppointmentJournal journal;
     
     public AppointmentService() {
-        this.appointmentRepository = new AppointmentRepository();
-        this.patientRepository = new PatientRepository();
-        this.doctorRepository = new DoctorRepository();
+        this(new AppointmentRepository(), new PatientRepository(), new DoctorRepository());
     }
     
     public AppointmentService(AppointmentRepository appointmentRepository,
                             PatientRepository patientRepository,
                             DoctorRepository doctorRepository) {
+        this(appointmentRepository, patientRepository, doctorRepository, LockingMode.PER_DOCTOR_DAY);
+    }
+    
+    public AppointmentService(AppointmentRepository appointmentRepository,
+                            PatientRepository patientRepository,
+                            DoctorRepository doctorRepository,
+                            LockingMode lockingMode) {
+        this(appointmentRepository, patientRepository, doctorRepository, new WaitlistRepository(), lockingMode);
+    }
+    
+    public AppointmentService(AppointmentRepository appointmentRepository,
+                            PatientRepository patientRepository,
+                            DoctorRepository doctorRepository,
+                            WaitlistRepository waitlistRepository,
+                            LockingMode lockingMode) {
         this.appointmentRepository = appointmentRepository;
         this.patientRepository = patientRepository;
         this.doctorRepository = doctorRepository;
+        this.waitlistRepository = waitlistRepository;
+        this.lockingMode = lockingMode;
+        this.waitlistExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "waitlist-promoter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.bookingLocks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            bookingLocks[i] = new Object();
+        }
     }
     
     public Appointment bookAppointment(String patientId, String doctorId,
                                       LocalDate appointmentDate, String timeSlot)
             throws InvalidPatientException {
-        synchronized (schedulingLock) {
-            if (!patientRepository.patientExists(patientId)) {
-                throw new InvalidPatientException("Patient not found", patientId);
+        Appointment appointment = tryBookAppointment(patientId, doctorId, appointmentDate, timeSlot);
+        if (appointment == null) {
+            throw new InvalidPatientException("Time slot already booked for this doctor");
+        }
+        return appointment;
+    }
+    
+    /**
+     * Books the slot or returns null when another booking already holds it.
+     */
+    public Appointment tryBookAppointment(String patientId, String doctorId,
+                                         LocalDate appointmentDate, String timeSlot)
+            throws InvalidPatientException {
+        if (!patientRepository.patientExists(patientId)) {
+            throw new InvalidPatientException("Patient not found", patientId);
+        }
+        
+        if (!doctorRepository.doctorExists(doctorId)) {
+            throw new InvalidPatientException("Doctor not found with ID: " + doctorId);
+        }
+        requireOfferedSlot(doctorId, timeSlot);
+        
+        String appointmentId = IdGenerators.next("APT");
+        Appointment appointment = new Appointment(appointmentId, patientId, doctorId,
+                                                  appointmentDate, timeSlot);
+        
+        CompletableFuture<Void> commit;
+        if (lockingMode == LockingMode.LOCK_FREE) {
+            if (!appointmentRepository.tryAddAppointment(appointment)) {
+                return null;
             }
-            
-            if (!doctorRepository.doctorExists(doctorId)) {
-                throw new InvalidPatientException("Doctor not found with ID: " + doctorId);
+            commit = journal(AppointmentJournal.EventType.BOOKED, appointment);
+        } else {
+            synchronized (lockFor(doctorId, appointmentDate)) {
+                if (!appointmentRepository.tryAddAppointment(appointment)) {
+                    return null;
+                }
+                commit = journal(AppointmentJournal.EventType.BOOKED, appointment);
             }
-            
-            if (!appointmentRepository.isSlotAvailable(doctorId, appointmentDate, timeSlot)) {
-                throw new InvalidPatientException("Time slot already booked for this doctor");
+        }
+        try {
+            awaitDurable(commit);
+        } catch (UncheckedIOException e) {
+            // a booking the journal lost would vanish on restart, so drop it now and free the slot
+            appointmentRepository.deleteAppointment(appointmentId);
+            throw e;
+        }
+        return appointment;
+    }
+    
+    /**
+     * Books every request or none of them. Each lock stripe the batch touches is
+     * taken once, in ascending stripe order, so concurrent batches cannot deadlock.
+     */
+    public List<Appointment> bookAppointments(List<BookingRequest> requests) throws InvalidPatientException {
+        List<Appointment> batch = new ArrayList<>();
+        if (requests == null || requests.isEmpty()) {
+            return batch;
+        }
+        
+        Set<String> requestedSlots = new HashSet<>();
+        for (BookingRequest request : requests) {
+            if (!patientRepository.patientExists(request.getPatientId())) {
+                throw new InvalidPatientException("Patient not found", request.getPatientId());
             }
+            if (!doctorRepository.doctorExists(request.getDoctorId())) {
+                throw new InvalidPatientException("Doctor not found with ID: " + request.getDoctorId());
+            }
+            if (request.getDate() == null || request.getTimeSlot() == null) {
+                throw new InvalidPatientException("Date and time slot are required: " + request);
+            }
+            if (!requestedSlots.add(request.getDoctorId() + "_" + request.getDate() + "_" + request.getTimeSlot())) {
+                throw new InvalidPatientException("Same slot requested twice in batch: " + request);
+            }
+            requireOfferedSlot(request.getDoctorId(), request.getTimeSlot());
             
-            String appointmentId = "APT-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
-            Appointment appointment = new Appointment(appointmentId, patientId, doctorId,
-                                                      appointmentDate, timeSlot);
-            
-            appointmentRepository.addAppointment(appointment);
-            return appointment;
+            String appointmentId = IdGenerators.next("APT");
+            Appointment appointment = new Appointment(appointmentId, request.getPatientId(), request.getDoctorId(),
+                                                      request.getDate(), request.getTimeSlot());
+            appointment.setSymptoms(request.getSymptoms());
+            batch.add(appointment);
+        }
+        
+        CompletableFuture<Void> commit;
+        switch (lockingMode) {
+            case LOCK_FREE:
+                commit = commitBatch(batch);
+                break;
+            case GLOBAL:
+                synchronized (schedulingLock) {
+                    commit = commitBatch(batch);
+                }
+                break;
+            default:
+                int[] stripes = batch.stream()
+                        .mapToInt(a -> stripeFor(a.getDoctorId(), a.getAppointmentDate()))
+                        .distinct()
+                        .sorted()
+                        .toArray();
+                commit = commitBatchUnderStripes(stripes, 0, batch);
+        }
+        // events are written in order, so the last commit covers the whole batch
+        try {
+            awaitDurable(commit);
+        } catch (UncheckedIOException e) {
+            for (Appointment appointment : batch) {
+                appointmentRepository.deleteAppointment(appointment.getAppointmentId());
+            }
+            throw e;
+        }
+        return batch;
+    }
+    
+    private CompletableFuture<Void> commitBatchUnderStripes(int[] stripes, int next, List<Appointment> batch)
+            throws InvalidPatientException {
+        if (next == stripes.length) {
+            return commitBatch(batch);
+        }
+        synchronized (bookingLocks[stripes[next]]) {
+            return commitBatchUnderStripes(stripes, next + 1, batch);
+        }
+    }
+    
+    private CompletableFuture<Void> commitBatch(List<Appointment> batch) throws InvalidPatientException {
+        reserveBatch(batch);
+        for (Appointment appointment : batch) {
+            appointmentRepository.addReservedAppointment(appointment);
+        }
+        return journalBatch(batch);
+    }
+    
+    private CompletableFuture<Void> journalBatch(List<Appointment> batch) {
+        CompletableFuture<Void> commit = null;
+        for (Appointment appointment : batch) {
+            commit = journal(AppointmentJournal.EventType.BOOKED, appointment);
+        }
+        return commit;
+    }
+    
+    private void reserveBatch(List<Appointment> batch) throws InvalidPatientException {
+        for (int i = 0; i < batch.size(); i++) {
+            Appointment appointment = batch.get(i);
+            if (!appointmentRepository.reserveSlot(appointment.getDoctorId(),
+                                                   appointment.getAppointmentDate(),
+                                                   appointment.getTimeSlot())) {
+                for (Appointment reserved : batch.subList(0, i)) {
+                    appointmentRepository.releaseSlot(reserved.getDoctorId(),
+                                                      reserved.getAppointmentDate(),
+                                                      reserved.getTimeSlot());
+                }
+                throw slotTaken(appointment);
+            }
+        }
+    }
+    
+    private static InvalidPatientException slotTaken(Appointment appointment) {
+        return new InvalidPatientException("Time slot already booked for this doctor: " + appointment.getDoctorId()
+                + " on " + appointment.getAppointmentDate() + " at " + appointment.getTimeSlot());
+    }
+    
+    public List<AvailableSlot> findEarliestAvailableBySpecialization(String specialization, LocalDate from, int limit) {
+        return findEarliestAvailable(doctorRepository.getDoctorsBySpecialization(specialization), from, limit);
+    }
+    
+    public List<AvailableSlot> findEarliestAvailableByDepartment(String department, LocalDate from, int limit) {
+        return findEarliestAvailable(doctorRepository.getDoctorsByDepartmentName(department), from, limit);
+    }
+    
+    /**
+     * Merges each doctor's next free slot through a heap, so the cost is driven by
+     * the number of doctors and results rather than doctors x days x slots.
+     */
+    private List<AvailableSlot> findEarliestAvailable(List<Doctor> doctors, LocalDate from, int limit) {
+        List<AvailableSlot> result = new ArrayList<>();
+        LocalDate to = from.plusDays(SEARCH_HORIZON_DAYS - 1);
+        PriorityQueue<SlotCursor> queue = new PriorityQueue<>(Math.max(1, doctors.size()),
+                Comparator.comparing((SlotCursor c) -> c.date)
+                          .thenComparing(SlotCursor::timeSlot)
+                          .thenComparing(c -> c.doctor.getDoctorId()));
+        
+        for (Doctor doctor : doctors) {
+            ensureSlotCalendar(doctor.getDoctorId());
+            SlotCursor cursor = new SlotCursor(doctor, appointmentRepository.getSlotCalendar(doctor.getDoctorId()));
+            if (cursor.advanceToDay(from, to)) {
+                queue.add(cursor);
+            }
+        }
+        
+        while (result.size() < limit && !queue.isEmpty()) {
+            SlotCursor cursor = queue.poll();
+            result.add(new AvailableSlot(cursor.doctor, cursor.date, cursor.timeSlot()));
+            if (cursor.advance(to)) {
+                queue.add(cursor);
+            }
+        }
+        return result;
+    }
+    
+    private static final class SlotCursor {
+        private final Doctor doctor;
+        private final SlotCalendar calendar;
+        private LocalDate date;
+        private int slotIndex;
+        
+        SlotCursor(Doctor doctor, SlotCalendar calendar) {
+            this.doctor = doctor;
+            this.calendar = calendar;
+        }
+        
+        String timeSlot() {
+            return calendar.getSlot(slotIndex);
+        }
+        
+        boolean advanceToDay(LocalDate from, LocalDate to) {
+            LocalDate day = from;
+            while (day != null && !day.isAfter(to)) {
+                day = calendar.nextDayWithFreeSlot(day, to);
+                if (day == null) {
+                    return false;
+                }
+                int free = calendar.nextFreeSlot(day, -1);
+                if (free >= 0) {
+                    date = day;
+                    slotIndex = free;
+                    return true;
+                }
+                day = day.plusDays(1);
+            }
+            return false;
+        }
+        
+        boolean advance(LocalDate to) {
+            int free = calendar.nextFreeSlot(date, slotIndex);
+            if (free >= 0) {
+                slotIndex = free;
+                return true;
+            }
+            return advanceToDay(date.plusDays(1), to);
+        }
+    }
+    
+    public LockingMode getLockingMode() {
+        return lockingMode;
+    }
+    
+    private void ensureSlotCalendar(String doctorId) {
+        if (!appointmentRepository.hasDoctorSlots(doctorId)) {
+            Doctor doctor = doctorRepository.getDoctor(doctorId);
+            if (doctor != null) {
+                appointmentRepository.registerDoctorSlots(doctorId, doctor.getAppointmentSlots());
+            }
+        }
+    }
+    
+    private void requireOfferedSlot(String doctorId, String timeSlot) throws InvalidPatientException {
+        ensureSlotCalendar(doctorId);
+        if (!appointmentRepository.offersSlot(doctorId, timeSlot)) {
+            throw new InvalidPatientException("Doctor " + doctorId + " does not offer time slot: " + timeSlot);
+        }
+    }
+    
+    private Object lockFor(String doctorId, LocalDate date) {
+        if (lockingMode == LockingMode.GLOBAL) {
+            return schedulingLock;
+        }
+        return bookingLocks[stripeFor(doctorId, date)];
+    }
+    
+    private static int stripeFor(String doctorId, LocalDate date) {
+        int h = doctorId.hashCode() * 31 + date.hashCode();
+        h ^= (h >>> 16);
+        return h & (LOCK_STRIPES - 1);
+    }
+    
+    public void setJournal(AppointmentJournal journal) {
+        this.journal = journal;
+    }
+    
+    private CompletableFuture<Void> journal(AppointmentJournal.EventType type, Appointment appointment) {
+        return journal == null ? null : journal.append(type, appointment);
+    }
+    
+    private void awaitDurable(CompletableFuture<Void> commit) {
+        if (journal != null) {
+            journal.awaitDurable(commit);
         }
     }
     
@@ -58,27 +392,229 @@ public class AppointmentService {
         return appointmentRepository.getAppointment(appointmentId);
     }
     
+    /**
+     * Stores an edited appointment over whatever is current. Like the versioned overload,
+     * it cannot move the booking or change its status.
+     */
     public void updateAppointment(Appointment appointment) {
-        appointmentRepository.updateAppointment(appointment);
+        while (true) {
+            Appointment current = appointmentRepository.getAppointment(appointment.getAppointmentId());
+            if (current == null) {
+                return;
+            }
+            requireSameBooking(current, appointment);
+            if (appointmentRepository.compareAndUpdate(appointment, current.getVersion())) {
+                awaitDurableOrRevert(journal(AppointmentJournal.EventType.UPDATED, appointment), current, appointment);
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Stores an edited copy of an appointment only if nobody else has changed it since
+     * expectedVersion was read; otherwise throws StaleAppointmentException so the caller
+     * can re-read and retry instead of overwriting the other edit. Status, doctor, date
+     * and slot are owned by booking, cancelling and completing, which keep the slot
+     * calendar in step; an edit that changes them is rejected.
+     */
+    public Appointment updateAppointment(Appointment updated, long expectedVersion) {
+        Appointment current = appointmentRepository.getAppointment(updated.getAppointmentId());
+        // versions only grow, so a current copy at another version fails the swap anyway
+        if (current != null && current.getVersion() == expectedVersion) {
+            requireSameBooking(current, updated);
+        }
+        return commitUpdate(updated, expectedVersion, AppointmentJournal.EventType.UPDATED);
+    }
+    
+    private static void requireSameBooking(Appointment current, Appointment updated) {
+        if (!Objects.equals(current.getStatus(), updated.getStatus())
+                || !Objects.equals(current.getDoctorId(), updated.getDoctorId())
+                || !Objects.equals(current.getAppointmentDate(), updated.getAppointmentDate())
+                || !Objects.equals(current.getTimeSlot(), updated.getTimeSlot())) {
+            throw new IllegalArgumentException("Appointment " + current.getAppointmentId()
+                                               + " cannot change status, doctor, date or time slot by update;"
+                                               + " cancel and rebook, or complete it, instead");
+        }
     }
     
     public void cancelAppointment(String appointmentId) {
-        synchronized (schedulingLock) {
-            Appointment appointment = appointmentRepository.getAppointment(appointmentId);
-            if (appointment != null) {
-                appointment.setStatus("CANCELLED");
-                appointmentRepository.updateAppointment(appointment);
+        Appointment appointment = appointmentRepository.getAppointment(appointmentId);
+        if (appointment == null) {
+            return;
+        }
+        String doctorId = appointment.getDoctorId();
+        LocalDate date = appointment.getAppointmentDate();
+        CompletableFuture<Void> commit;
+        AppliedUpdate cancel;
+        synchronized (lockFor(doctorId, date)) {
+            cancel = applyUpdate(appointmentId,
+                                 a -> !"CANCELLED".equalsIgnoreCase(a.getStatus()),
+                                 a -> a.setStatus("CANCELLED"));
+            if (cancel == null) {
+                return;
+            }
+            appointmentRepository.releaseSlot(doctorId, date, appointment.getTimeSlot());
+            commit = journal(AppointmentJournal.EventType.CANCELLED, cancel.updated);
+        }
+        try {
+            awaitDurable(commit);
+        } catch (UncheckedIOException e) {
+            synchronized (lockFor(doctorId, date)) {
+                // the slot can only have been rebooked if a later journal write went through
+                if (appointmentRepository.reserveSlot(doctorId, date, appointment.getTimeSlot())
+                        && !appointmentRepository.compareAndUpdate(new Appointment(cancel.previous),
+                                                                  cancel.updated.getVersion())) {
+                    appointmentRepository.releaseSlot(doctorId, date, appointment.getTimeSlot());
+                }
+            }
+            throw e;
+        }
+        
+        if (waitlistRepository.getWaitlistSize(doctorId, date) > 0) {
+            String timeSlot = appointment.getTimeSlot();
+            waitlistExecutor.execute(() -> promoteFromWaitlist(doctorId, date, timeSlot));
+        }
+    }
+    
+    /**
+     * Queues the patient for the doctor's day; joining again returns the existing entry.
+     * If the day still has a free slot, it is offered straight away to the head of the
+     * line, so a patient who joins an empty waitlist is booked before this returns and
+     * the entry carries the appointment id.
+     */
+    public WaitlistEntry joinWaitlist(String patientId, String doctorId, LocalDate date)
+            throws InvalidPatientException {
+        Patient patient = patientRepository.getPatient(patientId);
+        Doctor doctor = doctorRepository.getDoctor(doctorId);
+        if (doctor == null) {
+            throw new InvalidPatientException("Doctor not found with ID: " + doctorId);
+        }
+        LocalDate today = LocalDate.now();
+        if (date.isBefore(today)) {
+            throw new InvalidPatientException("Cannot join the waitlist for a past date: " + date);
+        }
+        waitlistRepository.pruneBefore(today);
+        WaitlistEntry entry = waitlistRepository.join(patientId, doctorId, date, patient.isCritical());
+        // joined first, so a slot freed from here on is promoted by its cancellation instead
+        for (String timeSlot : doctor.getAppointmentSlots()) {
+            if (waitlistRepository.getWaitlistSize(doctorId, date) == 0) {
+                break;
+            }
+            if (isSlotAvailable(doctorId, date, timeSlot)) {
+                promoteFromWaitlist(doctorId, date, timeSlot);
+            }
+        }
+        return entry;
+    }
+    
+    public List<WaitlistEntry> getWaitlist(String doctorId, LocalDate date) {
+        return waitlistRepository.getWaitlist(doctorId, date);
+    }
+    
+    private void promoteFromWaitlist(String doctorId, LocalDate date, String timeSlot) {
+        WaitlistEntry entry;
+        while ((entry = waitlistRepository.pollNext(doctorId, date)) != null) {
+            try {
+                Appointment booked = tryBookAppointment(entry.getPatientId(), doctorId, date, timeSlot);
+                if (booked == null) {
+                    // rebooked directly before we got here; keep their place in line
+                    waitlistRepository.requeue(entry);
+                } else {
+                    entry.setAppointmentId(booked.getAppointmentId());
+                }
+                return;
+            } catch (InvalidPatientException e) {
+                if (patientRepository.patientExists(entry.getPatientId())) {
+                    // the doctor or slot is gone, which no one further down the line can book either
+                    waitlistRepository.requeue(entry);
+                    return;
+                }
+                // patient was removed while waiting; offer the slot to the next one
             }
         }
     }
     
     public void completeAppointment(String appointmentId, String diagnosis, String prescription) {
-        Appointment appointment = appointmentRepository.getAppointment(appointmentId);
-        if (appointment != null) {
-            appointment.setStatus("COMPLETED");
-            appointment.setDiagnosis(diagnosis);
-            appointment.setPrescription(prescription);
-            appointmentRepository.updateAppointment(appointment);
+        AppliedUpdate completion = applyUpdate(appointmentId, AppointmentService::requireNotCancelled, a -> {
+            a.setStatus("COMPLETED");
+            a.setDiagnosis(diagnosis);
+            a.setPrescription(prescription);
+        });
+        if (completion != null) {
+            awaitDurableOrRevert(journal(AppointmentJournal.EventType.COMPLETED, completion.updated),
+                                 completion.previous, completion.updated);
+        }
+    }
+    
+    public Appointment completeAppointment(String appointmentId, String diagnosis, String prescription,
+                                           long expectedVersion) {
+        Appointment current = appointmentRepository.getAppointment(appointmentId);
+        if (current == null) {
+            throw new IllegalArgumentException("Appointment not found with ID: " + appointmentId);
+        }
+        requireNotCancelled(current);
+        Appointment completed = new Appointment(current);
+        completed.setStatus("COMPLETED");
+        completed.setDiagnosis(diagnosis);
+        completed.setPrescription(prescription);
+        return commitUpdate(completed, expectedVersion, AppointmentJournal.EventType.COMPLETED);
+    }
+    
+    // a cancelled appointment has given up its slot, so it can no longer be completed
+    private static boolean requireNotCancelled(Appointment appointment) {
+        if ("CANCELLED".equalsIgnoreCase(appointment.getStatus())) {
+            throw new IllegalStateException("Cannot complete cancelled appointment: " + appointment.getAppointmentId());
+        }
+        return true;
+    }
+    
+    private Appointment commitUpdate(Appointment updated, long expectedVersion, AppointmentJournal.EventType type) {
+        Appointment previous = appointmentRepository.getAppointment(updated.getAppointmentId());
+        if (previous == null || previous.getVersion() != expectedVersion
+                || !appointmentRepository.compareAndUpdate(updated, expectedVersion)) {
+            Appointment current = appointmentRepository.getAppointment(updated.getAppointmentId());
+            throw new StaleAppointmentException(updated.getAppointmentId(), expectedVersion,
+                                                current == null ? -1 : current.getVersion());
+        }
+        awaitDurableOrRevert(journal(type, updated), previous, updated);
+        return updated;
+    }
+    
+    // an edit the journal lost would be undone by a restart, so undo it now unless a later
+    // edit has already replaced it
+    private void awaitDurableOrRevert(CompletableFuture<Void> commit, Appointment previous, Appointment updated) {
+        try {
+            awaitDurable(commit);
+        } catch (UncheckedIOException e) {
+            appointmentRepository.compareAndUpdate(new Appointment(previous), updated.getVersion());
+            throw e;
+        }
+    }
+    
+    private static final class AppliedUpdate {
+        private final Appointment previous;
+        private final Appointment updated;
+        
+        AppliedUpdate(Appointment previous, Appointment updated) {
+            this.previous = previous;
+            this.updated = updated;
+        }
+    }
+    
+    // edits a private copy and swaps it in, re-reading only if another update won the race;
+    // returns null when the appointment is gone or the edit no longer applies
+    private AppliedUpdate applyUpdate(String appointmentId, Predicate<Appointment> applies,
+                                      Consumer<Appointment> change) {
+        while (true) {
+            Appointment current = appointmentRepository.getAppointment(appointmentId);
+            if (current == null || !applies.test(current)) {
+                return null;
+            }
+            Appointment updated = new Appointment(current);
+            change.accept(updated);
+            if (appointmentRepository.compareAndUpdate(updated, current.getVersion())) {
+                return new AppliedUpdate(current, updated);
+            }
         }
     }
     
@@ -86,6 +622,10 @@ public class AppointmentService {
         return appointmentRepository.getAllAppointments();
     }
     
+    public Stream<Appointment> streamAllAppointments() {
+        return appointmentRepository.streamAllAppointments();
+    }
+    
     public List<Appointment> getAppointmentsByPatient(String patientId) {
         return appointmentRepository.getAppointmentsByPatient(patientId);
     }
@@ -98,10 +638,21 @@ public class AppointmentService {
         return appointmentRepository.getAppointmentsByDate(date);
     }
     
+    public AppointmentPage getAppointmentsInRange(LocalDate from, LocalDate to, String doctorId,
+                                                  String cursor, int limit) {
+        return appointmentRepository.getAppointmentsInRange(from, to, doctorId, cursor, limit);
+    }
+    
     public boolean isSlotAvailable(String doctorId, LocalDate date, String timeSlot) {
+        ensureSlotCalendar(doctorId);
         return appointmentRepository.isSlotAvailable(doctorId, date, timeSlot);
     }
     
+    public boolean isFullyBooked(String doctorId, LocalDate date) {
+        ensureSlotCalendar(doctorId);
+        return appointmentRepository.isFullyBooked(doctorId, date);
+    }
+    
     public List<Appointment> getAppointmentsByStatus(String status) {
         return appointmentRepository.getAppointmentsByStatus(status);
     }
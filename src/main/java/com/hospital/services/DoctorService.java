@@ -2,13 +2,18 @@ package com.hospital.services;
 
 import com.hospital.models.Doctor;
 import com.hospital.models.Patient;
+import com.hospital.repositories.AppointmentRepository;
 import com.hospital.repositories.DoctorRepository;
+import com.hospital.utils.DoctorStore;
+import com.hospital.utils.IdGenerators;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.stream.Stream;
 
 public class DoctorService {
     private DoctorRepository doctorRepository;
+    private DoctorStore doctorStore;
+    private AppointmentRepository appointmentRepository;
     
     public DoctorService() {
         this.doctorRepository = new DoctorRepository();
@@ -18,14 +23,24 @@ public class DoctorService {
         this.doctorRepository = doctorRepository;
     }
     
+    public void setDoctorStore(DoctorStore doctorStore) {
+        this.doctorStore = doctorStore;
+    }
+    
+    // lets slot changes reach the booking calendars, which are built once per doctor
+    public void setAppointmentRepository(AppointmentRepository appointmentRepository) {
+        this.appointmentRepository = appointmentRepository;
+    }
+    
     public Doctor registerDoctor(String name, String specialization, String department,
                                 String contactNumber, String email, int experienceYears,
                                 double consultationFee) {
-        String doctorId = "DOC-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        String doctorId = IdGenerators.next("DOC");
         
         Doctor doctor = new Doctor(doctorId, name, specialization, department,
                                    contactNumber, email, experienceYears, consultationFee);
         doctorRepository.addDoctor(doctor);
+        persist();
         
         return doctor;
     }
@@ -36,16 +51,31 @@ public class DoctorService {
     
     public void updateDoctor(Doctor doctor) {
         doctorRepository.updateDoctor(doctor);
+        // the repository ignores unknown doctors; a calendar not built yet is built from the new slots
+        if (appointmentRepository != null && doctor != null
+                && doctorRepository.getDoctor(doctor.getDoctorId()) == doctor
+                && appointmentRepository.hasDoctorSlots(doctor.getDoctorId())) {
+            appointmentRepository.replaceDoctorSlots(doctor.getDoctorId(), doctor.getAppointmentSlots());
+        }
+        persist();
     }
     
     public void deleteDoctor(String doctorId) {
         doctorRepository.deleteDoctor(doctorId);
+        if (appointmentRepository != null) {
+            appointmentRepository.removeDoctorSlots(doctorId);
+        }
+        persist();
     }
     
     public List<Doctor> getAllDoctors() {
         return doctorRepository.getAllDoctors();
     }
     
+    public Stream<Doctor> streamAllDoctors() {
+        return doctorRepository.streamAllDoctors();
+    }
+    
     public void assignPatientToDoctor(String doctorId, Patient patient) {
         doctorRepository.assignPatientToDoctor(doctorId, patient);
     }
@@ -81,4 +111,18 @@ public class DoctorService {
     public Map<String, List<Patient>> getDoctorPatientMapping() {
         return doctorRepository.getDoctorPatientMapping();
     }
+    
+    // the snapshot is taken under the store's lock so an older roster never overwrites a newer one
+    private void persist() {
+        if (doctorStore == null) {
+            return;
+        }
+        synchronized (doctorStore) {
+            try {
+                doctorStore.saveAll(doctorRepository.getAllDoctors());
+            } catch (Exception e) {
+                System.err.println("Warning: Failed to save doctors: " + e.getMessage());
+            }
+        }
+    }
 }
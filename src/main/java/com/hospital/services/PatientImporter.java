@@ -0,0 +1,404 @@
+package com.hospital.services;
+
+import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.models.ImportError;
+import com.hospital.models.ImportResult;
+import com.hospital.models.Patient;
+import com.hospital.repositories.PatientRepository;
+import com.hospital.utils.IdGenerators;
+import com.hospital.utils.PatientStore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams CSV or NDJSON patient records through three stages. The calling thread reads
+ * lines and cuts them into chunks; a pool of parsers turns chunks into validated
+ * patients in parallel; parsed chunks are then inserted in input order, each as one
+ * repository batch and one saveAll to the patient store. At most two chunks per parser
+ * are read ahead of insertion, so memory stays bounded however long the input is, and
+ * a store whose write queue is full holds the reader back with it. Insertion stays on
+ * one thread so that a repeated id always loses to its first occurrence and errors come
+ * back in line order; with the search index updated per record, that stage rather than
+ * parsing bounds throughput.
+ *
+ * CSV input starts with a header naming its columns in any order. name, age, gender,
+ * bloodGroup and contactNumber are required; patientId, address and critical are
+ * optional; other columns are ignored. Fields may be double-quoted, but a record must
+ * fit on one line. NDJSON input is one object per line with the same field names.
+ * Records without a patientId get a generated one. Blank lines are skipped.
+ */
+final class PatientImporter {
+    private static final int CHUNK_LINES = 1000;
+    private static final int MAX_REPORTED_ERRORS = 1000;
+    private static final Set<String> BLOOD_GROUPS =
+        new HashSet<>(Arrays.asList("A+", "A-", "B+", "B-", "AB+", "AB-", "O+", "O-"));
+    
+    // the fields of a record, in the order parsers hand them over
+    private static final String[] FIELDS =
+        {"patientId", "name", "age", "gender", "bloodGroup", "contactNumber", "address", "critical"};
+    private static final int PATIENT_ID = 0;
+    private static final int NAME = 1;
+    private static final int AGE = 2;
+    private static final int GENDER = 3;
+    private static final int BLOOD_GROUP = 4;
+    private static final int CONTACT_NUMBER = 5;
+    private static final int ADDRESS = 6;
+    private static final int CRITICAL = 7;
+    private static final int[] REQUIRED = {NAME, AGE, GENDER, BLOOD_GROUP, CONTACT_NUMBER};
+    
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+    
+    private final PatientRepository repository;
+    private final PatientStore store;
+    private final ObjectMapper objectMapper;
+    private final int parsers;
+    private final List<ImportError> errors;
+    private long imported;
+    private long failed;
+    
+    PatientImporter(PatientRepository repository, PatientStore store) {
+        this.repository = repository;
+        this.store = store;
+        this.objectMapper = new ObjectMapper();
+        this.parsers = Runtime.getRuntime().availableProcessors();
+        this.errors = new ArrayList<>();
+    }
+    
+    /**
+     * Imports every record in the stream, which is read as UTF-8. format is "csv" or
+     * "ndjson"; when null it is NDJSON if the first record starts with '{'. Fails only
+     * if the stream cannot be read or the CSV header is unusable; bad records are
+     * reported in the result and the rest are imported.
+     */
+    ImportResult run(InputStream in, String format) throws IOException {
+        long started = System.nanoTime();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        long lineNumber = 0;
+        String first;
+        do {
+            first = reader.readLine();
+            lineNumber++;
+        } while (first != null && first.trim().isEmpty());
+        if (first == null) {
+            return result(started);
+        }
+        if (lineNumber == 1 && first.startsWith("\uFEFF")) {
+            first = first.substring(1);
+        }
+        
+        RecordParser parser;
+        List<String> lines = new ArrayList<>(CHUNK_LINES);
+        long chunkStart = lineNumber + 1;
+        boolean ndjson = format == null ? first.trim().startsWith("{") : "ndjson".equalsIgnoreCase(format);
+        if (ndjson) {
+            parser = this::parseJson;
+            lines.add(first);
+            chunkStart = lineNumber;
+        } else if (format == null || "csv".equalsIgnoreCase(format)) {
+            parser = csvParser(first);
+        } else {
+            throw new IllegalArgumentException("Unknown import format: " + format);
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(parsers, r -> {
+            Thread thread = new Thread(r, "patient-import-" + POOL_SEQUENCE.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<ParsedChunk>> inFlight = new ArrayDeque<>();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    submit(pool, inFlight, new Chunk(chunkStart, lines), parser);
+                    lines = new ArrayList<>(CHUNK_LINES);
+                    chunkStart = lineNumber + 1;
+                }
+            }
+            if (!lines.isEmpty()) {
+                submit(pool, inFlight, new Chunk(chunkStart, lines), parser);
+            }
+            while (!inFlight.isEmpty()) {
+                insert(await(inFlight.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return result(started);
+    }
+    
+    // inserts the oldest chunk first when enough are already being parsed
+    private void submit(ExecutorService pool, Deque<Future<ParsedChunk>> inFlight, Chunk chunk,
+                        RecordParser parser) throws IOException {
+        if (inFlight.size() >= 2 * parsers) {
+            insert(await(inFlight.poll()));
+        }
+        inFlight.add(pool.submit(() -> parse(chunk, parser)));
+    }
+    
+    private ParsedChunk parse(Chunk chunk, RecordParser parser) {
+        ParsedChunk parsed = new ParsedChunk(chunk.lines.size());
+        for (int i = 0; i < chunk.lines.size(); i++) {
+            String line = chunk.lines.get(i);
+            long lineNumber = chunk.firstLine + i;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                parsed.add(toPatient(parser.parse(line)), lineNumber);
+            } catch (IllegalArgumentException e) {
+                parsed.errors.add(new ImportError(lineNumber, e.getMessage()));
+            }
+        }
+        return parsed;
+    }
+    
+    private void insert(ParsedChunk chunk) {
+        List<Patient> added = repository.addPatients(chunk.patients);
+        if (added.size() < chunk.patients.size()) {
+            // addPatients keeps input order, so the skipped ones are where the lists differ
+            int next = 0;
+            for (int i = 0; i < chunk.patients.size(); i++) {
+                Patient patient = chunk.patients.get(i);
+                if (next < added.size() && added.get(next) == patient) {
+                    next++;
+                } else {
+                    chunk.errors.add(new ImportError(chunk.lines[i], "Patient already exists: " + patient.getPatientId()));
+                }
+            }
+            chunk.errors.sort(Comparator.comparingLong(ImportError::getLine));
+        }
+        List<Patient> snapshots = new ArrayList<>(added.size());
+        for (Patient patient : added) {
+            // the patients are already visible, so an update may race this save
+            snapshots.add(patient.snapshotAndMarkClean());
+        }
+        try {
+            store.saveAll(snapshots);
+            imported += added.size();
+        } catch (Exception e) {
+            System.err.println("Warning: Failed to persist imported patients: " + e.getMessage());
+            rollBack(chunk, added, e);
+        }
+        failed += chunk.errors.size();
+        for (ImportError error : chunk.errors) {
+            if (errors.size() == MAX_REPORTED_ERRORS) {
+                break;
+            }
+            errors.add(error);
+        }
+    }
+    
+    // a batch the store would not take is taken out of the repository again and reported,
+    // so nothing is served that would be gone after a restart
+    private void rollBack(ParsedChunk chunk, List<Patient> added, Exception cause) {
+        Set<Patient> unsaved = Collections.newSetFromMap(new IdentityHashMap<>());
+        unsaved.addAll(added);
+        for (Patient patient : added) {
+            try {
+                repository.deletePatient(patient.getPatientId());
+            } catch (InvalidPatientException e) {
+                // already deleted by someone else
+            }
+            try {
+                // part of the batch may have reached the store before it failed
+                store.delete(patient.getPatientId());
+            } catch (Exception e) {
+                // the store is failing anyway; the record was never acknowledged
+            }
+        }
+        for (int i = 0; i < chunk.patients.size(); i++) {
+            if (unsaved.contains(chunk.patients.get(i))) {
+                chunk.errors.add(new ImportError(chunk.lines[i], "Failed to save patient: " + cause.getMessage()));
+            }
+        }
+        chunk.errors.sort(Comparator.comparingLong(ImportError::getLine));
+    }
+    
+    private static ParsedChunk await(Future<ParsedChunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while importing patients");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to parse patient records", e.getCause());
+        }
+    }
+    
+    private ImportResult result(long started) {
+        return new ImportResult(imported, failed, errors, (System.nanoTime() - started) / 1_000_000);
+    }
+    
+    private Patient toPatient(String[] values) {
+        for (int field : REQUIRED) {
+            if (values[field] == null || values[field].trim().isEmpty()) {
+                throw new IllegalArgumentException(FIELDS[field] + " is required");
+            }
+        }
+        int age;
+        try {
+            age = Integer.parseInt(values[AGE].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("age must be a whole number: " + values[AGE]);
+        }
+        if (age < 0 || age > 150) {
+            throw new IllegalArgumentException("age must be between 0 and 150: " + age);
+        }
+        String bloodGroup = values[BLOOD_GROUP].trim().toUpperCase();
+        if (!BLOOD_GROUPS.contains(bloodGroup)) {
+            throw new IllegalArgumentException("Unknown blood group: " + values[BLOOD_GROUP]);
+        }
+        String critical = values[CRITICAL] == null ? "" : values[CRITICAL].trim();
+        if (!critical.isEmpty() && !"true".equalsIgnoreCase(critical) && !"false".equalsIgnoreCase(critical)) {
+            throw new IllegalArgumentException("critical must be true or false: " + critical);
+        }
+        String patientId = values[PATIENT_ID] == null || values[PATIENT_ID].trim().isEmpty()
+                         ? IdGenerators.next("PAT") : values[PATIENT_ID].trim();
+        Patient patient = new Patient(patientId, values[NAME].trim(), age, values[GENDER].trim(), bloodGroup,
+                                      values[CONTACT_NUMBER].trim(), values[ADDRESS]);
+        patient.setCritical("true".equalsIgnoreCase(critical));
+        return patient;
+    }
+    
+    private String[] parseJson(String line) {
+        JsonNode record;
+        try {
+            record = objectMapper.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getOriginalMessage());
+        }
+        if (record == null || !record.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        String[] values = new String[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i++) {
+            JsonNode value = record.get(FIELDS[i]);
+            if (value == null || value.isNull()) {
+                continue;
+            }
+            if (value.isContainerNode()) {
+                throw new IllegalArgumentException(FIELDS[i] + " must be a single value");
+            }
+            values[i] = value.asText();
+        }
+        return values;
+    }
+    
+    private static RecordParser csvParser(String header) {
+        List<String> columns = splitCsv(header);
+        // for each CSV column, the field it holds, or -1 to ignore it
+        int[] fieldOf = new int[columns.size()];
+        Set<Integer> present = new HashSet<>();
+        for (int column = 0; column < columns.size(); column++) {
+            fieldOf[column] = -1;
+            for (int field = 0; field < FIELDS.length; field++) {
+                if (FIELDS[field].equalsIgnoreCase(columns.get(column).trim())) {
+                    fieldOf[column] = field;
+                    present.add(field);
+                }
+            }
+        }
+        for (int field : REQUIRED) {
+            if (!present.contains(field)) {
+                throw new IllegalArgumentException("CSV header is missing column " + FIELDS[field]);
+            }
+        }
+        return line -> {
+            List<String> fields = splitCsv(line);
+            if (fields.size() != fieldOf.length) {
+                throw new IllegalArgumentException("Expected " + fieldOf.length + " fields but found " + fields.size());
+            }
+            String[] values = new String[FIELDS.length];
+            for (int column = 0; column < fieldOf.length; column++) {
+                if (fieldOf[column] >= 0) {
+                    values[fieldOf[column]] = fields.get(column);
+                }
+            }
+            return values;
+        };
+    }
+    
+    // RFC 4180 within one line: a quoted field may hold commas and doubled quotes
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+    
+    private interface RecordParser {
+        // the record's values indexed like FIELDS, null where absent
+        String[] parse(String line);
+    }
+    
+    private static final class Chunk {
+        private final long firstLine;
+        private final List<String> lines;
+        
+        Chunk(long firstLine, List<String> lines) {
+            this.firstLine = firstLine;
+            this.lines = lines;
+        }
+    }
+    
+    private static final class ParsedChunk {
+        private final List<Patient> patients;
+        // the line each patient came from
+        private final long[] lines;
+        private final List<ImportError> errors;
+        
+        ParsedChunk(int capacity) {
+            this.patients = new ArrayList<>(capacity);
+            this.lines = new long[capacity];
+            this.errors = new ArrayList<>();
+        }
+        
+        void add(Patient patient, long line) {
+            lines[patients.size()] = line;
+            patients.add(patient);
+        }
+    }
+}
@@ -1,41 +1,65 @@
 package com.hospital.services;
 
+import com.hospital.models.HistoryPage;
+import com.hospital.models.ImportResult;
 import com.hospital.models.Patient;
 import com.hospital.repositories.PatientRepository;
 import com.hospital.exceptions.InvalidPatientException;
 import com.hospital.utils.FileIOManager;
-import com.hospital.utils.SerializationManager;
+import com.hospital.utils.IdGenerators;
+import com.hospital.utils.PatientStore;
+import com.hospital.utils.SerializedPatientStore;
+import com.hospital.utils.WriteBehindPatientStore;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.stream.Stream;
 
 public class PatientService {
     private PatientRepository patientRepository;
+    private PatientStore patientStore;
     
     public PatientService() {
         this.patientRepository = new PatientRepository();
+        this.patientStore = new SerializedPatientStore();
     }
     
     public PatientService(PatientRepository patientRepository) {
         this.patientRepository = patientRepository;
+        this.patientStore = new SerializedPatientStore();
+    }
+    
+    public void setPatientStore(PatientStore patientStore) {
+        this.patientStore = patientStore;
+    }
+    
+    public PatientStore getPatientStore() {
+        return patientStore;
     }
     
     public Patient registerPatient(String name, int age, String gender, String bloodGroup,
                                   String contactNumber, String address) throws InvalidPatientException {
-        String patientId = "PAT-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        String patientId = IdGenerators.next("PAT");
         
         Patient patient = new Patient(patientId, name, age, gender, bloodGroup, contactNumber, address);
         patientRepository.addPatient(patient);
         
-        try {
-            SerializationManager.serializePatient(patient);
-        } catch (Exception e) {
-            System.err.println("Warning: Failed to serialize patient: " + e.getMessage());
-        }
+        persist(patient);
         
         return patient;
     }
     
+    /**
+     * Registers every patient in a CSV or NDJSON stream (format "csv", "ndjson", or null
+     * to detect it), validating each record and persisting them in batches. Records that
+     * fail are reported by line number and do not stop the import.
+     */
+    public ImportResult importPatients(InputStream in, String format) throws IOException {
+        return new PatientImporter(patientRepository, patientStore).run(in, format);
+    }
+    
     public Patient getPatient(String patientId) throws InvalidPatientException {
         return patientRepository.getPatient(patientId);
     }
@@ -43,37 +67,63 @@ public class PatientService {
     public void updatePatient(Patient patient) throws InvalidPatientException {
         patientRepository.updatePatient(patient);
         
-        try {
-            SerializationManager.serializePatient(patient);
-        } catch (Exception e) {
-            System.err.println("Warning: Failed to serialize patient: " + e.getMessage());
-        }
+        persist(patient);
     }
     
     public void deletePatient(String patientId) throws InvalidPatientException {
         patientRepository.deletePatient(patientId);
         FileIOManager.deleteMedicalHistory(patientId);
-        SerializationManager.deleteSerializedPatient(patientId);
+        try {
+            patientStore.delete(patientId);
+        } catch (Exception e) {
+            System.err.println("Warning: Failed to delete stored patient: " + e.getMessage());
+        }
     }
     
     public List<Patient> getAllPatients() {
         return patientRepository.getAllPatients();
     }
     
+    public Stream<Patient> streamAllPatients() {
+        return patientRepository.streamAllPatients();
+    }
+    
     public void addMedicalRecord(String patientId, String record) throws Exception {
         Patient patient = patientRepository.getPatient(patientId);
         FileIOManager.appendToMedicalHistory(patient, record);
         patientRepository.updatePatient(patient);
+        persist(patient);
     }
     
     public List<String> getMedicalHistory(String patientId) throws Exception {
         return FileIOManager.loadMedicalHistory(patientId);
     }
     
+    public List<String> getRecentMedicalHistory(String patientId, int count) throws Exception {
+        return FileIOManager.loadRecentMedicalHistory(patientId, count);
+    }
+    
+    public HistoryPage getMedicalHistoryPage(String patientId, LocalDateTime from, LocalDateTime to,
+                                             String cursor, int limit) throws Exception {
+        return FileIOManager.loadMedicalHistoryPage(patientId, from, to, cursor, limit);
+    }
+    
     public List<Patient> getCriticalPatients() {
         return patientRepository.getCriticalPatients();
     }
     
+    public LocalDateTime getCriticalSince(String patientId) {
+        return patientRepository.getCriticalSince(patientId);
+    }
+    
+    public long getCriticalPatientCount() {
+        return patientRepository.getCriticalPatientCount();
+    }
+    
+    public List<Patient> searchPatients(String query, int limit) {
+        return patientRepository.searchPatients(query, limit);
+    }
+    
     public Map<String, Long> getPatientCountByBloodGroup() {
         return patientRepository.getPatientCountByBloodGroup();
     }
@@ -82,6 +132,7 @@ public class PatientService {
         Patient patient = patientRepository.getPatient(patientId);
         patient.setCritical(isCritical);
         patientRepository.updatePatient(patient);
+        persist(patient);
     }
     
     public boolean patientExists(String patientId) {
@@ -91,4 +142,33 @@ public class PatientService {
     public long getTotalPatients() {
         return patientRepository.getTotalPatients();
     }
+    
+    public Map<String, Object> getCacheStats() {
+        return patientRepository.getCacheStats();
+    }
+    
+    public Map<String, Object> getSearchIndexStats() {
+        return patientRepository.getSearchIndexStats();
+    }
+    
+    public Map<String, Object> getExistenceFilterStats() {
+        return patientRepository.getExistenceFilterStats();
+    }
+    
+    public long getDurabilityLagMillis() {
+        return patientStore instanceof WriteBehindPatientStore
+             ? ((WriteBehindPatientStore) patientStore).getDurabilityLagMillis() : 0;
+    }
+    
+    // writes only what changed since the last persist; the patient is marked clean as it is
+    // copied, and gets its changes back if the write fails so the next persist retries them
+    private void persist(Patient patient) {
+        Patient snapshot = patient.snapshotAndMarkClean();
+        try {
+            patientStore.saveChanges(snapshot);
+        } catch (Exception e) {
+            patient.mergeChanges(snapshot);
+            System.err.println("Warning: Failed to serialize patient: " + e.getMessage());
+        }
+    }
 }
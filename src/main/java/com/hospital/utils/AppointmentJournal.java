@@ -0,0 +1,295 @@
+package com.hospital.utils;
+
+import com.hospital.models.Appointment;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Append-only log of appointment events, one JSON object per line. A single writer
+ * thread drains everything queued since its last write and covers it with one fsync,
+ * so concurrent bookings share the cost of durability.
+ */
+public class AppointmentJournal implements Closeable {
+    public enum EventType {
+        BOOKED,
+        UPDATED,
+        CANCELLED,
+        COMPLETED,
+        /** Latest state of an appointment, written when the journal is compacted. */
+        SNAPSHOT
+    }
+    
+    public enum DurabilityMode {
+        /** Every event gets its own fsync before the caller returns. */
+        PER_OPERATION,
+        /** Callers wait for the group commit that covers their event. */
+        BATCHED,
+        /** Callers return once the event is queued; the writer syncs in the background. */
+        ASYNC
+    }
+    
+    private static final int MAX_BATCH = 1024;
+    // a caller waiting longer than this gives up rather than hanging on a stuck disk
+    private static final long COMMIT_TIMEOUT_MILLIS = Long.getLong("hospital.journal.commitTimeoutMillis", 10_000);
+    
+    private final Path journalFile;
+    private final DurabilityMode durabilityMode;
+    private final FileChannel channel;
+    private final ObjectMapper objectMapper;
+    private final BlockingQueue<PendingEvent> queue;
+    private final Thread writer;
+    // appends share the read lock; close takes the write lock so nothing is queued after the writer stops
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean running;
+    
+    public AppointmentJournal(Path journalFile, DurabilityMode durabilityMode) throws IOException {
+        this.journalFile = journalFile;
+        this.durabilityMode = durabilityMode;
+        if (journalFile.getParent() != null) {
+            Files.createDirectories(journalFile.getParent());
+        }
+        truncateTornTail(journalFile);
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+        this.queue = new LinkedBlockingQueue<>();
+        this.running = true;
+        this.writer = new Thread(this::writeLoop, "appointment-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    
+    /**
+     * Snapshots the appointment and queues the event. The returned future completes
+     * once the event is on disk, or fails if the journal is already closed; pass it to
+     * {@link #awaitDurable} outside any lock.
+     */
+    public CompletableFuture<Void> append(EventType type, Appointment appointment) {
+        byte[] line;
+        try {
+            line = (objectMapper.writeValueAsString(recordOf(objectMapper, type, appointment)) + "\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        closeLock.readLock().lock();
+        try {
+            if (!running) {
+                return CompletableFuture.failedFuture(new IOException("Appointment journal is closed"));
+            }
+            PendingEvent event = new PendingEvent(line);
+            queue.add(event);
+            return event.durable;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+    
+    public void awaitDurable(CompletableFuture<Void> commit) {
+        // ASYNC callers do not wait, but an event the journal refused still fails loudly
+        if (commit == null || (durabilityMode == DurabilityMode.ASYNC && !commit.isCompletedExceptionally())) {
+            return;
+        }
+        try {
+            commit.get(COMMIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Failed to write appointment journal",
+                    e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+        } catch (TimeoutException e) {
+            throw new UncheckedIOException(new IOException(
+                    "Appointment journal did not commit within " + COMMIT_TIMEOUT_MILLIS + " ms"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("Interrupted waiting for appointment journal"));
+        }
+    }
+    
+    public DurabilityMode getDurabilityMode() {
+        return durabilityMode;
+    }
+    
+    /**
+     * Reads the journal back and returns the newest recorded version of each appointment,
+     * in first-booked order.
+     */
+    public static List<Appointment> replay(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return new ArrayList<>();
+        }
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        Map<String, Appointment> latest = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                Appointment appointment;
+                try {
+                    JsonNode record = mapper.readTree(line);
+                    appointment = mapper.treeToValue(record.get("appointment"), Appointment.class);
+                } catch (IOException e) {
+                    System.err.println("Warning: Skipping corrupt journal record: " + e.getMessage());
+                    continue;
+                }
+                // concurrent updates may reach the log out of order; the higher version wins
+                latest.merge(appointment.getAppointmentId(), appointment,
+                             (previous, next) -> next.getVersion() >= previous.getVersion() ? next : previous);
+            }
+        }
+        return new ArrayList<>(latest.values());
+    }
+    
+    public Path getJournalFile() {
+        return journalFile;
+    }
+    
+    /**
+     * Rewrites the journal as one SNAPSHOT record per appointment, so the log stops
+     * growing with every edit ever made. Must run while no journal is open on the file;
+     * the new log replaces the old one with an atomic rename.
+     */
+    public static void compact(Path journalFile, Collection<Appointment> appointments) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        if (journalFile.getParent() != null) {
+            Files.createDirectories(journalFile.getParent());
+        }
+        Path temp = journalFile.resolveSibling(journalFile.getFileName() + ".compact");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Appointment appointment : appointments) {
+                writer.write(mapper.writeValueAsString(recordOf(mapper, EventType.SNAPSHOT, appointment)));
+                writer.write('\n');
+            }
+        }
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+        Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        closeLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+    
+    private static ObjectNode recordOf(ObjectMapper mapper, EventType type, Appointment appointment) {
+        ObjectNode record = mapper.createObjectNode();
+        record.put("event", type.name());
+        record.set("appointment", mapper.valueToTree(appointment));
+        return record;
+    }
+    
+    // a crash mid-write can leave a partial last line; cut it so new records start clean
+    private static void truncateTornTail(Path journalFile) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return;
+        }
+        try (FileChannel file = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = file.size();
+            ByteBuffer one = ByteBuffer.allocate(1);
+            while (end > 0) {
+                one.clear();
+                file.read(one, end - 1);
+                if (one.get(0) == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < file.size()) {
+                file.truncate(end);
+            }
+        }
+    }
+    
+    private void writeLoop() {
+        List<PendingEvent> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingEvent first = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void writeBatch(List<PendingEvent> batch) {
+        try {
+            if (durabilityMode == DurabilityMode.PER_OPERATION) {
+                for (PendingEvent event : batch) {
+                    writeFully(new ByteBuffer[]{ByteBuffer.wrap(event.line)});
+                    channel.force(false);
+                    event.durable.complete(null);
+                }
+                return;
+            }
+            ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+            for (int i = 0; i < buffers.length; i++) {
+                buffers[i] = ByteBuffer.wrap(batch.get(i).line);
+            }
+            writeFully(buffers);
+            channel.force(false);
+            for (PendingEvent event : batch) {
+                event.durable.complete(null);
+            }
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to write appointment journal: " + e.getMessage());
+            for (PendingEvent event : batch) {
+                event.durable.completeExceptionally(e);
+            }
+        }
+    }
+    
+    private void writeFully(ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+    
+    private static final class PendingEvent {
+        private final byte[] line;
+        private final CompletableFuture<Void> durable;
+        
+        PendingEvent(byte[] line) {
+            this.line = line;
+            this.durable = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.hospital.utils;
+
+import com.hospital.models.Appointment;
+import com.hospital.models.Doctor;
+import com.hospital.models.Patient;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Compact binary encoding for the model classes. A record is an entity byte, a schema
+ * version byte, then tagged fields ending with a zero tag. Each tag is the field number
+ * shifted left by three plus a wire type (varint, fixed 64-bit or length-prefixed), so a
+ * reader skips fields it does not know and leaves missing fields at their defaults;
+ * fields may be added but never renumbered. Null values are simply not written, except
+ * where the decoded object's default is not null: those are listed in field 13.
+ */
+public final class BinaryCodec {
+    public static final byte SCHEMA_VERSION = 1;
+    
+    private static final byte PATIENT = 1;
+    private static final byte DOCTOR = 2;
+    private static final byte APPOINTMENT = 3;
+    private static final byte PATIENT_CHANGES = 4;
+    
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int BYTES = 2;
+    
+    private BinaryCodec() {
+    }
+    
+    public static void writePatient(ByteBuffer out, Patient patient) {
+        out.put(PATIENT).put(SCHEMA_VERSION);
+        writeString(out, 1, patient.getPatientId());
+        writeString(out, 2, patient.getName());
+        writeSigned(out, 3, patient.getAge());
+        writeString(out, 4, patient.getGender());
+        writeString(out, 5, patient.getBloodGroup());
+        writeString(out, 6, patient.getContactNumber());
+        writeString(out, 7, patient.getAddress());
+        for (String entry : patient.getMedicalHistory()) {
+            writeString(out, 8, entry);
+        }
+        writeSigned(out, 9, patient.isCritical() ? 1 : 0);
+        writeDouble(out, 10, patient.getConsultationFee());
+        if (patient.getRegistrationDate() != null) {
+            writeSigned(out, 11, patient.getRegistrationDate().toEpochDay());
+        } else {
+            // a new Patient is registered today, so absence alone would decode as today
+            writeSigned(out, 13, 11);
+        }
+        writeVarint(out, 0);
+    }
+    
+    public static Patient readPatient(ByteBuffer in) throws IOException {
+        readHeader(in, PATIENT);
+        Patient patient = new Patient();
+        List<String> history = new ArrayList<>();
+        readPatientFields(in, patient, history);
+        patient.setMedicalHistory(history);
+        patient.markClean();
+        return patient;
+    }
+    
+    /**
+     * Writes only what changed on the patient since it was last marked clean: the id,
+     * the changed fields, and either the whole history (field 12 says to clear it first)
+     * or just the appended entries. Changed fields that are now null are listed in
+     * field 13, since a null value is otherwise indistinguishable from an absent one.
+     */
+    public static void writePatientChanges(ByteBuffer out, Patient patient) {
+        out.put(PATIENT_CHANGES).put(SCHEMA_VERSION);
+        writeString(out, 1, patient.getPatientId());
+        EnumSet<Patient.Field> changed = patient.changedFields();
+        for (Patient.Field field : changed) {
+            switch (field) {
+                case NAME: writeChangedString(out, 2, patient.getName()); break;
+                case AGE: writeSigned(out, 3, patient.getAge()); break;
+                case GENDER: writeChangedString(out, 4, patient.getGender()); break;
+                case BLOOD_GROUP: writeChangedString(out, 5, patient.getBloodGroup()); break;
+                case CONTACT_NUMBER: writeChangedString(out, 6, patient.getContactNumber()); break;
+                case ADDRESS: writeChangedString(out, 7, patient.getAddress()); break;
+                case MEDICAL_HISTORY:
+                    writeSigned(out, 12, 1);
+                    for (String entry : patient.getMedicalHistory()) {
+                        writeString(out, 8, entry);
+                    }
+                    break;
+                case CRITICAL: writeSigned(out, 9, patient.isCritical() ? 1 : 0); break;
+                case CONSULTATION_FEE: writeDouble(out, 10, patient.getConsultationFee()); break;
+                case REGISTRATION_DATE:
+                    if (patient.getRegistrationDate() == null) {
+                        writeSigned(out, 13, 11);
+                    } else {
+                        writeSigned(out, 11, patient.getRegistrationDate().toEpochDay());
+                    }
+                    break;
+            }
+        }
+        for (String entry : patient.appendedHistory()) {
+            writeString(out, 8, entry);
+        }
+        writeVarint(out, 0);
+    }
+    
+    /**
+     * Applies a record written by writePatientChanges to the patient it was taken from.
+     */
+    public static void applyPatientChanges(ByteBuffer in, Patient patient) throws IOException {
+        readHeader(in, PATIENT_CHANGES);
+        List<String> history = patient.getMedicalHistory();
+        readPatientFields(in, patient, history);
+        patient.setMedicalHistory(history);
+        patient.markClean();
+    }
+    
+    // a full record never carries field 12, and field 13 clears the same way in both, so they share this
+    private static void readPatientFields(ByteBuffer in, Patient patient, List<String> history) throws IOException {
+        int tag;
+        while ((tag = (int) readVarint(in)) != 0) {
+            switch (tag >>> 3) {
+                case 1: patient.setPatientId(readString(in)); break;
+                case 2: patient.setName(readString(in)); break;
+                case 3: patient.setAge((int) readSigned(in)); break;
+                case 4: patient.setGender(readString(in)); break;
+                case 5: patient.setBloodGroup(readString(in)); break;
+                case 6: patient.setContactNumber(readString(in)); break;
+                case 7: patient.setAddress(readString(in)); break;
+                case 8: history.add(readString(in)); break;
+                case 9: patient.setCritical(readSigned(in) != 0); break;
+                case 10: patient.setConsultationFee(Double.longBitsToDouble(in.getLong())); break;
+                case 11: patient.setRegistrationDate(LocalDate.ofEpochDay(readSigned(in))); break;
+                case 12: readSigned(in); history.clear(); break;
+                case 13: clearPatientField(patient, (int) readSigned(in)); break;
+                default: skip(in, tag);
+            }
+        }
+    }
+    
+    private static void clearPatientField(Patient patient, int field) {
+        switch (field) {
+            case 2: patient.setName(null); break;
+            case 4: patient.setGender(null); break;
+            case 5: patient.setBloodGroup(null); break;
+            case 6: patient.setContactNumber(null); break;
+            case 7: patient.setAddress(null); break;
+            case 11: patient.setRegistrationDate(null); break;
+            default: break;
+        }
+    }
+    
+    public static void writeDoctor(ByteBuffer out, Doctor doctor) {
+        out.put(DOCTOR).put(SCHEMA_VERSION);
+        writeString(out, 1, doctor.getDoctorId());
+        writeString(out, 2, doctor.getName());
+        writeString(out, 3, doctor.getSpecialization());
+        writeString(out, 4, doctor.getDepartment());
+        writeString(out, 5, doctor.getContactNumber());
+        writeString(out, 6, doctor.getEmail());
+        writeSigned(out, 7, doctor.getExperienceYears());
+        writeDouble(out, 8, doctor.getConsultationFee());
+        String[] slots = doctor.getAppointmentSlots();
+        if (slots != null) {
+            // written even when zero so an empty schedule does not decode as the default one
+            writeSigned(out, 9, slots.length);
+            for (String slot : slots) {
+                writeString(out, 10, slot);
+            }
+        }
+        for (String qualification : doctor.getQualifications()) {
+            writeString(out, 11, qualification);
+        }
+        writeVarint(out, 0);
+    }
+    
+    public static Doctor readDoctor(ByteBuffer in) throws IOException {
+        readHeader(in, DOCTOR);
+        Doctor doctor = new Doctor();
+        List<String> slots = null;
+        List<String> qualifications = new ArrayList<>();
+        int tag;
+        while ((tag = (int) readVarint(in)) != 0) {
+            switch (tag >>> 3) {
+                case 1:
+                    doctor.setDoctorId(readString(in));
+                    doctor.setStaffId(doctor.getDoctorId());
+                    break;
+                case 2: doctor.setName(readString(in)); break;
+                case 3: doctor.setSpecialization(readString(in)); break;
+                case 4: doctor.setDepartment(readString(in)); break;
+                case 5: doctor.setContactNumber(readString(in)); break;
+                case 6: doctor.setEmail(readString(in)); break;
+                case 7: doctor.setExperienceYears((int) readSigned(in)); break;
+                case 8: doctor.setConsultationFee(Double.longBitsToDouble(in.getLong())); break;
+                case 9: slots = new ArrayList<>((int) readSigned(in)); break;
+                case 10:
+                    if (slots == null) {
+                        slots = new ArrayList<>();
+                    }
+                    slots.add(readString(in));
+                    break;
+                case 11: qualifications.add(readString(in)); break;
+                default: skip(in, tag);
+            }
+        }
+        if (slots != null) {
+            doctor.setAppointmentSlots(slots.toArray(new String[0]));
+        }
+        doctor.setQualifications(qualifications);
+        return doctor;
+    }
+    
+    public static void writeAppointment(ByteBuffer out, Appointment appointment) {
+        out.put(APPOINTMENT).put(SCHEMA_VERSION);
+        writeString(out, 1, appointment.getAppointmentId());
+        writeString(out, 2, appointment.getPatientId());
+        writeString(out, 3, appointment.getDoctorId());
+        if (appointment.getAppointmentDate() != null) {
+            writeSigned(out, 4, appointment.getAppointmentDate().toEpochDay());
+        }
+        writeString(out, 5, appointment.getTimeSlot());
+        // a new Appointment starts SCHEDULED and created now, so absence alone would decode as those
+        writeChangedString(out, 6, appointment.getStatus());
+        writeString(out, 7, appointment.getSymptoms());
+        writeString(out, 8, appointment.getDiagnosis());
+        writeString(out, 9, appointment.getPrescription());
+        if (appointment.getCreatedAt() != null) {
+            writeSigned(out, 10, appointment.getCreatedAt().toEpochSecond(ZoneOffset.UTC));
+            writeSigned(out, 11, appointment.getCreatedAt().getNano());
+        } else {
+            writeSigned(out, 13, 10);
+        }
+        writeSigned(out, 12, appointment.getVersion());
+        writeVarint(out, 0);
+    }
+    
+    public static Appointment readAppointment(ByteBuffer in) throws IOException {
+        readHeader(in, APPOINTMENT);
+        Appointment appointment = new Appointment();
+        long createdSeconds = Long.MIN_VALUE;
+        int createdNanos = 0;
+        int tag;
+        while ((tag = (int) readVarint(in)) != 0) {
+            switch (tag >>> 3) {
+                case 1: appointment.setAppointmentId(readString(in)); break;
+                case 2: appointment.setPatientId(readString(in)); break;
+                case 3: appointment.setDoctorId(readString(in)); break;
+                case 4: appointment.setAppointmentDate(LocalDate.ofEpochDay(readSigned(in))); break;
+                case 5: appointment.setTimeSlot(readString(in)); break;
+                case 6: appointment.setStatus(readString(in)); break;
+                case 7: appointment.setSymptoms(readString(in)); break;
+                case 8: appointment.setDiagnosis(readString(in)); break;
+                case 9: appointment.setPrescription(readString(in)); break;
+                case 10: createdSeconds = readSigned(in); break;
+                case 11: createdNanos = (int) readSigned(in); break;
+                case 12: appointment.setVersion(readSigned(in)); break;
+                case 13: clearAppointmentField(appointment, (int) readSigned(in)); break;
+                default: skip(in, tag);
+            }
+        }
+        if (createdSeconds != Long.MIN_VALUE) {
+            appointment.setCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochSecond(createdSeconds, createdNanos),
+                                                             ZoneOffset.UTC));
+        }
+        return appointment;
+    }
+    
+    private static void clearAppointmentField(Appointment appointment, int field) {
+        switch (field) {
+            case 6: appointment.setStatus(null); break;
+            case 10: appointment.setCreatedAt(null); break;
+            default: break;
+        }
+    }
+    
+    private static void readHeader(ByteBuffer in, byte entity) throws IOException {
+        byte actual = in.get();
+        byte version = in.get();
+        if (actual != entity) {
+            throw new IOException("Expected entity type " + entity + " but found " + actual);
+        }
+        // older versions are always readable; newer ones may have changed a field's meaning
+        if (version > SCHEMA_VERSION) {
+            throw new IOException("Record schema version " + version + " is newer than supported "
+                                  + SCHEMA_VERSION);
+        }
+    }
+    
+    private static void writeString(ByteBuffer out, int field, String value) {
+        if (value == null) {
+            return;
+        }
+        writeVarint(out, field << 3 | BYTES);
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            // the common case: copy chars straight in, no intermediate byte[]
+            writeVarint(out, length);
+            for (int i = 0; i < length; i++) {
+                out.put((byte) value.charAt(i));
+            }
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.put(bytes);
+        }
+    }
+    
+    private static void writeChangedString(ByteBuffer out, int field, String value) {
+        if (value == null) {
+            writeSigned(out, 13, field);
+        } else {
+            writeString(out, field, value);
+        }
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = (int) readVarint(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+    
+    private static void writeSigned(ByteBuffer out, int field, long value) {
+        writeVarint(out, field << 3 | VARINT);
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+    
+    private static long readSigned(ByteBuffer in) {
+        long raw = readVarint(in);
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+    
+    private static void writeDouble(ByteBuffer out, int field, double value) {
+        writeVarint(out, field << 3 | FIXED64);
+        out.putLong(Double.doubleToRawLongBits(value));
+    }
+    
+    private static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+    
+    private static void skip(ByteBuffer in, int tag) throws IOException {
+        switch (tag & 7) {
+            case VARINT:
+                readVarint(in);
+                break;
+            case FIXED64:
+                in.position(in.position() + 8);
+                break;
+            case BYTES:
+                int length = (int) readVarint(in);
+                in.position(in.position() + length);
+                break;
+            default:
+                throw new IOException("Unknown wire type in field " + (tag >>> 3));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.hospital.utils;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-size heap buffers recycled between encodes, so steady-state persistence does not
+ * allocate a fresh buffer per record. Buffers of any other size are simply dropped on
+ * release.
+ */
+public class ByteBufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> free;
+    
+    public ByteBufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+    
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+    
+    public void release(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+    
+    /**
+     * Runs the writer against a pooled buffer, retrying with doubled buffers when the
+     * content does not fit. Returns the flipped buffer; hand it back with release.
+     */
+    public ByteBuffer fill(Consumer<ByteBuffer> writer) {
+        ByteBuffer buffer = acquire();
+        while (true) {
+            try {
+                writer.accept(buffer);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                int capacity = buffer.capacity() * 2;
+                release(buffer);
+                buffer = ByteBuffer.allocate(capacity);
+            }
+        }
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
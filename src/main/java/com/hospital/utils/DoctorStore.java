@@ -0,0 +1,50 @@
+package com.hospital.utils;
+
+import com.hospital.models.Doctor;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Keeps the doctor roster in a single serialized snapshot. Doctors change rarely, so
+ * each change rewrites the whole file through a temp file and an atomic rename; a crash
+ * leaves either the old roster or the new one, never a torn file.
+ */
+public class DoctorStore {
+    private final Path file;
+    
+    public DoctorStore(Path file) {
+        this.file = file;
+    }
+    
+    public synchronized void saveAll(Collection<Doctor> doctors) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeObject(new ArrayList<>(doctors));
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    @SuppressWarnings("unchecked")
+    public synchronized List<Doctor> loadAll() throws IOException {
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            return (List<Doctor>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable doctor roster: " + file, e);
+        }
+    }
+    
+    public Path getFile() {
+        return file;
+    }
+}
@@ -1,34 +1,46 @@
 package com.hospital.utils;
 
+import com.hospital.models.HistoryPage;
 import com.hospital.models.Patient;
 import java.io.*;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class FileIOManager {
     private static final String MEDICAL_HISTORY_DIR = "data/medical_history/";
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int MAX_OPEN_HISTORY_FILES = Integer.getInteger("hospital.history.openFiles", 256);
+    private static final MedicalHistoryLog historyLog;
     
     static {
-        File dir = new File(MEDICAL_HISTORY_DIR);
-        if (!dir.exists()) {
-            dir.mkdirs();
+        MedicalHistoryLog.FsyncPolicy policy = fsyncPolicy(System.getProperty("hospital.history.fsync"));
+        try {
+            historyLog = new MedicalHistoryLog(Paths.get(MEDICAL_HISTORY_DIR), MAX_OPEN_HISTORY_FILES, policy);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + MEDICAL_HISTORY_DIR, e);
         }
     }
     
-    public static void saveMedicalHistory(String patientId, String record) throws IOException {
-        String filename = MEDICAL_HISTORY_DIR + patientId + "_history.txt";
-        String timestamp = LocalDateTime.now().format(formatter);
-        String entry = "[" + timestamp + "] " + record + "\n";
-        
-        try (FileWriter fw = new FileWriter(filename, true);
-             BufferedWriter bw = new BufferedWriter(fw)) {
-            bw.write(entry);
+    // a bad value here would otherwise surface as an ExceptionInInitializerError on first use
+    private static MedicalHistoryLog.FsyncPolicy fsyncPolicy(String value) {
+        if (value == null) {
+            return MedicalHistoryLog.FsyncPolicy.NEVER;
+        }
+        try {
+            return MedicalHistoryLog.FsyncPolicy.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Warning: Unknown hospital.history.fsync policy '" + value + "', expected one of "
+                               + Arrays.toString(MedicalHistoryLog.FsyncPolicy.values()) + "; using NEVER");
+            return MedicalHistoryLog.FsyncPolicy.NEVER;
         }
     }
     
+    public static void saveMedicalHistory(String patientId, String record) throws IOException {
+        historyLog.append(patientId, record);
+    }
+    
     public static List<String> loadMedicalHistory(String patientId) throws IOException {
         List<String> history = new ArrayList<>();
         String filename = MEDICAL_HISTORY_DIR + patientId + "_history.txt";
@@ -49,16 +61,25 @@ public class FileIOManager {
         return history;
     }
     
+    public static List<String> loadRecentMedicalHistory(String patientId, int count) throws IOException {
+        return historyLog.tail(patientId, count);
+    }
+    
+    public static HistoryPage loadMedicalHistoryPage(String patientId, LocalDateTime from, LocalDateTime to,
+                                                     String cursor, int limit) throws IOException {
+        return historyLog.range(patientId, from, to, cursor, limit);
+    }
+    
     public static void appendToMedicalHistory(Patient patient, String record) throws IOException {
         saveMedicalHistory(patient.getPatientId(), record);
         patient.addMedicalHistory(record);
     }
     
     public static void deleteMedicalHistory(String patientId) {
-        String filename = MEDICAL_HISTORY_DIR + patientId + "_history.txt";
-        File file = new File(filename);
-        if (file.exists()) {
-            file.delete();
+        try {
+            historyLog.delete(patientId);
+        } catch (IOException e) {
+            System.err.println("Warning: Failed to delete medical history for " + patientId + ": " + e.getMessage());
         }
     }
     
@@ -66,4 +87,15 @@ public class FileIOManager {
         String filename = MEDICAL_HISTORY_DIR + patientId + "_history.txt";
         return new File(filename).exists();
     }
+    
+    public static MedicalHistoryLog getHistoryLog() {
+        return historyLog;
+    }
+    
+    /**
+     * Syncs (per the fsync policy) and closes every open history file.
+     */
+    public static void closeMedicalHistory() throws IOException {
+        historyLog.close();
+    }
 }
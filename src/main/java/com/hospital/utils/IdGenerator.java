@@ -0,0 +1,54 @@
+package com.hospital.utils;
+
+public interface IdGenerator {
+    
+    /**
+     * Returns a new id, unique for this generator and increasing with creation time.
+     */
+    long nextLong();
+    
+    /**
+     * Makes every later id greater than id, one issued before a restart. Generators
+     * whose ids do not follow the clock may ignore it.
+     */
+    default void advancePast(long id) {
+    }
+    
+    default String next(String prefix) {
+        return prefix + "-" + encode(nextLong());
+    }
+    
+    /**
+     * Fixed-width Crockford base32, so string order matches numeric (creation) order.
+     */
+    static String encode(long id) {
+        final String alphabet = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+        char[] chars = new char[13];
+        for (int i = chars.length - 1; i >= 0; i--) {
+            chars[i] = alphabet.charAt((int) (id & 31));
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+    
+    /**
+     * The number in an id made by next, or -1 if the text after the prefix is not an
+     * encoded id (for example a hand-made sample id).
+     */
+    static long decode(String id) {
+        final String alphabet = "0123456789ABCDEFGHJKMNPQRSTVWXYZ";
+        int start = id.lastIndexOf('-') + 1;
+        if (id.length() - start != 13) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < id.length(); i++) {
+            int digit = alphabet.indexOf(id.charAt(i));
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 5) | digit;
+        }
+        return value;
+    }
+}
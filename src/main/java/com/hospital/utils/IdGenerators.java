@@ -0,0 +1,34 @@
+package com.hospital.utils;
+
+/**
+ * Process-wide id source shared by every entity type. The node id comes from the
+ * hospital.node.id system property (default 0) and must differ between servers that
+ * write to the same data.
+ */
+public class IdGenerators {
+    private static volatile IdGenerator generator =
+        new TimeOrderedIdGenerator(Integer.getInteger("hospital.node.id", 0));
+    
+    public static String next(String prefix) {
+        return generator.next(prefix);
+    }
+    
+    /**
+     * Seeds the generator with an id read back from storage; ids it cannot decode
+     * are skipped.
+     */
+    public static void advancePast(String id) {
+        long value = id == null ? -1 : IdGenerator.decode(id);
+        if (value >= 0) {
+            generator.advancePast(value);
+        }
+    }
+    
+    public static IdGenerator get() {
+        return generator;
+    }
+    
+    public static void set(IdGenerator idGenerator) {
+        generator = idGenerator;
+    }
+}
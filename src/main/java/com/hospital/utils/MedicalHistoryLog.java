@@ -0,0 +1,621 @@
+package com.hospital.utils;
+
+import com.hospital.models.HistoryPage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-patient medical history files of timestamped lines, each with a sidecar index.
+ * Channels stay open between calls, up to maxOpenFiles patients in least-recently-used
+ * order; a patient whose channels are closed and who has nothing queued is forgotten.
+ * Appends to the same file are group-committed: whichever thread holds the file's
+ * lock writes every line queued so far in one gathering write (and one fsync, depending
+ * on the policy), and the threads whose lines it wrote return without touching the file.
+ *
+ * The index holds a fixed-width entry per line (offset, length, epoch second), so a page
+ * of lines is one positioned read of the index plus one of the history file, and a
+ * timestamp is found by binary search. Lines of a batch share the batch's timestamp,
+ * which keeps timestamps in file order.
+ */
+public class MedicalHistoryLog implements Closeable {
+    public enum FsyncPolicy {
+        /** Leave flushing to the OS, as the old open-write-close path did. */
+        NEVER,
+        /** Every append returns only after the batch containing it is fsynced. */
+        PER_BATCH,
+        /** A background task fsyncs files with new lines once a second. */
+        PERIODIC
+    }
+    
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int TIMESTAMP_LENGTH = "[yyyy-MM-dd HH:mm:ss]".length();
+    private static final long PERIODIC_FSYNC_MILLIS = 1000;
+    // long offset, int length, long epoch second
+    private static final int INDEX_ENTRY_BYTES = 20;
+    
+    private final Path directory;
+    private final int maxOpenFiles;
+    private final FsyncPolicy fsyncPolicy;
+    private final Map<String, HistoryFile> files;
+    // patients with open channels, in access order; guarded by itself
+    private final LinkedHashMap<HistoryFile, Boolean> openFiles;
+    private final ScheduledExecutorService fsyncTask;
+    private volatile CachedTimestamp cachedTimestamp;
+    
+    public MedicalHistoryLog(Path directory, int maxOpenFiles, FsyncPolicy fsyncPolicy) throws IOException {
+        this.directory = directory;
+        this.maxOpenFiles = maxOpenFiles;
+        this.fsyncPolicy = fsyncPolicy;
+        this.files = new ConcurrentHashMap<>();
+        this.openFiles = new LinkedHashMap<>(16, 0.75f, true);
+        this.cachedTimestamp = new CachedTimestamp(Long.MIN_VALUE, null);
+        Files.createDirectories(directory);
+        if (fsyncPolicy == FsyncPolicy.PERIODIC) {
+            this.fsyncTask = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "history-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.fsyncTask.scheduleWithFixedDelay(this::syncDirtyFiles, PERIODIC_FSYNC_MILLIS,
+                                                  PERIODIC_FSYNC_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            this.fsyncTask = null;
+        }
+    }
+    
+    public static String fileName(String patientId) {
+        return patientId + "_history.txt";
+    }
+    
+    public static String indexFileName(String patientId) {
+        return patientId + "_history.idx";
+    }
+    
+    /**
+     * Appends "[timestamp] record" as one line and returns once it is written (and
+     * fsynced, under PER_BATCH). A record containing a line break is rejected, since it
+     * would be read back as several entries that the index does not know about.
+     */
+    public void append(String patientId, String record) throws IOException {
+        if (record.indexOf('\n') >= 0 || record.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("Medical history record for " + patientId
+                                               + " cannot contain line breaks");
+        }
+        PendingLine pending = new PendingLine((record + "\n").getBytes(StandardCharsets.UTF_8));
+        HistoryFile file = null;
+        while (file == null) {
+            HistoryFile candidate = files.computeIfAbsent(patientId, HistoryFile::new);
+            candidate.queue.add(pending);
+            synchronized (candidate) {
+                if (!pending.written) {
+                    // a retired file's queue is never drained again; queue the line on its successor
+                    if (candidate.retired) {
+                        continue;
+                    }
+                    writeQueued(candidate);
+                }
+                retireIfIdle(candidate);
+            }
+            file = candidate;
+        }
+        if (pending.failure != null) {
+            throw new IOException("Failed to append medical history for " + patientId, pending.failure);
+        }
+        evictBeyondLimit(file);
+    }
+    
+    /**
+     * The last count lines, oldest first.
+     */
+    public List<String> tail(String patientId, int count) throws IOException {
+        return read(patientId, new ArrayList<>(),
+                    file -> readLines(file, Math.max(0, file.entries - count), file.entries));
+    }
+    
+    /**
+     * Up to limit lines starting at the cursor (a line number; null for the first line).
+     */
+    public HistoryPage page(String patientId, String cursor, int limit) throws IOException {
+        return range(patientId, null, null, cursor, limit);
+    }
+    
+    /**
+     * Up to limit lines timestamped within [from, to], either bound optional, starting
+     * at the cursor returned with the previous page.
+     */
+    public HistoryPage range(String patientId, LocalDateTime from, LocalDateTime to, String cursor, int limit)
+            throws IOException {
+        return read(patientId, new HistoryPage(new ArrayList<>(), null, 0), file -> {
+            long start = from == null ? 0 : lowerBound(file, toEpochSecond(from));
+            long end = to == null ? file.entries : lowerBound(file, toEpochSecond(to) + 1);
+            if (cursor != null) {
+                start = Math.max(start, Long.parseLong(cursor));
+            }
+            long pageEnd = Math.min(end, start + limit);
+            List<String> lines = readLines(file, start, pageEnd);
+            return new HistoryPage(lines, pageEnd < end ? Long.toString(pageEnd) : null, file.entries);
+        });
+    }
+    
+    /**
+     * Closes the patient's files and deletes them.
+     */
+    public void delete(String patientId) throws IOException {
+        HistoryFile file = files.remove(patientId);
+        if (file != null) {
+            synchronized (file) {
+                file.removed = true;
+                closeChannels(file);
+            }
+        }
+        Files.deleteIfExists(directory.resolve(fileName(patientId)));
+        Files.deleteIfExists(directory.resolve(indexFileName(patientId)));
+    }
+    
+    public int getOpenFileCount() {
+        synchronized (openFiles) {
+            return openFiles.size();
+        }
+    }
+    
+    /**
+     * Patients with open channels or queued lines; idle patients are not tracked.
+     */
+    public int getTrackedFileCount() {
+        return files.size();
+    }
+    
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (fsyncTask != null) {
+            fsyncTask.shutdownNow();
+        }
+        for (HistoryFile file : files.values()) {
+            synchronized (file) {
+                closeChannels(file);
+            }
+        }
+    }
+    
+    /**
+     * Runs reader under the lock of the patient's live file, opened, or returns absent
+     * if the patient has no history file.
+     */
+    private <T> T read(String patientId, T absent, HistoryReader<T> reader) throws IOException {
+        while (true) {
+            HistoryFile file = files.computeIfAbsent(patientId, HistoryFile::new);
+            T result;
+            synchronized (file) {
+                if (file.retired) {
+                    continue;
+                }
+                if (!open(file, false)) {
+                    retireIfIdle(file);
+                    return absent;
+                }
+                result = reader.read(file);
+            }
+            evictBeyondLimit(file);
+            return result;
+        }
+    }
+    
+    /**
+     * Drops a file with no channels and no queued lines from files, so the map only
+     * holds patients in use. Anyone still holding it sees retired and looks the patient
+     * up again. Caller holds the file's lock.
+     */
+    private void retireIfIdle(HistoryFile file) {
+        if (file.data == null && file.queue.isEmpty() && !file.retired) {
+            file.retired = true;
+            files.remove(file.patientId, file);
+        }
+    }
+    
+    // caller holds the file's lock
+    private void writeQueued(HistoryFile file) {
+        List<PendingLine> batch = new ArrayList<>();
+        PendingLine next;
+        while ((next = file.queue.poll()) != null) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            if (file.removed) {
+                throw new IOException("Medical history was deleted");
+            }
+            open(file, true);
+            CachedTimestamp stamp = timestamp(file.lastSecond);
+            ByteBuffer[] lines = new ByteBuffer[batch.size() * 2];
+            ByteBuffer index = ByteBuffer.allocate(batch.size() * INDEX_ENTRY_BYTES);
+            long position = file.size;
+            for (int i = 0; i < batch.size(); i++) {
+                byte[] body = batch.get(i).body;
+                lines[2 * i] = ByteBuffer.wrap(stamp.prefix);
+                lines[2 * i + 1] = ByteBuffer.wrap(body);
+                int length = stamp.prefix.length + body.length;
+                index.putLong(position).putInt(length).putLong(stamp.epochSecond);
+                position += length;
+            }
+            index.flip();
+            // lines first: an index entry never points past the end of the history file
+            writeFully(file.data, lines);
+            writeFully(file.index, new ByteBuffer[]{index});
+            if (fsyncPolicy == FsyncPolicy.PER_BATCH) {
+                file.data.force(false);
+                file.index.force(false);
+            } else {
+                file.dirty = true;
+            }
+            file.size = position;
+            file.entries += batch.size();
+            file.lastSecond = stamp.epochSecond;
+        } catch (IOException e) {
+            for (PendingLine line : batch) {
+                line.failure = e;
+            }
+            // reopening re-derives the sizes and repairs the index from the file
+            try {
+                closeChannels(file);
+            } catch (IOException ignored) {
+            }
+        } finally {
+            for (PendingLine line : batch) {
+                line.written = true;
+            }
+        }
+    }
+    
+    /**
+     * Opens the patient's channels if they are not open, bringing the index in line with
+     * the history file: entries past its end are dropped, and lines without entries (a
+     * file written before indexing, or a crash between the two writes) are indexed.
+     * Returns false if the file does not exist and create is false. Caller holds the
+     * file's lock.
+     */
+    private boolean open(HistoryFile file, boolean create) throws IOException {
+        if (file.data != null) {
+            return true;
+        }
+        Path dataPath = directory.resolve(fileName(file.patientId));
+        if (!create && !Files.exists(dataPath)) {
+            return false;
+        }
+        FileChannel data = FileChannel.open(dataPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE);
+        FileChannel index;
+        try {
+            index = FileChannel.open(directory.resolve(indexFileName(file.patientId)), StandardOpenOption.CREATE,
+                                     StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        try {
+            long size = truncateTornTail(data);
+            long entries = index.size() / INDEX_ENTRY_BYTES;
+            long indexedEnd = 0;
+            long lastSecond = 0;
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            while (entries > 0) {
+                entry.clear();
+                readFully(index, entry, (entries - 1) * INDEX_ENTRY_BYTES);
+                indexedEnd = entry.getLong(0) + entry.getInt(8);
+                lastSecond = entry.getLong(12);
+                if (indexedEnd <= size) {
+                    break;
+                }
+                entries--;
+            }
+            if (entries == 0) {
+                indexedEnd = 0;
+                lastSecond = 0;
+            }
+            index.truncate(entries * INDEX_ENTRY_BYTES);
+            index.position(entries * INDEX_ENTRY_BYTES);
+            if (indexedEnd < size) {
+                entries += indexLines(data, index, indexedEnd, size, lastSecond);
+                entry.clear();
+                readFully(index, entry, (entries - 1) * INDEX_ENTRY_BYTES);
+                lastSecond = entry.getLong(12);
+            }
+            data.position(size);
+            file.data = data;
+            file.index = index;
+            file.size = size;
+            file.entries = entries;
+            file.lastSecond = lastSecond;
+        } catch (IOException e) {
+            data.close();
+            index.close();
+            throw e;
+        }
+        synchronized (openFiles) {
+            openFiles.put(file, Boolean.TRUE);
+        }
+        return true;
+    }
+    
+    // cut a partial last line so the next append starts on a fresh line
+    private static long truncateTornTail(FileChannel data) throws IOException {
+        long end = data.size();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (end > 0) {
+            one.clear();
+            data.read(one, end - 1);
+            if (one.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        if (end < data.size()) {
+            data.truncate(end);
+        }
+        return end;
+    }
+    
+    // indexes the lines in [start, end); returns how many it added
+    private static long indexLines(FileChannel data, FileChannel index, long start, long end, long lastSecond)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        ByteBuffer entries = ByteBuffer.allocate(4096 * INDEX_ENTRY_BYTES);
+        byte[] stamp = new byte[TIMESTAMP_LENGTH];
+        int stampLength = 0;
+        long lineStart = start;
+        long position = start;
+        long added = 0;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            readFully(data, buffer, position);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                position++;
+                if (b != '\n') {
+                    if (stampLength < stamp.length) {
+                        stamp[stampLength++] = b;
+                    }
+                    continue;
+                }
+                lastSecond = parseSecond(stamp, stampLength, lastSecond);
+                entries.putLong(lineStart).putInt((int) (position - lineStart)).putLong(lastSecond);
+                added++;
+                lineStart = position;
+                stampLength = 0;
+                if (!entries.hasRemaining()) {
+                    entries.flip();
+                    writeFully(index, new ByteBuffer[]{entries});
+                    entries.clear();
+                }
+            }
+        }
+        entries.flip();
+        writeFully(index, new ByteBuffer[]{entries});
+        return added;
+    }
+    
+    // unparseable lines inherit the previous line's time so the index stays sorted
+    private static long parseSecond(byte[] stamp, int length, long fallback) {
+        if (length < TIMESTAMP_LENGTH || stamp[0] != '[' || stamp[TIMESTAMP_LENGTH - 1] != ']') {
+            return fallback;
+        }
+        try {
+            String text = new String(stamp, 1, TIMESTAMP_LENGTH - 2, StandardCharsets.US_ASCII);
+            return Math.max(fallback, toEpochSecond(LocalDateTime.parse(text, TIMESTAMP)));
+        } catch (DateTimeParseException e) {
+            return fallback;
+        }
+    }
+    
+    private static long toEpochSecond(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+    
+    // first entry whose timestamp is at or after second; caller holds the file's lock
+    private static long lowerBound(HistoryFile file, long second) throws IOException {
+        ByteBuffer timestamp = ByteBuffer.allocate(8);
+        long low = 0;
+        long high = file.entries;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            timestamp.clear();
+            readFully(file.index, timestamp, mid * INDEX_ENTRY_BYTES + 12);
+            if (timestamp.getLong(0) < second) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // lines [from, to): one read for their index entries, one for the lines themselves
+    private static List<String> readLines(HistoryFile file, long from, long to) throws IOException {
+        List<String> lines = new ArrayList<>();
+        if (from >= to) {
+            return lines;
+        }
+        int count = (int) (to - from);
+        ByteBuffer entries = ByteBuffer.allocate(count * INDEX_ENTRY_BYTES);
+        readFully(file.index, entries, from * INDEX_ENTRY_BYTES);
+        long start = entries.getLong(0);
+        long end = entries.getLong((count - 1) * INDEX_ENTRY_BYTES) + entries.getInt((count - 1) * INDEX_ENTRY_BYTES + 8);
+        ByteBuffer text = ByteBuffer.allocate((int) (end - start));
+        readFully(file.data, text, start);
+        byte[] bytes = text.array();
+        for (int i = 0; i < count; i++) {
+            int offset = (int) (entries.getLong(i * INDEX_ENTRY_BYTES) - start);
+            int length = entries.getInt(i * INDEX_ENTRY_BYTES + 8);
+            // drop the newline
+            lines.add(new String(bytes, offset, length - 1, StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of medical history file");
+            }
+            position += read;
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            channel.write(buffers);
+        }
+    }
+    
+    private void evictBeyondLimit(HistoryFile recent) throws IOException {
+        List<HistoryFile> evicted = new ArrayList<>();
+        synchronized (openFiles) {
+            // access-ordered: touching it moves it to the young end
+            openFiles.get(recent);
+            Iterator<HistoryFile> eldest = openFiles.keySet().iterator();
+            while (openFiles.size() - evicted.size() > maxOpenFiles && eldest.hasNext()) {
+                evicted.add(eldest.next());
+            }
+        }
+        for (HistoryFile file : evicted) {
+            synchronized (file) {
+                closeChannels(file);
+                retireIfIdle(file);
+            }
+        }
+    }
+    
+    // caller holds the file's lock
+    private void closeChannels(HistoryFile file) throws IOException {
+        synchronized (openFiles) {
+            openFiles.remove(file);
+        }
+        if (file.data != null) {
+            try {
+                if (file.dirty && fsyncPolicy != FsyncPolicy.NEVER) {
+                    file.data.force(false);
+                    file.index.force(false);
+                }
+            } finally {
+                try {
+                    file.data.close();
+                } finally {
+                    file.index.close();
+                    file.data = null;
+                    file.index = null;
+                    file.dirty = false;
+                }
+            }
+        }
+    }
+    
+    // closing a file syncs it, so only open files can be dirty
+    private void syncDirtyFiles() {
+        List<HistoryFile> open;
+        synchronized (openFiles) {
+            open = new ArrayList<>(openFiles.keySet());
+        }
+        for (HistoryFile file : open) {
+            synchronized (file) {
+                if (file.data != null && file.dirty) {
+                    try {
+                        file.data.force(false);
+                        file.index.force(false);
+                        file.dirty = false;
+                    } catch (IOException e) {
+                        System.err.println("Warning: Failed to sync medical history for " + file.patientId
+                                           + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * History lines only resolve to the second, so each second is formatted once. The
+     * clock is never read as earlier than notBefore, the file's last indexed second, so
+     * a clock stepped back cannot break the index's time order; reindexing clamps the
+     * same way.
+     */
+    private CachedTimestamp timestamp(long notBefore) {
+        long now = Math.max(notBefore, System.currentTimeMillis() / 1000);
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.epochSecond != now) {
+            String formatted = LocalDateTime.ofInstant(Instant.ofEpochSecond(now), ZoneId.systemDefault())
+                                            .format(TIMESTAMP);
+            cached = new CachedTimestamp(now, ("[" + formatted + "] ").getBytes(StandardCharsets.US_ASCII));
+            cachedTimestamp = cached;
+        }
+        return cached;
+    }
+    
+    private static final class HistoryFile {
+        private final String patientId;
+        private final Queue<PendingLine> queue;
+        private FileChannel data;
+        private FileChannel index;
+        private long size;
+        private long entries;
+        // the newest second in the index; appends are never stamped earlier
+        private long lastSecond;
+        private boolean dirty;
+        private boolean removed;
+        // dropped from files; its queue is no longer drained
+        private boolean retired;
+        
+        HistoryFile(String patientId) {
+            this.patientId = patientId;
+            this.queue = new ConcurrentLinkedQueue<>();
+        }
+    }
+    
+    private interface HistoryReader<T> {
+        T read(HistoryFile file) throws IOException;
+    }
+    
+    private static final class PendingLine {
+        private final byte[] body;
+        private volatile boolean written;
+        private volatile IOException failure;
+        
+        PendingLine(byte[] body) {
+            this.body = body;
+        }
+    }
+    
+    private static final class CachedTimestamp {
+        private final long epochSecond;
+        private final byte[] prefix;
+        
+        CachedTimestamp(long epochSecond, byte[] prefix) {
+            this.epochSecond = epochSecond;
+            this.prefix = prefix;
+        }
+    }
+}
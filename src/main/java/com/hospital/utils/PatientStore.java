@@ -0,0 +1,64 @@
+package com.hospital.utils;
+
+import com.hospital.models.Patient;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Durable storage for patient records, independent of how they are laid out on disk.
+ */
+public interface PatientStore {
+    
+    void save(Patient patient) throws IOException;
+    
+    /**
+     * Stores each patient in full. Stores that can write many records at once override
+     * this to do so.
+     */
+    default void saveAll(Collection<Patient> patients) throws IOException {
+        for (Patient patient : patients) {
+            save(patient);
+        }
+    }
+    
+    /**
+     * Stores what changed on the patient since it was last marked clean. Stores without
+     * incremental records write the whole patient.
+     */
+    default void saveChanges(Patient patient) throws IOException {
+        save(patient);
+    }
+    
+    /**
+     * Returns the stored patient, or null if there is none.
+     */
+    Patient load(String patientId) throws IOException;
+    
+    void delete(String patientId) throws IOException;
+    
+    /**
+     * Reads every stored patient, decoding in parallel on the given pool.
+     */
+    List<Patient> loadAll(ForkJoinPool pool) throws IOException;
+    
+    /**
+     * Hands every stored patient to the consumer in batches of at most batchSize, on the
+     * calling thread. Stores that can decode incrementally override this so that only
+     * one batch is in memory at a time.
+     */
+    default void loadAll(ForkJoinPool pool, int batchSize, Consumer<List<Patient>> batches) throws IOException {
+        List<Patient> all = loadAll(pool);
+        for (int from = 0; from < all.size(); from += batchSize) {
+            batches.accept(all.subList(from, Math.min(all.size(), from + batchSize)));
+        }
+    }
+    
+    /**
+     * Blocks until every save and delete made before the call is on disk.
+     */
+    default void flush() throws IOException {
+    }
+}
@@ -0,0 +1,153 @@
+package com.hospital.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe Bloom filter that grows as keys are added. It is a series of fixed
+ * filters: when the newest one has taken its planned number of keys, a new one twice
+ * its size and with half its false-positive rate is started, so the combined rate stays
+ * under the target however many keys arrive. mightContain never returns false for a
+ * key that was added; keys cannot be removed.
+ */
+public class ScalableBloomFilter {
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+    
+    private final double falsePositiveRate;
+    // append-only; replaced whole when a stage is added
+    private volatile Stage[] stages;
+    
+    public ScalableBloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1: " + falsePositiveRate);
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        // the stages' rates form a geometric series summing to at most the target
+        this.stages = new Stage[]{new Stage(Math.max(64, expectedInsertions), falsePositiveRate * (1 - TIGHTENING))};
+    }
+    
+    public void add(String key) {
+        long hash = hash(key);
+        Stage[] current = stages;
+        Stage newest = current[current.length - 1];
+        newest.add(hash);
+        if (newest.count.incrementAndGet() == newest.capacity) {
+            grow(newest);
+        }
+    }
+    
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public long getApproximateCount() {
+        long count = 0;
+        for (Stage stage : stages) {
+            count += stage.count.get();
+        }
+        return count;
+    }
+    
+    public int getStageCount() {
+        return stages.length;
+    }
+    
+    public long getBitCount() {
+        long bits = 0;
+        for (Stage stage : stages) {
+            bits += stage.bitCount;
+        }
+        return bits;
+    }
+    
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+    
+    private synchronized void grow(Stage full) {
+        Stage[] current = stages;
+        if (current[current.length - 1] != full) {
+            return;
+        }
+        Stage[] grown = new Stage[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        grown[current.length] = new Stage(full.capacity * GROWTH, full.falsePositiveRate * TIGHTENING);
+        stages = grown;
+    }
+    
+    // FNV-1a over the chars, then a 64-bit finalizer so both halves are well mixed
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private static final class Stage {
+        private final long capacity;
+        private final double falsePositiveRate;
+        private final long bitCount;
+        private final int hashCount;
+        private final AtomicLongArray words;
+        private final AtomicLong count;
+        
+        Stage(long capacity, double falsePositiveRate) {
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+            double ln2 = Math.log(2);
+            long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+            this.bitCount = Math.max(64, (bits + 63) / 64 * 64);
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * ln2));
+            this.words = new AtomicLongArray((int) (bitCount / 64));
+            this.count = new AtomicLong();
+        }
+        
+        void add(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(h1, h2, i);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                // a plain read first spares the atomic write when the bit is already set
+                if ((words.get(word) & mask) == 0) {
+                    words.getAndUpdate(word, value -> value | mask);
+                }
+            }
+        }
+        
+        boolean mightContain(long hash) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 0; i < hashCount; i++) {
+                long bit = index(h1, h2, i);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        // double hashing: the i-th probe is h1 + i * h2
+        private long index(int h1, int h2, int i) {
+            long combined = h1 + (long) i * h2;
+            if (combined < 0) {
+                combined = ~combined;
+            }
+            return combined % bitCount;
+        }
+    }
+}
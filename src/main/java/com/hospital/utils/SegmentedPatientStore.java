@@ -0,0 +1,682 @@
+package com.hospital.utils;
+
+import com.hospital.models.Patient;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured patient store. Every save or delete is one append to the active segment
+ * file, and an in-memory index maps each patient to the offset of their latest record, so
+ * a load is one positioned read. Once the active segment reaches its size limit a new one
+ * is started, and a background thread compacts older segments that are mostly superseded
+ * records: their live records are copied forward and the file is deleted. Compaction
+ * reads and encodes without the write lock and takes it only to append each copy and
+ * swap the patient's index entry, so saves are not held up behind it.
+ *
+ * Record layout: length (int, bytes after the header), CRC32 of those bytes (int),
+ * type (byte), payload format (byte), id length (short), id (UTF-8), payload. Payloads
+ * are written with BinaryCodec; Java-serialized payloads from older files still load.
+ *
+ * saveChanges appends a delta record holding only the fields changed since the patient
+ * was last stored. The index then points at a chain: the delta, the record before it,
+ * and so on back to a full record. Loads apply the chain oldest first; compaction and
+ * every MAX_DELTA_CHAIN-th change write the merged patient as a new full record.
+ */
+public class SegmentedPatientStore implements PatientStore, Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final int HEADER_BYTES = 8;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final byte TYPE_DELTA = 3;
+    private static final byte FORMAT_JAVA_SERIALIZATION = 1;
+    private static final byte FORMAT_BINARY = 2;
+    private static final double COMPACT_BELOW_LIVE_RATIO = 0.5;
+    private static final int MAX_DELTA_CHAIN = 16;
+    private static final int SAVE_ALL_BATCH = 256;
+    
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final NavigableMap<Integer, Segment> segments;
+    private final Map<String, Location> index;
+    private final Object writeLock;
+    // one compaction at a time; never taken while holding writeLock
+    private final Object compactionLock;
+    private final ExecutorService compactor;
+    private final AtomicBoolean compactionQueued;
+    private final ByteBufferPool buffers;
+    private volatile boolean closed;
+    private Segment active;
+    
+    public SegmentedPatientStore(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_BYTES);
+    }
+    
+    public SegmentedPatientStore(Path directory, long maxSegmentBytes) throws IOException {
+        if (maxSegmentBytes <= 0 || maxSegmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size must be between 1 and 2 GB: " + maxSegmentBytes);
+        }
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.segments = new ConcurrentSkipListMap<>();
+        this.index = new ConcurrentHashMap<>();
+        this.writeLock = new Object();
+        this.compactionLock = new Object();
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "patient-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactionQueued = new AtomicBoolean();
+        this.buffers = new ByteBufferPool(16 * 1024, 64);
+        Files.createDirectories(directory);
+        recover();
+    }
+    
+    @Override
+    public void save(Patient patient) throws IOException {
+        ByteBuffer record = buffers.fill(out -> encodeRecord(out, TYPE_PUT, patient.getPatientId(), patient));
+        boolean rolled;
+        try {
+            synchronized (writeLock) {
+                rolled = rollIfFull(record.remaining());
+                Location location = append(record, null);
+                location.segment.liveBytes.addAndGet(location.length);
+                retire(index.put(patient.getPatientId(), location));
+            }
+        } finally {
+            buffers.release(record);
+        }
+        if (rolled) {
+            compactInBackground();
+        }
+    }
+    
+    /**
+     * Appends a full record for each patient, SAVE_ALL_BATCH at a time: each batch is
+     * encoded into one buffer and written with a single append under the write lock.
+     */
+    @Override
+    public void saveAll(Collection<Patient> patients) throws IOException {
+        List<Patient> all = new ArrayList<>(patients);
+        boolean rolled = false;
+        for (int from = 0; from < all.size(); from += SAVE_ALL_BATCH) {
+            List<Patient> batch = all.subList(from, Math.min(all.size(), from + SAVE_ALL_BATCH));
+            int[] ends = new int[batch.size()];
+            ByteBuffer records = buffers.fill(out -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    Patient patient = batch.get(i);
+                    // encodeRecord writes its header at position 0 of the buffer it is given
+                    ByteBuffer slot = out.slice();
+                    encodeRecord(slot, TYPE_PUT, patient.getPatientId(), patient);
+                    out.position(out.position() + slot.position());
+                    ends[i] = out.position();
+                }
+            });
+            try {
+                synchronized (writeLock) {
+                    rolled |= rollIfFull(records.remaining());
+                    Location written = append(records, null);
+                    int start = 0;
+                    for (int i = 0; i < batch.size(); i++) {
+                        Location location = new Location(written.segment, written.offset + start, ends[i] - start);
+                        location.segment.liveBytes.addAndGet(location.length);
+                        retire(index.put(batch.get(i).getPatientId(), location));
+                        start = ends[i];
+                    }
+                }
+            } finally {
+                buffers.release(records);
+            }
+        }
+        if (rolled) {
+            compactInBackground();
+        }
+    }
+    
+    /**
+     * Appends a delta record of the patient's changes. A patient that is not stored yet,
+     * or whose chain has reached MAX_DELTA_CHAIN, is written in full instead.
+     */
+    @Override
+    public void saveChanges(Patient patient) throws IOException {
+        if (!patient.hasChanges()) {
+            return;
+        }
+        if (patient.allFieldsChanged()) {
+            save(patient);
+            return;
+        }
+        ByteBuffer record = buffers.fill(out -> encodeRecord(out, TYPE_DELTA, patient.getPatientId(), patient));
+        boolean rolled = false;
+        boolean appended = false;
+        try {
+            synchronized (writeLock) {
+                Location head = index.get(patient.getPatientId());
+                if (head != null && head.depth < MAX_DELTA_CHAIN) {
+                    rolled = rollIfFull(record.remaining());
+                    Location location = append(record, head);
+                    location.segment.liveBytes.addAndGet(location.length);
+                    index.put(patient.getPatientId(), location);
+                    appended = true;
+                }
+            }
+        } finally {
+            buffers.release(record);
+        }
+        if (!appended) {
+            save(patient);
+        } else if (rolled) {
+            compactInBackground();
+        }
+    }
+    
+    @Override
+    public Patient load(String patientId) throws IOException {
+        while (true) {
+            Location location = index.get(patientId);
+            if (location == null) {
+                return null;
+            }
+            try {
+                return materialize(location, SegmentedPatientStore::readRecord);
+            } catch (ClosedChannelException e) {
+                // the segment was compacted away under us; the index now points at the copy
+                if (index.get(patientId) == location) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void delete(String patientId) throws IOException {
+        synchronized (writeLock) {
+            if (!index.containsKey(patientId)) {
+                return;
+            }
+            ByteBuffer record = buffers.fill(out -> encodeRecord(out, TYPE_DELETE, patientId, null));
+            try {
+                rollIfFull(record.remaining());
+                append(record, null);
+                retire(index.remove(patientId));
+            } finally {
+                buffers.release(record);
+            }
+        }
+    }
+    
+    @Override
+    public void flush() throws IOException {
+        Segment current = active;
+        current.channel.force(false);
+    }
+    
+    /**
+     * Decodes every live patient in parallel on the given pool. Each segment is mapped once
+     * and records are decoded straight from the mapping, so no per-record read is issued.
+     */
+    @Override
+    public List<Patient> loadAll(ForkJoinPool pool) throws IOException {
+        List<Patient> all = new ArrayList<>(index.size());
+        loadAll(pool, Integer.MAX_VALUE, all::addAll);
+        return all;
+    }
+    
+    /**
+     * Decodes the live records a batch at a time, each batch in parallel on the pool,
+     * so the caller can index one batch while holding no other decoded patients.
+     */
+    @Override
+    public void loadAll(ForkJoinPool pool, int batchSize, Consumer<List<Patient>> batches) throws IOException {
+        Map<Segment, MappedByteBuffer> mapped = new HashMap<>();
+        List<Location> live = new ArrayList<>(index.size());
+        synchronized (writeLock) {
+            for (Location location : index.values()) {
+                for (Location link = location; link != null; link = link.previous) {
+                    if (!mapped.containsKey(link.segment)) {
+                        mapped.put(link.segment,
+                                   link.segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, link.segment.size));
+                    }
+                }
+                live.add(location);
+            }
+        }
+        for (int from = 0; from < live.size(); from += batchSize) {
+            List<Location> slice = live.subList(from, (int) Math.min(live.size(), (long) from + batchSize));
+            batches.accept(decode(pool, slice, mapped));
+        }
+    }
+    
+    private List<Patient> decode(ForkJoinPool pool, List<Location> locations, Map<Segment, MappedByteBuffer> mapped)
+            throws IOException {
+        try {
+            return pool.submit(() -> locations.parallelStream().map(location -> {
+                try {
+                    return materialize(location, link -> {
+                        ByteBuffer record = mapped.get(link.segment).duplicate();
+                        record.position((int) link.offset);
+                        return record;
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading patients");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof UncheckedIOException ? ((UncheckedIOException) e.getCause()).getCause()
+                                                               : new IOException(e.getCause());
+        }
+    }
+    
+    public boolean contains(String patientId) {
+        return index.containsKey(patientId);
+    }
+    
+    public Set<String> getPatientIds() {
+        return Collections.unmodifiableSet(index.keySet());
+    }
+    
+    public int getSegmentCount() {
+        return segments.size();
+    }
+    
+    /**
+     * Rewrites sealed segments whose live records take up less than half of the file.
+     * A patient with any live record in such a segment is written forward as one full
+     * record, merging their delta chain. Sealed segments never change, so they are
+     * scanned and copies encoded without the write lock; each copy is appended and
+     * swapped in under it, and only if the patient was not rewritten in the meantime.
+     */
+    public void compact() throws IOException {
+        synchronized (compactionLock) {
+            for (Segment segment : new ArrayList<>(segments.values())) {
+                if (segment == active || segment.liveBytes.get() >= segment.size * COMPACT_BELOW_LIVE_RATIO) {
+                    continue;
+                }
+                boolean oldest = segments.firstKey() == segment.id;
+                for (RecordView record : scan(segment)) {
+                    if (closed) {
+                        return;
+                    }
+                    if (record.type != TYPE_DELETE) {
+                        moveForward(record);
+                    } else if (!oldest && !index.containsKey(record.patientId)) {
+                        // an older segment may still hold a put this delete has to shadow
+                        ByteBuffer copy = readRecord(record.location);
+                        synchronized (writeLock) {
+                            if (!index.containsKey(record.patientId)) {
+                                rollIfFull(copy.remaining());
+                                append(copy, null);
+                            }
+                        }
+                    }
+                }
+                synchronized (writeLock) {
+                    active.channel.force(false);
+                    segments.remove(segment.id);
+                    segment.channel.close();
+                }
+                Files.deleteIfExists(segment.path);
+            }
+        }
+    }
+    
+    // copies the patient forward while the record is still part of their chain
+    private void moveForward(RecordView record) throws IOException {
+        while (true) {
+            Location head = index.get(record.patientId);
+            if (!inChain(head, record.location)) {
+                return;
+            }
+            ByteBuffer copy;
+            if (head.previous == null) {
+                copy = readRecord(head);
+            } else {
+                Patient merged = materialize(head, SegmentedPatientStore::readRecord);
+                copy = buffers.fill(out -> encodeRecord(out, TYPE_PUT, record.patientId, merged));
+            }
+            try {
+                synchronized (writeLock) {
+                    // a save since the read has its own copy, or chains a delta onto this one: look again
+                    if (index.get(record.patientId) == head) {
+                        rollIfFull(copy.remaining());
+                        Location moved = append(copy, null);
+                        moved.segment.liveBytes.addAndGet(moved.length);
+                        retire(index.put(record.patientId, moved));
+                        return;
+                    }
+                }
+            } finally {
+                buffers.release(copy);
+            }
+        }
+    }
+    
+    // queues at most one compaction behind the running one
+    private void compactInBackground() {
+        if (closed || !compactionQueued.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            compactionQueued.set(false);
+            try {
+                compact();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Warning: Failed to compact patient segments in " + directory
+                                       + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+    
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        compactor.shutdown();
+        try {
+            // a running compaction stops at its next record
+            compactor.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writeLock) {
+            active.channel.force(false);
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+    
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(Comparator.naturalOrder());
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length()));
+            Segment segment = openSegment(id, file);
+            long validEnd = 0;
+            for (RecordView record : scan(segment)) {
+                if (record.type == TYPE_PUT) {
+                    retire(index.put(record.patientId, record.location));
+                    segment.liveBytes.addAndGet(record.location.length);
+                } else if (record.type == TYPE_DELTA) {
+                    // a delta whose base is gone was merged by compaction; a later full record replaces it
+                    Location previous = index.get(record.patientId);
+                    if (previous != null) {
+                        index.put(record.patientId, new Location(segment, record.location.offset,
+                                                                 record.location.length, previous));
+                        segment.liveBytes.addAndGet(record.location.length);
+                    }
+                } else {
+                    retire(index.remove(record.patientId));
+                }
+                validEnd = record.location.offset + record.location.length;
+            }
+            if (validEnd < segment.size) {
+                System.err.println("Warning: Truncating " + (segment.size - validEnd)
+                                   + " unreadable bytes from " + file);
+                segment.channel.truncate(validEnd);
+                segment.size = validEnd;
+            }
+        }
+        if (segments.isEmpty()) {
+            openSegment(1, segmentPath(1));
+        }
+        active = segments.lastEntry().getValue();
+    }
+    
+    private Segment openSegment(int id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, path, channel);
+        segments.put(id, segment);
+        return segment;
+    }
+    
+    private Path segmentPath(int id) {
+        return directory.resolve(String.format("segment-%06d.log", id));
+    }
+    
+    private boolean rollIfFull(int recordBytes) throws IOException {
+        if (active.size == 0 || active.size + recordBytes <= maxSegmentBytes) {
+            return false;
+        }
+        active.channel.force(false);
+        int next = active.id + 1;
+        active = openSegment(next, segmentPath(next));
+        return true;
+    }
+    
+    private Location append(ByteBuffer record, Location previous) throws IOException {
+        Segment segment = active;
+        long offset = segment.size;
+        int length = record.remaining();
+        long position = offset;
+        while (record.hasRemaining()) {
+            position += segment.channel.write(record, position);
+        }
+        segment.size = position;
+        return new Location(segment, offset, length, previous);
+    }
+    
+    // the superseded records become garbage in whichever segments hold them
+    private static void retire(Location previous) {
+        for (Location link = previous; link != null; link = link.previous) {
+            link.segment.liveBytes.addAndGet(-link.length);
+        }
+    }
+    
+    private static boolean inChain(Location head, Location location) {
+        for (Location link = head; link != null; link = link.previous) {
+            if (location.sameAs(link)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // decodes the full record at the end of the chain, then applies its deltas oldest first
+    private static Patient materialize(Location head, RecordReader reader) throws IOException {
+        Deque<Location> chain = new ArrayDeque<>();
+        for (Location link = head; link != null; link = link.previous) {
+            chain.push(link);
+        }
+        Patient patient = deserialize(reader.read(chain.pop()), null);
+        while (!chain.isEmpty()) {
+            deserialize(reader.read(chain.pop()), patient);
+        }
+        return patient;
+    }
+    
+    private static ByteBuffer readRecord(Location location) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(location.length);
+        long position = location.offset;
+        while (buffer.hasRemaining()) {
+            int read = location.segment.channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Patient record truncated in " + location.segment.path);
+            }
+            position += read;
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    // a null patient writes a delete record
+    private static void encodeRecord(ByteBuffer out, byte type, String patientId, Patient patient) {
+        byte[] id = patientId.getBytes(StandardCharsets.UTF_8);
+        out.position(HEADER_BYTES);
+        out.put(type);
+        out.put(FORMAT_BINARY);
+        out.putShort((short) id.length);
+        out.put(id);
+        if (type == TYPE_PUT) {
+            BinaryCodec.writePatient(out, patient);
+        } else if (type == TYPE_DELTA) {
+            BinaryCodec.writePatientChanges(out, patient);
+        }
+        int bodyLength = out.position() - HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), out.arrayOffset() + HEADER_BYTES, bodyLength);
+        out.putInt(0, bodyLength);
+        out.putInt(4, (int) crc.getValue());
+    }
+    
+    /**
+     * Reads a segment's records in order, stopping at the first torn or corrupt one.
+     */
+    private static List<RecordView> scan(Segment segment) throws IOException {
+        List<RecordView> records = new ArrayList<>();
+        long size = segment.size;
+        if (size == 0) {
+            return records;
+        }
+        MappedByteBuffer map = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        CRC32 crc = new CRC32();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= size) {
+            int bodyLength = map.getInt(offset);
+            int checksum = map.getInt(offset + 4);
+            if (bodyLength < 4 || offset + HEADER_BYTES + (long) bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = map.duplicate();
+            body.limit(offset + HEADER_BYTES + bodyLength).position(offset + HEADER_BYTES);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte[] id = new byte[map.getShort(offset + HEADER_BYTES + 2) & 0xffff];
+            body.position(offset + HEADER_BYTES + 4);
+            body.get(id);
+            Location location = new Location(segment, offset, HEADER_BYTES + bodyLength);
+            records.add(new RecordView(map.get(offset + HEADER_BYTES), new String(id, StandardCharsets.UTF_8), location));
+            offset += HEADER_BYTES + bodyLength;
+        }
+        return records;
+    }
+    
+    // decodes the record starting at the buffer's position, applying a delta to base;
+    // works on heap or mapped buffers
+    private static Patient deserialize(ByteBuffer record, Patient base) throws IOException {
+        int start = record.position();
+        int bodyLength = record.getInt(start);
+        int checksum = record.getInt(start + 4);
+        ByteBuffer body = record.duplicate();
+        body.limit(start + HEADER_BYTES + bodyLength).position(start + HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Patient record failed its checksum");
+        }
+        byte type = body.get(start + HEADER_BYTES);
+        byte format = body.get(start + HEADER_BYTES + 1);
+        int idLength = body.getShort(start + HEADER_BYTES + 2) & 0xffff;
+        body.position(start + HEADER_BYTES + 4 + idLength);
+        if (type == TYPE_DELTA) {
+            BinaryCodec.applyPatientChanges(body, base);
+            return base;
+        }
+        if (format == FORMAT_BINARY) {
+            return BinaryCodec.readPatient(body);
+        }
+        if (format != FORMAT_JAVA_SERIALIZATION) {
+            throw new IOException("Unknown patient record format: " + format);
+        }
+        // records written before the binary codec existed
+        byte[] payload = new byte[body.remaining()];
+        body.get(payload);
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            return (Patient) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable patient record", e);
+        }
+    }
+    
+    private static final class Segment {
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final AtomicLong liveBytes;
+        private volatile long size;
+        
+        Segment(int id, Path path, FileChannel channel) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.liveBytes = new AtomicLong();
+            this.size = channel.size();
+        }
+    }
+    
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        // for a delta, the record it applies to; null for a full record
+        private final Location previous;
+        private final int depth;
+        
+        Location(Segment segment, long offset, int length) {
+            this(segment, offset, length, null);
+        }
+        
+        Location(Segment segment, long offset, int length, Location previous) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.previous = previous;
+            this.depth = previous == null ? 0 : previous.depth + 1;
+        }
+        
+        boolean sameAs(Location other) {
+            return other != null && other.segment == segment && other.offset == offset;
+        }
+    }
+    
+    private interface RecordReader {
+        ByteBuffer read(Location location) throws IOException;
+    }
+    
+    private static final class RecordView {
+        private final byte type;
+        private final String patientId;
+        private final Location location;
+        
+        RecordView(byte type, String patientId, Location location) {
+            this.type = type;
+            this.patientId = patientId;
+            this.location = location;
+        }
+    }
+}
@@ -65,6 +65,18 @@ public class SerializationManager {
         return new File(filename).exists();
     }
     
+    public static List<String> listSerializedPatientIds() {
+        List<String> patientIds = new ArrayList<>();
+        File[] files = new File(SERIALIZED_DATA_DIR).listFiles((dir, name) -> name.endsWith(".ser"));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                patientIds.add(name.substring(0, name.length() - ".ser".length()));
+            }
+        }
+        return patientIds;
+    }
+    
     public static void deleteSerializedPatient(String patientId) {
         String filename = SERIALIZED_DATA_DIR + patientId + ".ser";
         File file = new File(filename);
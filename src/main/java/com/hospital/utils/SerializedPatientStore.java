@@ -0,0 +1,58 @@
+package com.hospital.utils;
+
+import com.hospital.models.Patient;
+import java.io.IOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * One serialized file per patient, written synchronously through SerializationManager.
+ */
+public class SerializedPatientStore implements PatientStore {
+    
+    @Override
+    public void save(Patient patient) throws IOException {
+        SerializationManager.serializePatient(patient);
+    }
+    
+    @Override
+    public Patient load(String patientId) throws IOException {
+        try {
+            return SerializationManager.deserializePatient(patientId);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unreadable patient record: " + patientId, e);
+        }
+    }
+    
+    /**
+     * Deserializes every .ser file in parallel. Files that are not readable patients
+     * (for example serialized patient lists) are skipped with a warning.
+     */
+    @Override
+    public List<Patient> loadAll(ForkJoinPool pool) throws IOException {
+        List<String> patientIds = SerializationManager.listSerializedPatientIds();
+        try {
+            return pool.submit(() -> patientIds.parallelStream().map(patientId -> {
+                try {
+                    return SerializationManager.deserializePatient(patientId);
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    System.err.println("Warning: Skipping unreadable patient file " + patientId + ": " + e);
+                    return null;
+                }
+            }).filter(Objects::nonNull).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading patients", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to load patients", e.getCause());
+        }
+    }
+    
+    @Override
+    public void delete(String patientId) {
+        SerializationManager.deleteSerializedPatient(patientId);
+    }
+}
@@ -0,0 +1,56 @@
+package com.hospital.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snowflake-style ids: 41 bits of milliseconds since 2024-01-01, 10 bits of node id and
+ * a 12-bit sequence. When a millisecond's sequence is used up the generator borrows the
+ * next millisecond instead of waiting, so ids stay unique and ordered even if the wall
+ * clock stalls or steps backwards.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+    public static final int MAX_NODE_ID = 1023;
+    private static final long EPOCH_MILLIS = 1704067200000L;
+    private static final int SEQUENCE_BITS = 12;
+    private static final int NODE_BITS = 10;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    
+    private final long nodeBits;
+    private final AtomicLong lastState;
+    
+    public TimeOrderedIdGenerator(int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.lastState = new AtomicLong();
+    }
+    
+    @Override
+    public long nextLong() {
+        while (true) {
+            long previous = lastState.get();
+            long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+            long next = now > previous ? now : previous + 1;
+            if (lastState.compareAndSet(previous, next)) {
+                long timestamp = next >>> SEQUENCE_BITS;
+                return (timestamp << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+    
+    /**
+     * Moves the generator's state past an id it issued before a restart. Ids
+     * carry the clock, so a clock that was stepped back between runs would
+     * otherwise re-issue ids already on disk.
+     */
+    @Override
+    public void advancePast(long id) {
+        long state = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (id & SEQUENCE_MASK);
+        lastState.accumulateAndGet(state, Math::max);
+    }
+    
+    public static long timestampMillis(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+}
@@ -0,0 +1,433 @@
+package com.hospital.utils;
+
+import com.hospital.models.Patient;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind front for another PatientStore. save and delete only queue a snapshot of
+ * the change; a background worker hands queued changes to the underlying store in
+ * batches, writing a batch's full saves with one saveAll, and flushes it once per batch.
+ * A change to a patient that is still queued replaces the queued copy, so a burst of
+ * edits costs one write (one delta record when they came through saveChanges, covering
+ * all of them). At most capacity patients can be queued; beyond that callers wait for
+ * the worker to catch up. A write the underlying store rejects goes back to the front of
+ * the queue as a full record and is retried, so nothing counts as durable until it is.
+ */
+public class WriteBehindPatientStore implements PatientStore, Closeable {
+    private static final int MAX_BATCH = 256;
+    private static final long RETRY_DELAY_MILLIS = 200;
+    // once closing, a write that keeps failing is given up after this many attempts
+    private static final int MAX_ATTEMPTS_ON_CLOSE = 3;
+    
+    private final PatientStore delegate;
+    private final int capacity;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Condition notFull;
+    private final Condition written;
+    // queued in order of each patient's oldest unwritten change
+    private final LinkedHashMap<String, PendingWrite> pending;
+    private Map<String, PendingWrite> inFlight;
+    private long lastSequence;
+    private long durableSequence;
+    private boolean running;
+    private final LongAdder writtenCount;
+    private final LongAdder coalescedCount;
+    private final LongAdder failedCount;
+    private long abandonedCount;
+    private Exception lastFailure;
+    private final Thread worker;
+    
+    public WriteBehindPatientStore(PatientStore delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+        }
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.notFull = lock.newCondition();
+        this.written = lock.newCondition();
+        this.pending = new LinkedHashMap<>();
+        this.inFlight = Collections.emptyMap();
+        this.running = true;
+        this.writtenCount = new LongAdder();
+        this.coalescedCount = new LongAdder();
+        this.failedCount = new LongAdder();
+        this.worker = new Thread(this::writeLoop, "patient-write-behind");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+    
+    @Override
+    public void save(Patient patient) throws IOException {
+        enqueue(patient.getPatientId(), new Patient(patient), true);
+    }
+    
+    /**
+     * Queues a snapshot of every patient under one acquisition of the queue lock, waiting
+     * for room as the worker drains it.
+     */
+    @Override
+    public void saveAll(Collection<Patient> patients) throws IOException {
+        lock.lock();
+        try {
+            for (Patient patient : patients) {
+                offer(patient.getPatientId(), new Patient(patient), true);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing patients");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public void saveChanges(Patient patient) throws IOException {
+        if (patient.hasChanges()) {
+            enqueue(patient.getPatientId(), new Patient(patient), false);
+        }
+    }
+    
+    @Override
+    public void delete(String patientId) throws IOException {
+        enqueue(patientId, null, true);
+    }
+    
+    @Override
+    public Patient load(String patientId) throws IOException {
+        lock.lock();
+        try {
+            PendingWrite queued = pending.get(patientId);
+            if (queued == null) {
+                queued = inFlight.get(patientId);
+            }
+            if (queued != null) {
+                if (queued.patient == null) {
+                    return null;
+                }
+                Patient copy = new Patient(queued.patient);
+                copy.markClean();
+                return copy;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return delegate.load(patientId);
+    }
+    
+    @Override
+    public List<Patient> loadAll(ForkJoinPool pool) throws IOException {
+        flush();
+        return delegate.loadAll(pool);
+    }
+    
+    /**
+     * Blocks until every change queued before the call has been written. Throws if a
+     * write fails meanwhile; the failed change stays queued and is retried.
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            long target = lastSequence;
+            long failuresBefore = failedCount.sum();
+            while (durableSequence < target) {
+                if (failedCount.sum() > failuresBefore) {
+                    throw new IOException("Failed to persist queued patient records", lastFailure);
+                }
+                written.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing patient records");
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Stops accepting changes, writes out everything still queued and closes the
+     * underlying store if it is closeable.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+        if (abandonedCount > 0) {
+            throw new IOException(abandonedCount + " patient writes could not be persisted", lastFailure);
+        }
+    }
+    
+    public int getPendingCount() {
+        lock.lock();
+        try {
+            return pending.size() + inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * How long the oldest change that is not yet on disk has been waiting, in milliseconds.
+     */
+    public long getDurabilityLagMillis() {
+        lock.lock();
+        try {
+            long oldest = Long.MAX_VALUE;
+            for (PendingWrite write : inFlight.values()) {
+                oldest = Math.min(oldest, write.queuedAt);
+            }
+            if (!pending.isEmpty()) {
+                oldest = Math.min(oldest, pending.values().iterator().next().queuedAt);
+            }
+            return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+    
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+    
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+    
+    private void enqueue(String patientId, Patient snapshot, boolean full) throws IOException {
+        lock.lock();
+        try {
+            offer(patientId, snapshot, full);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing patient " + patientId);
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    // caller holds the lock; waits while the queue is full
+    private void offer(String patientId, Patient snapshot, boolean full) throws InterruptedException {
+        while (true) {
+            if (!running) {
+                throw new IllegalStateException("Patient store is closed");
+            }
+            PendingWrite queued = pending.get(patientId);
+            if (queued != null) {
+                // keeps its place and sequence: the older change is not durable yet either
+                if (queued.patient == null) {
+                    // the store no longer has the patient, so changes alone would be lost
+                    queued.full = true;
+                } else if (snapshot != null && !full && !queued.full) {
+                    snapshot.mergeChanges(queued.patient);
+                }
+                queued.full |= full;
+                queued.patient = snapshot;
+                coalescedCount.increment();
+                return;
+            }
+            if (pending.size() < capacity) {
+                break;
+            }
+            notFull.await();
+        }
+        pending.put(patientId, new PendingWrite(patientId, snapshot, full, ++lastSequence));
+        notEmpty.signal();
+    }
+    
+    private void writeLoop() {
+        while (true) {
+            Map<String, PendingWrite> batch = new LinkedHashMap<>();
+            lock.lock();
+            try {
+                while (pending.isEmpty()) {
+                    if (!running) {
+                        return;
+                    }
+                    notEmpty.await();
+                }
+                Iterator<PendingWrite> queued = pending.values().iterator();
+                while (queued.hasNext() && batch.size() < MAX_BATCH) {
+                    PendingWrite write = queued.next();
+                    batch.put(write.patientId, write);
+                    queued.remove();
+                }
+                inFlight = batch;
+                notFull.signalAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            
+            List<PendingWrite> failed = writeBatch(batch.values());
+            
+            lock.lock();
+            try {
+                inFlight = Collections.emptyMap();
+                requeue(failed);
+                // everything sequenced before the oldest queued change is now on disk
+                durableSequence = pending.isEmpty() ? lastSequence
+                                                    : pending.values().iterator().next().sequence - 1;
+                written.signalAll();
+                if (!failed.isEmpty()) {
+                    // give a failing disk a moment rather than spinning on it
+                    long wait = TimeUnit.MILLISECONDS.toNanos(RETRY_DELAY_MILLIS);
+                    while (running && wait > 0) {
+                        wait = notEmpty.awaitNanos(wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+    
+    // caller holds the lock; puts failed writes back ahead of everything queued after them,
+    // folding in any newer change to the same patient
+    private void requeue(List<PendingWrite> failed) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        LinkedHashMap<String, PendingWrite> later = new LinkedHashMap<>(pending);
+        pending.clear();
+        for (PendingWrite write : failed) {
+            PendingWrite newer = later.remove(write.patientId);
+            if (newer != null) {
+                write.patient = newer.patient;
+            } else if (!running && write.attempts >= MAX_ATTEMPTS_ON_CLOSE) {
+                abandonedCount++;
+                System.err.println("Warning: Giving up on patient " + write.patientId + " after "
+                                   + write.attempts + " attempts");
+                continue;
+            }
+            // a full record also covers whatever part of a failed delta did reach the disk
+            write.full = true;
+            pending.put(write.patientId, write);
+        }
+        pending.putAll(later);
+    }
+    
+    // full saves go to the store together; a batch holds at most one change per patient,
+    // so their order relative to the other changes does not matter
+    // returns the writes that failed, in queue order
+    private List<PendingWrite> writeBatch(Collection<PendingWrite> batch) {
+        List<PendingWrite> saves = new ArrayList<>(batch.size());
+        List<Patient> patients = new ArrayList<>(batch.size());
+        List<PendingWrite> failed = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            if (write.patient != null && write.full) {
+                saves.add(write);
+                patients.add(write.patient);
+            } else if (!write(write)) {
+                failed.add(write);
+            }
+        }
+        if (saves.size() > 1) {
+            try {
+                delegate.saveAll(patients);
+                writtenCount.add(saves.size());
+                saves.clear();
+            } catch (IOException | RuntimeException e) {
+                // retried one by one below, so only the failing records go back on the queue
+                System.err.println("Warning: Failed to persist patient batch: " + e.getMessage());
+            }
+        }
+        for (PendingWrite write : saves) {
+            if (!write(write)) {
+                failed.add(write);
+            }
+        }
+        try {
+            delegate.flush();
+        } catch (IOException e) {
+            // nothing in the batch is known to be on disk
+            System.err.println("Warning: Failed to flush patient store: " + e.getMessage());
+            recordFailure(e);
+            failed.clear();
+            failed.addAll(batch);
+        }
+        failed.sort(Comparator.comparingLong(write -> write.sequence));
+        return failed;
+    }
+    
+    private boolean write(PendingWrite write) {
+        write.attempts++;
+        try {
+            if (write.patient == null) {
+                delegate.delete(write.patientId);
+            } else if (write.full) {
+                delegate.save(write.patient);
+            } else {
+                delegate.saveChanges(write.patient);
+            }
+            writtenCount.increment();
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Warning: Failed to persist patient " + write.patientId + ": " + e.getMessage());
+            recordFailure(e);
+            return false;
+        }
+    }
+    
+    private void recordFailure(Exception e) {
+        lock.lock();
+        try {
+            lastFailure = e;
+            failedCount.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private static final class PendingWrite {
+        private final String patientId;
+        private final long sequence;
+        private final long queuedAt;
+        // null marks a delete
+        private Patient patient;
+        // false when only the patient's changes need writing
+        private boolean full;
+        private int attempts;
+        
+        PendingWrite(String patientId, Patient patient, boolean full, long sequence) {
+            this.patientId = patientId;
+            this.patient = patient;
+            this.full = full;
+            this.sequence = sequence;
+            this.queuedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -1,17 +1,36 @@
 package com.hospital;
 
+import com.hospital.controllers.HospitalController;
 import com.hospital.models.Appointment;
+import com.hospital.models.AppointmentPage;
+import com.hospital.models.AvailableSlot;
+import com.hospital.models.BookingRequest;
 import com.hospital.models.Patient;
+import com.hospital.models.WaitlistEntry;
 import com.hospital.models.Doctor;
 import com.hospital.services.AppointmentService;
 import com.hospital.services.PatientService;
 import com.hospital.services.DoctorService;
 import com.hospital.repositories.*;
 import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.exceptions.StaleAppointmentException;
+import com.hospital.utils.AppointmentJournal;
+import com.hospital.utils.DoctorStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class AppointmentServiceTest {
@@ -31,6 +50,7 @@ public class AppointmentServiceTest {
         appointmentService = new AppointmentService(appointmentRepository, patientRepository, doctorRepository);
         patientService = new PatientService(patientRepository);
         doctorService = new DoctorService(doctorRepository);
+        doctorService.setAppointmentRepository(appointmentRepository);
     }
     
     @Test
@@ -119,6 +139,47 @@ public class AppointmentServiceTest {
         assertEquals("CANCELLED", cancelled.getStatus());
     }
     
+    @Test
+    @DisplayName("Test cancellation frees the slot and promotes a critical waitlisted patient first")
+    public void testCancellationPromotesWaitlist() throws Exception {
+        Patient booked = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Patient waiting = patientService.registerPatient("Jane Smith", 28, "Female", "A+", "0987654321", "456 Oak Ave");
+        Patient critical = patientService.registerPatient("Bob Johnson", 35, "Male", "B+", "1112223333", "789 Pine Rd");
+        patientService.markPatientAsCritical(critical.getPatientId(), true);
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        String timeSlot = "09:00-10:00";
+        Appointment appointment = appointmentService.bookAppointment(booked.getPatientId(), doctor.getDoctorId(), date, timeSlot);
+        for (String slot : doctor.getAppointmentSlots()) {
+            if (!slot.equals(timeSlot)) {
+                appointmentService.bookAppointment(booked.getPatientId(), doctor.getDoctorId(), date, slot);
+            }
+        }
+        
+        appointmentService.joinWaitlist(waiting.getPatientId(), doctor.getDoctorId(), date);
+        appointmentService.joinWaitlist(critical.getPatientId(), doctor.getDoctorId(), date);
+        assertEquals(critical.getPatientId(), appointmentService.getWaitlist(doctor.getDoctorId(), date).get(0).getPatientId());
+        
+        appointmentService.cancelAppointment(appointment.getAppointmentId());
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (appointmentService.getAppointmentsByPatient(critical.getPatientId()).isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        
+        List<Appointment> promoted = appointmentService.getAppointmentsByPatient(critical.getPatientId());
+        assertEquals(1, promoted.size());
+        assertEquals(timeSlot, promoted.get(0).getTimeSlot());
+        assertEquals(1, appointmentService.getWaitlist(doctor.getDoctorId(), date).size());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, timeSlot));
+        
+        appointmentRepository.deleteAppointment(appointment.getAppointmentId());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, timeSlot),
+                    "Deleting the cancelled booking must not free the promoted patient's slot");
+    }
+    
     @Test
     @DisplayName("Test slot availability check")
     public void testSlotAvailability() throws InvalidPatientException {
@@ -150,6 +211,359 @@ public class AppointmentServiceTest {
         assertEquals(2, appointments.size());
     }
     
+    @Test
+    @DisplayName("Test date-range queries page through results with a cursor")
+    public void testAppointmentRangePagination() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        Doctor other = doctorService.registerDoctor("Dr. Jones", "Neurology", "Neurology", "9876543211", "jones@hospital.com", 8, 250.0);
+        
+        LocalDate start = LocalDate.now().plusDays(1);
+        for (int d = 0; d < 10; d++) {
+            for (String slot : doctor.getAppointmentSlots()) {
+                appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), start.plusDays(d), slot);
+            }
+            appointmentService.bookAppointment(patient.getPatientId(), other.getDoctorId(), start.plusDays(d), "09:00-10:00");
+        }
+        
+        LocalDate from = start.plusDays(2);
+        LocalDate to = start.plusDays(4);
+        List<Appointment> seen = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            AppointmentPage page = appointmentService.getAppointmentsInRange(from, to, doctor.getDoctorId(), cursor, 4);
+            seen.addAll(page.getAppointments());
+            cursor = page.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        
+        assertEquals(18, seen.size());
+        assertEquals(5, pages);
+        assertEquals(from, seen.get(0).getAppointmentDate());
+        assertEquals("09:00-10:00", seen.get(0).getTimeSlot());
+        assertEquals(to, seen.get(17).getAppointmentDate());
+        for (int i = 1; i < seen.size(); i++) {
+            assertFalse(seen.get(i).getAppointmentDate().isBefore(seen.get(i - 1).getAppointmentDate()));
+            assertEquals(doctor.getDoctorId(), seen.get(i).getDoctorId());
+        }
+        
+        assertEquals(21, appointmentService.getAppointmentsInRange(from, to, null, null, 100).getAppointments().size());
+        assertEquals(7, appointmentService.getAppointmentsByDate(from).size());
+    }
+    
+    @Test
+    @DisplayName("Test journaled bookings survive a restart")
+    public void testJournalReplayAfterRestart(@TempDir Path dataDir) throws Exception {
+        Path journalFile = dataDir.resolve("appointments.log");
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        
+        for (AppointmentJournal.DurabilityMode mode : AppointmentJournal.DurabilityMode.values()) {
+            Files.deleteIfExists(journalFile);
+            setUp();
+            patientRepository.addPatient(patient);
+            doctorRepository.addDoctor(doctor);
+            
+            AppointmentJournal journal = new AppointmentJournal(journalFile, mode);
+            appointmentService.setJournal(journal);
+            
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<Appointment>> futures = new ArrayList<>();
+            for (int d = 0; d < 20; d++) {
+                LocalDate day = date.plusDays(d);
+                for (String slot : doctor.getAppointmentSlots()) {
+                    futures.add(executor.submit(() -> appointmentService.bookAppointment(
+                        patient.getPatientId(), doctor.getDoctorId(), day, slot)));
+                }
+            }
+            List<Appointment> booked = new ArrayList<>();
+            for (Future<Appointment> future : futures) {
+                booked.add(future.get(10, TimeUnit.SECONDS));
+            }
+            executor.shutdown();
+            
+            appointmentService.cancelAppointment(booked.get(0).getAppointmentId());
+            appointmentService.completeAppointment(booked.get(1).getAppointmentId(), "Flu", "Rest");
+            journal.close();
+            
+            AppointmentRepository restored = new AppointmentRepository();
+            for (Appointment appointment : AppointmentJournal.replay(journalFile)) {
+                restored.addAppointment(appointment);
+            }
+            
+            assertEquals(120, restored.getTotalAppointments(), mode + ": every booking should be replayed");
+            assertEquals("CANCELLED", restored.getAppointment(booked.get(0).getAppointmentId()).getStatus());
+            assertEquals("Flu", restored.getAppointment(booked.get(1).getAppointmentId()).getDiagnosis());
+            assertTrue(restored.isSlotAvailable(doctor.getDoctorId(), booked.get(0).getAppointmentDate(), booked.get(0).getTimeSlot()));
+            assertFalse(restored.isSlotAvailable(doctor.getDoctorId(), booked.get(1).getAppointmentDate(), booked.get(1).getTimeSlot()));
+        }
+    }
+    
+    @Test
+    @DisplayName("Test doctors and a compacted journal survive a restart")
+    public void testDoctorRosterAndJournalCompaction(@TempDir Path dataDir) throws Exception {
+        Path journalFile = dataDir.resolve("journal/appointments.log");
+        DoctorStore doctorStore = new DoctorStore(dataDir.resolve("doctors/doctors.ser"));
+        doctorService.setDoctorStore(doctorStore);
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        
+        AppointmentJournal journal = new AppointmentJournal(journalFile, AppointmentJournal.DurabilityMode.BATCHED);
+        appointmentService.setJournal(journal);
+        Appointment kept = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        Appointment edited = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "10:00-11:00");
+        for (int i = 0; i < 5; i++) {
+            Appointment copy = new Appointment(appointmentService.getAppointment(edited.getAppointmentId()));
+            copy.setSymptoms("visit " + i);
+            appointmentService.updateAppointment(copy, copy.getVersion());
+        }
+        journal.close();
+        
+        CompletableFuture<Void> late = journal.append(AppointmentJournal.EventType.UPDATED, kept);
+        assertTrue(late.isCompletedExceptionally(), "a closed journal must refuse new events");
+        assertThrows(UncheckedIOException.class, () -> journal.awaitDurable(late));
+        
+        List<Appointment> replayed = AppointmentJournal.replay(journalFile);
+        AppointmentJournal.compact(journalFile, replayed);
+        assertEquals(2, Files.readAllLines(journalFile).size());
+        
+        setUp();
+        for (Doctor stored : doctorStore.loadAll()) {
+            doctorRepository.addDoctor(stored);
+        }
+        patientRepository.addPatient(patient);
+        for (Appointment appointment : AppointmentJournal.replay(journalFile)) {
+            appointmentRepository.addAppointment(appointment);
+        }
+        
+        assertTrue(doctorService.doctorExists(doctor.getDoctorId()), "doctor ids must be stable across restarts");
+        assertEquals("visit 4", appointmentService.getAppointment(edited.getAppointmentId()).getSymptoms());
+        assertEquals(5, appointmentService.getAppointment(edited.getAppointmentId()).getVersion());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "09:00-10:00"));
+        assertNull(appointmentService.tryBookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "10:00-11:00"));
+    }
+    
+    @Test
+    @DisplayName("Test changes the journal fails to record are undone in memory")
+    public void testJournalFailureRollsBackChanges(@TempDir Path dataDir) throws Exception {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        AppointmentJournal journal = new AppointmentJournal(dataDir.resolve("appointments.log"),
+                                                            AppointmentJournal.DurabilityMode.BATCHED);
+        appointmentService.setJournal(journal);
+        Appointment booked = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        journal.close();
+        
+        assertThrows(UncheckedIOException.class, () ->
+            appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "10:00-11:00"));
+        assertThrows(UncheckedIOException.class, () -> appointmentService.bookAppointments(Arrays.asList(
+            new BookingRequest(patient.getPatientId(), doctor.getDoctorId(), date, "11:00-12:00"),
+            new BookingRequest(patient.getPatientId(), doctor.getDoctorId(), date, "14:00-15:00"))));
+        assertEquals(1, appointmentService.getAllAppointments().size());
+        assertTrue(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "10:00-11:00"));
+        assertTrue(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "14:00-15:00"));
+        
+        Appointment edit = new Appointment(booked);
+        edit.setSymptoms("Headache");
+        assertThrows(UncheckedIOException.class, () -> appointmentService.updateAppointment(edit, edit.getVersion()));
+        assertThrows(UncheckedIOException.class, () ->
+            appointmentService.completeAppointment(booked.getAppointmentId(), "Flu", "Rest"));
+        assertThrows(UncheckedIOException.class, () -> appointmentService.cancelAppointment(booked.getAppointmentId()));
+        Appointment current = appointmentService.getAppointment(booked.getAppointmentId());
+        assertEquals("SCHEDULED", current.getStatus());
+        assertNull(current.getSymptoms());
+        assertNull(current.getDiagnosis());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "09:00-10:00"));
+    }
+    
+    @Test
+    @DisplayName("Test versioned updates reject stale writes and lose no edits")
+    public void testOptimisticVersionedUpdates() throws Exception {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        Appointment booked = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        long version = booked.getVersion();
+        
+        Appointment frontDesk = new Appointment(booked);
+        frontDesk.setSymptoms("Headache");
+        appointmentService.updateAppointment(frontDesk, version);
+        assertEquals(version + 1, appointmentService.getAppointment(booked.getAppointmentId()).getVersion());
+        
+        // the doctor's edit was based on the version the front desk already replaced
+        assertThrows(StaleAppointmentException.class, () ->
+            appointmentService.completeAppointment(booked.getAppointmentId(), "Migraine", "Rest", version));
+        assertEquals("SCHEDULED", appointmentService.getAppointment(booked.getAppointmentId()).getStatus());
+        
+        int threads = 4;
+        int editsPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            String tag = "t" + t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < editsPerThread; i++) {
+                    while (true) {
+                        Appointment current = appointmentService.getAppointment(booked.getAppointmentId());
+                        Appointment edit = new Appointment(current);
+                        edit.setSymptoms(current.getSymptoms() + "," + tag);
+                        try {
+                            appointmentService.updateAppointment(edit, current.getVersion());
+                            break;
+                        } catch (StaleAppointmentException e) {
+                            // re-read and retry
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        
+        Appointment result = appointmentService.getAppointment(booked.getAppointmentId());
+        assertEquals(version + 1 + threads * editsPerThread, result.getVersion());
+        assertEquals(1 + threads * editsPerThread, result.getSymptoms().split(",").length);
+        
+        appointmentService.completeAppointment(booked.getAppointmentId(), "Migraine", "Rest");
+        assertEquals(1, appointmentService.getAppointmentsByStatus("COMPLETED").size());
+        assertEquals(0, appointmentService.getAppointmentsByStatus("SCHEDULED").size());
+    }
+    
+    @Test
+    @DisplayName("Test waitlist joins are de-duplicated, dated and booked at once when a slot is free")
+    public void testWaitlistJoinRules() throws Exception {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Patient other = patientService.registerPatient("Jane Smith", 28, "Female", "A+", "0987654321", "456 Oak Ave");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        
+        assertThrows(InvalidPatientException.class, () ->
+            appointmentService.joinWaitlist(patient.getPatientId(), doctor.getDoctorId(), LocalDate.now().minusDays(1)));
+        
+        WaitlistEntry immediate = appointmentService.joinWaitlist(patient.getPatientId(), doctor.getDoctorId(), date);
+        assertNotNull(immediate.getAppointmentId());
+        assertEquals(doctor.getAppointmentSlots()[0],
+                     appointmentService.getAppointment(immediate.getAppointmentId()).getTimeSlot());
+        assertTrue(appointmentService.getWaitlist(doctor.getDoctorId(), date).isEmpty());
+        
+        for (String slot : doctor.getAppointmentSlots()) {
+            appointmentService.tryBookAppointment(other.getPatientId(), doctor.getDoctorId(), date, slot);
+        }
+        WaitlistEntry first = appointmentService.joinWaitlist(patient.getPatientId(), doctor.getDoctorId(), date);
+        WaitlistEntry again = appointmentService.joinWaitlist(patient.getPatientId(), doctor.getDoctorId(), date);
+        assertNull(first.getAppointmentId());
+        assertSame(first, again);
+        assertEquals(1, appointmentService.getWaitlist(doctor.getDoctorId(), date).size());
+        
+        WaitlistRepository waitlists = new WaitlistRepository();
+        waitlists.join(patient.getPatientId(), doctor.getDoctorId(), LocalDate.now().minusDays(2), false);
+        waitlists.join(patient.getPatientId(), doctor.getDoctorId(), date, false);
+        waitlists.pruneBefore(LocalDate.now());
+        assertEquals(0, waitlists.getWaitlistSize(doctor.getDoctorId(), LocalDate.now().minusDays(2)));
+        assertEquals(1, waitlists.getWaitlistSize(doctor.getDoctorId(), date));
+    }
+    
+    @Test
+    @DisplayName("Test promotion skips removed patients but keeps the line when the doctor is gone")
+    public void testWaitlistPromotionKeepsEntriesItCannotBook() throws Exception {
+        Patient booked = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Patient removed = patientService.registerPatient("Bob Johnson", 35, "Male", "B+", "1112223333", "789 Pine Rd");
+        patientService.markPatientAsCritical(removed.getPatientId(), true);
+        Patient waiting = patientService.registerPatient("Jane Smith", 28, "Female", "A+", "0987654321", "456 Oak Ave");
+        Doctor leaving = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        Doctor staying = doctorService.registerDoctor("Dr. Jones", "Neurology", "Neurology", "5556667777", "jones@hospital.com", 8, 180.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        List<Appointment> leavingDay = new ArrayList<>();
+        List<Appointment> stayingDay = new ArrayList<>();
+        for (String slot : leaving.getAppointmentSlots()) {
+            leavingDay.add(appointmentService.bookAppointment(booked.getPatientId(), leaving.getDoctorId(), date, slot));
+        }
+        for (String slot : staying.getAppointmentSlots()) {
+            stayingDay.add(appointmentService.bookAppointment(booked.getPatientId(), staying.getDoctorId(), date, slot));
+        }
+        appointmentService.joinWaitlist(removed.getPatientId(), leaving.getDoctorId(), date);
+        appointmentService.joinWaitlist(waiting.getPatientId(), leaving.getDoctorId(), date);
+        appointmentService.joinWaitlist(waiting.getPatientId(), staying.getDoctorId(), date);
+        
+        patientService.deletePatient(removed.getPatientId());
+        doctorService.deleteDoctor(leaving.getDoctorId());
+        appointmentService.cancelAppointment(leavingDay.get(0).getAppointmentId());
+        // promotions run one at a time in order, so once this one lands the first has finished
+        appointmentService.cancelAppointment(stayingDay.get(0).getAppointmentId());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (appointmentService.getAppointmentsByPatient(waiting.getPatientId()).isEmpty()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        
+        assertEquals(1, appointmentService.getAppointmentsByPatient(waiting.getPatientId()).size());
+        List<WaitlistEntry> line = appointmentService.getWaitlist(leaving.getDoctorId(), date);
+        assertEquals(1, line.size(), "only the removed patient may be dropped");
+        assertEquals(waiting.getPatientId(), line.get(0).getPatientId());
+    }
+    
+    @Test
+    @DisplayName("Test doctor slot changes and removal reach the slot calendar")
+    public void testDoctorChangesRebuildSlotCalendar() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        LocalDate date = LocalDate.now().plusDays(1);
+        appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        
+        doctor.setAppointmentSlots(new String[]{"09:00-10:00", "18:00-19:00"});
+        doctorService.updateDoctor(doctor);
+        assertNull(appointmentService.tryBookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00"),
+                   "the existing booking must carry over to the new calendar");
+        assertNotNull(appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "18:00-19:00"));
+        assertThrows(InvalidPatientException.class, () ->
+            appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "10:00-11:00"));
+        assertTrue(appointmentService.isFullyBooked(doctor.getDoctorId(), date));
+        
+        doctorService.deleteDoctor(doctor.getDoctorId());
+        assertFalse(appointmentRepository.hasDoctorSlots(doctor.getDoctorId()));
+    }
+    
+    @Test
+    @DisplayName("Test updates cannot move a booking or complete a cancelled one")
+    public void testUpdatesKeepSlotCalendarInStep() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        Appointment booked = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        Appointment moved = new Appointment(booked);
+        moved.setTimeSlot("10:00-11:00");
+        assertThrows(IllegalArgumentException.class, () -> appointmentService.updateAppointment(moved, booked.getVersion()));
+        assertThrows(IllegalArgumentException.class, () -> appointmentService.updateAppointment(moved));
+        Appointment cancelled = new Appointment(booked);
+        cancelled.setStatus("CANCELLED");
+        assertThrows(IllegalArgumentException.class, () -> appointmentService.updateAppointment(cancelled));
+        
+        assertEquals("09:00-10:00", appointmentService.getAppointment(booked.getAppointmentId()).getTimeSlot());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "09:00-10:00"));
+        assertTrue(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "10:00-11:00"));
+        
+        Appointment noted = new Appointment(booked);
+        noted.setSymptoms("Headache");
+        appointmentService.updateAppointment(noted);
+        assertEquals("Headache", appointmentService.getAppointment(booked.getAppointmentId()).getSymptoms());
+        
+        appointmentService.cancelAppointment(booked.getAppointmentId());
+        long version = appointmentService.getAppointment(booked.getAppointmentId()).getVersion();
+        assertThrows(IllegalStateException.class, () ->
+            appointmentService.completeAppointment(booked.getAppointmentId(), "Migraine", "Rest"));
+        assertThrows(IllegalStateException.class, () ->
+            appointmentService.completeAppointment(booked.getAppointmentId(), "Migraine", "Rest", version));
+        assertEquals("CANCELLED", appointmentService.getAppointment(booked.getAppointmentId()).getStatus());
+    }
+    
     @Test
     @DisplayName("Test complete appointment")
     public void testCompleteAppointment() throws InvalidPatientException {
@@ -166,4 +580,310 @@ public class AppointmentServiceTest {
         assertEquals("Mild fever", completed.getDiagnosis());
         assertEquals("Paracetamol 500mg", completed.getPrescription());
     }
+    
+    @Test
+    @DisplayName("Test status index follows in-place status updates")
+    public void testStatusIndexTracksUpdates() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        Appointment first = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "09:00-10:00");
+        Appointment second = appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, "10:00-11:00");
+        
+        assertEquals(2, appointmentService.getAppointmentsByStatus("SCHEDULED").size());
+        
+        appointmentService.cancelAppointment(first.getAppointmentId());
+        appointmentService.completeAppointment(second.getAppointmentId(), "Checkup", "None");
+        
+        assertTrue(appointmentService.getAppointmentsByStatus("SCHEDULED").isEmpty());
+        assertEquals(1, appointmentService.getAppointmentsByStatus("cancelled").size());
+        assertEquals(second.getAppointmentId(), appointmentService.getAppointmentsByStatus("COMPLETED").get(0).getAppointmentId());
+        assertEquals(2, appointmentService.getAppointmentsByDate(date).size());
+        assertEquals(2, appointmentService.getAppointmentsByDoctor(doctor.getDoctorId()).size());
+        
+        appointmentRepository.deleteAppointment(first.getAppointmentId());
+        assertTrue(appointmentService.getAppointmentsByStatus("CANCELLED").isEmpty());
+        assertEquals(1, appointmentService.getAppointmentsByPatient(patient.getPatientId()).size());
+    }
+    
+    @Test
+    @DisplayName("Test whole-day availability and pruning of past days")
+    public void testFullyBookedDayAndPruning() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        assertFalse(appointmentService.isFullyBooked(doctor.getDoctorId(), date));
+        
+        for (String slot : doctor.getAppointmentSlots()) {
+            appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, slot);
+        }
+        
+        assertTrue(appointmentService.isFullyBooked(doctor.getDoctorId(), date));
+        assertFalse(appointmentService.isFullyBooked(doctor.getDoctorId(), date.plusDays(1)));
+        
+        appointmentRepository.pruneSlotsBefore(date.plusDays(1));
+        assertTrue(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "09:00-10:00"));
+    }
+    
+    @Test
+    @DisplayName("Test earliest available slot search skips booked slots and days")
+    public void testFindEarliestAvailableSlots() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor busy = doctorService.registerDoctor("Dr. Busy", "Cardiology", "Cardiology", "9876543210", "busy@hospital.com", 10, 200.0);
+        Doctor free = doctorService.registerDoctor("Dr. Free", "Cardiology", "Cardiology", "9876543211", "free@hospital.com", 10, 200.0);
+        doctorService.registerDoctor("Dr. Bones", "Orthopedics", "Orthopedics", "9876543212", "bones@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        for (String slot : busy.getAppointmentSlots()) {
+            appointmentService.bookAppointment(patient.getPatientId(), busy.getDoctorId(), date, slot);
+        }
+        appointmentService.bookAppointment(patient.getPatientId(), free.getDoctorId(), date, "09:00-10:00");
+        
+        List<AvailableSlot> slots = appointmentService.findEarliestAvailableBySpecialization("Cardiology", date, 7);
+        
+        assertEquals(7, slots.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(free.getDoctorId(), slots.get(i).getDoctorId());
+            assertEquals(date, slots.get(i).getDate());
+        }
+        assertEquals("10:00-11:00", slots.get(0).getTimeSlot());
+        for (int i = 5; i < 7; i++) {
+            assertEquals(date.plusDays(1), slots.get(i).getDate());
+            assertEquals("09:00-10:00", slots.get(i).getTimeSlot());
+        }
+        // doctor ids are random, so equal slots come back in id order, not registration order
+        assertTrue(slots.get(5).getDoctorId().compareTo(slots.get(6).getDoctorId()) < 0);
+    }
+    
+    @Test
+    @DisplayName("Test a slot the doctor does not offer is rejected and never searched")
+    public void testUnofferedSlotIsRejected() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        assertThrows(InvalidPatientException.class, () -> appointmentService.bookAppointment(
+            patient.getPatientId(), doctor.getDoctorId(), date, "03:00-04:00"));
+        assertEquals(0, appointmentService.getTotalAppointments());
+        assertFalse(appointmentService.isSlotAvailable(doctor.getDoctorId(), date, "03:00-04:00"));
+        
+        String[] offered = doctor.getAppointmentSlots();
+        for (String slot : offered) {
+            appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, slot);
+        }
+        assertTrue(appointmentService.isFullyBooked(doctor.getDoctorId(), date));
+        
+        List<AvailableSlot> slots = appointmentService.findEarliestAvailableBySpecialization("Cardiology", date, offered.length);
+        assertEquals(offered.length, slots.size());
+        for (AvailableSlot slot : slots) {
+            assertEquals(date.plusDays(1), slot.getDate());
+            assertTrue(Arrays.asList(offered).contains(slot.getTimeSlot()));
+        }
+    }
+    
+    @Test
+    @DisplayName("Test earliest slot search over hundreds of doctors and a 90-day horizon")
+    public void testFindEarliestAvailableSlotsAtScale() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        LocalDate date = LocalDate.now().plusDays(1);
+        List<Doctor> cardiologists = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            cardiologists.add(doctorService.registerDoctor("Dr. " + i, "Cardiology", "Cardiology", "555-" + i, i + "@hospital.com", 10, 200.0));
+        }
+        for (Doctor doctor : cardiologists) {
+            for (int d = 0; d < 60; d++) {
+                for (String slot : doctor.getAppointmentSlots()) {
+                    appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date.plusDays(d), slot);
+                }
+            }
+        }
+        
+        List<AvailableSlot> slots = appointmentService.findEarliestAvailableBySpecialization("Cardiology", date, 10);
+        assertEquals(10, slots.size());
+        for (AvailableSlot slot : slots) {
+            assertEquals(date.plusDays(60), slot.getDate());
+            assertEquals("09:00-10:00", slot.getTimeSlot());
+        }
+    }
+    
+    @Test
+    @DisplayName("Test batch booking is all-or-nothing")
+    public void testBatchBookingAllOrNothing() throws InvalidPatientException {
+        for (AppointmentService.LockingMode mode : AppointmentService.LockingMode.values()) {
+            setUp();
+            appointmentService = new AppointmentService(appointmentRepository, patientRepository, doctorRepository, mode);
+            assertBatchBookingAllOrNothing();
+        }
+    }
+    
+    private void assertBatchBookingAllOrNothing() throws InvalidPatientException {
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Doctor cardiologist = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        Doctor neurologist = doctorService.registerDoctor("Dr. Jones", "Neurology", "Neurology", "9876543211", "jones@hospital.com", 8, 250.0);
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        appointmentService.bookAppointment(patient.getPatientId(), neurologist.getDoctorId(), date, "14:00-15:00");
+        
+        List<BookingRequest> conflicting = List.of(
+            new BookingRequest(patient.getPatientId(), cardiologist.getDoctorId(), date, "09:00-10:00"),
+            new BookingRequest(patient.getPatientId(), neurologist.getDoctorId(), date, "14:00-15:00")
+        );
+        assertThrows(InvalidPatientException.class, () -> appointmentService.bookAppointments(conflicting));
+        assertTrue(appointmentService.isSlotAvailable(cardiologist.getDoctorId(), date, "09:00-10:00"));
+        assertEquals(1, appointmentService.getTotalAppointments());
+        
+        List<BookingRequest> carePlan = List.of(
+            new BookingRequest(patient.getPatientId(), cardiologist.getDoctorId(), date, "09:00-10:00"),
+            new BookingRequest(patient.getPatientId(), neurologist.getDoctorId(), date, "15:00-16:00"),
+            new BookingRequest(patient.getPatientId(), cardiologist.getDoctorId(), date.plusDays(7), "09:00-10:00")
+        );
+        List<Appointment> booked = appointmentService.bookAppointments(carePlan);
+        
+        assertEquals(3, booked.size());
+        assertEquals(4, appointmentService.getAppointmentsByPatient(patient.getPatientId()).size());
+        assertFalse(appointmentService.isSlotAvailable(cardiologist.getDoctorId(), date.plusDays(7), "09:00-10:00"));
+    }
+    
+    @Test
+    @DisplayName("Test every locking mode keeps same-slot races exclusive")
+    public void testLockingModesPreventDoubleBooking() throws Exception {
+        for (AppointmentService.LockingMode mode : AppointmentService.LockingMode.values()) {
+            setUp();
+            appointmentService = new AppointmentService(appointmentRepository, patientRepository, doctorRepository, mode);
+            assertSameSlotRaceIsExclusive();
+        }
+    }
+    
+    private void assertSameSlotRaceIsExclusive() throws Exception {
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            patients.add(patientService.registerPatient("Patient " + i, 30, "Male", "O+", "555-" + i, "Addr " + i));
+        }
+        
+        LocalDate date = LocalDate.now().plusDays(1);
+        String[] slots = doctor.getAppointmentSlots();
+        ExecutorService executor = Executors.newFixedThreadPool(patients.size());
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger booked = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        
+        for (Patient patient : patients) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (String slot : slots) {
+                    try {
+                        appointmentService.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date, slot);
+                        booked.incrementAndGet();
+                    } catch (InvalidPatientException e) {
+                        // slot taken by another thread
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        
+        assertEquals(slots.length, booked.get(), appointmentService.getLockingMode() + ": each slot should be booked exactly once");
+        assertEquals(slots.length, appointmentService.getAppointmentsByDoctor(doctor.getDoctorId()).size());
+    }
+    
+    @Test
+    @DisplayName("Test streaming export of patients, doctors and appointments")
+    public void testStreamingExport() throws Exception {
+        HospitalController controller = new HospitalController(patientService, doctorService, appointmentService);
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            patientRepository.addPatient(new Patient("PAT-" + i, "Patient " + i, i % 90, "Female", "A+", "555-" + i, "Street " + i));
+        }
+        LocalDate date = LocalDate.now().plusDays(1);
+        appointmentService.bookAppointment("PAT-1", doctor.getDoctorId(), date, "09:00-10:00");
+        appointmentService.bookAppointment("PAT-2", doctor.getDoctorId(), date, "10:00-11:00");
+        
+        // counts writes, to see the export arrive in pieces rather than as one document
+        AtomicInteger writes = new AtomicInteger();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writes.incrementAndGet();
+                super.write(b, off, len);
+            }
+        };
+        assertNull(controller.exportData(Map.of(), () -> out));
+        JsonNode export = new ObjectMapper().readTree(out.toByteArray());
+        assertTrue(export.get("success").asBoolean());
+        JsonNode data = export.get("data");
+        assertEquals(List.of("patients", "doctors", "appointments"), fieldNames(data));
+        assertEquals(count, data.get("patients").size());
+        assertEquals(1, data.get("doctors").size());
+        assertEquals(2, data.get("appointments").size());
+        assertEquals("Patient 7", findById(data.get("patients"), "patientId", "PAT-7").get("name").asText());
+        assertTrue(writes.get() > 100, "writes: " + writes.get());
+        
+        ByteArrayOutputStream doctorsOnly = new ByteArrayOutputStream();
+        assertNull(controller.exportData(Map.of("type", "doctors"), () -> doctorsOnly));
+        assertEquals(List.of("doctors"), fieldNames(new ObjectMapper().readTree(doctorsOnly.toByteArray()).get("data")));
+        
+        String error = controller.exportData(Map.of("type", "patients,nurses"), () -> {
+            throw new AssertionError("an invalid export must not open the response");
+        });
+        assertTrue(error.contains("Unknown export type: nurses"), error);
+    }
+    
+    @Test
+    @DisplayName("Test paged endpoints reject malformed paging parameters and clamp limits")
+    public void testPagedEndpointsRejectMalformedParameters() throws Exception {
+        HospitalController controller = new HospitalController(patientService, doctorService, appointmentService);
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        String patientId = patient.getPatientId();
+        
+        assertError("Invalid cursor: abc", controller.handleRequest("GET", "/patients/history",
+                                                                    Map.of("patientId", patientId, "cursor", "abc")));
+        assertError("Invalid cursor: -5", controller.handleRequest("GET", "/patients/history",
+                                                                   Map.of("patientId", patientId, "cursor", "-5")));
+        assertError("Invalid date: 2024-13-01", controller.handleRequest("GET", "/patients/history",
+                                                                         Map.of("patientId", patientId, "from", "2024-13-01")));
+        
+        Doctor doctor = doctorService.registerDoctor("Dr. Smith", "Cardiology", "Cardiology", "9876543210", "smith@hospital.com", 10, 200.0);
+        appointmentService.bookAppointment(patientId, doctor.getDoctorId(), LocalDate.now().plusDays(1), "09:00-10:00");
+        assertError("Invalid cursor: not*base64",
+                    controller.handleRequest("GET", "/appointments", Map.of("cursor", "not*base64")));
+        JsonNode page = new ObjectMapper().readTree(controller.handleRequest("GET", "/appointments", Map.of("limit", "0")));
+        assertEquals(1, page.get("data").get("appointments").size());
+        
+        JsonNode unbounded = new ObjectMapper().readTree(controller.handleRequest(
+            "GET", "/appointments/available", Map.of("specialization", "Cardiology", "limit", "1000000")));
+        assertEquals(100, unbounded.get("data").size());
+        JsonNode empty = new ObjectMapper().readTree(controller.handleRequest(
+            "GET", "/appointments/available", Map.of("specialization", "Cardiology", "limit", "-1")));
+        assertEquals(1, empty.get("data").size());
+    }
+    
+    private static void assertError(String expected, String response) throws Exception {
+        JsonNode json = new ObjectMapper().readTree(response);
+        assertFalse(json.get("success").asBoolean(), response);
+        assertTrue(json.get("error").asText().startsWith(expected), response);
+    }
+    
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+    
+    private static JsonNode findById(JsonNode records, String field, String id) {
+        for (JsonNode record : records) {
+            if (id.equals(record.get(field).asText())) {
+                return record;
+            }
+        }
+        return null;
+    }
 }
@@ -0,0 +1,146 @@
+package com.hospital;
+
+import com.hospital.models.Appointment;
+import com.hospital.models.Doctor;
+import com.hospital.models.Patient;
+import com.hospital.utils.BinaryCodec;
+import com.hospital.utils.ByteBufferPool;
+import org.junit.jupiter.api.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryCodecTest {
+    private ByteBufferPool pool;
+    
+    @BeforeEach
+    public void setUp() {
+        pool = new ByteBufferPool(64, 4);
+    }
+    
+    @Test
+    @DisplayName("Test patient, doctor and appointment round-trip")
+    public void testRoundTrip() throws IOException {
+        Patient patient = new Patient("PAT-1", "José Núñez", 42, "Male", "AB-", "555-0101", "1 Main St");
+        patient.setCritical(true);
+        patient.setConsultationFee(125.5);
+        patient.setRegistrationDate(LocalDate.of(2024, 3, 1));
+        for (int i = 0; i < 20; i++) {
+            patient.addMedicalHistory("Visit " + i + ": follow-up");
+        }
+        // 64-byte pooled buffers are too small, so this also exercises growing
+        ByteBuffer encoded = pool.fill(out -> BinaryCodec.writePatient(out, patient));
+        Patient decoded = BinaryCodec.readPatient(encoded);
+        assertEquals(patient.getName(), decoded.getName());
+        assertEquals(42, decoded.getAge());
+        assertEquals("AB-", decoded.getBloodGroup());
+        assertTrue(decoded.isCritical());
+        assertEquals(125.5, decoded.getConsultationFee());
+        assertEquals(LocalDate.of(2024, 3, 1), decoded.getRegistrationDate());
+        assertEquals(patient.getMedicalHistory(), decoded.getMedicalHistory());
+        assertFalse(encoded.hasRemaining());
+        
+        patient.setRegistrationDate(null);
+        assertNull(BinaryCodec.readPatient(pool.fill(out -> BinaryCodec.writePatient(out, patient))).getRegistrationDate());
+        
+        Doctor doctor = new Doctor("DOC-1", "Dr. Smith", "Cardiology", "Cardiology", "555-0201", "smith@hospital.com", 12, 250.0);
+        doctor.addQualification("MD");
+        doctor.setAppointmentSlots(new String[]{"08:00-09:00"});
+        Doctor decodedDoctor = BinaryCodec.readDoctor(pool.fill(out -> BinaryCodec.writeDoctor(out, doctor)));
+        assertEquals("DOC-1", decodedDoctor.getDoctorId());
+        assertEquals("DOC-1", decodedDoctor.getStaffId());
+        assertEquals("smith@hospital.com", decodedDoctor.getEmail());
+        assertEquals(12, decodedDoctor.getExperienceYears());
+        assertArrayEquals(new String[]{"08:00-09:00"}, decodedDoctor.getAppointmentSlots());
+        assertEquals(Arrays.asList("MD"), decodedDoctor.getQualifications());
+        
+        Appointment appointment = new Appointment("APT-1", "PAT-1", "DOC-1", LocalDate.of(2024, 3, 2), "09:00-10:00");
+        appointment.setSymptoms("Chest pain");
+        appointment.setVersion(7);
+        Appointment decodedAppointment = BinaryCodec.readAppointment(
+            pool.fill(out -> BinaryCodec.writeAppointment(out, appointment)));
+        assertEquals(LocalDate.of(2024, 3, 2), decodedAppointment.getAppointmentDate());
+        assertEquals("Chest pain", decodedAppointment.getSymptoms());
+        assertNull(decodedAppointment.getDiagnosis());
+        assertEquals(appointment.getCreatedAt(), decodedAppointment.getCreatedAt());
+        assertEquals(7, decodedAppointment.getVersion());
+        
+        appointment.setStatus(null);
+        appointment.setCreatedAt(null);
+        Appointment blankAppointment = BinaryCodec.readAppointment(
+            pool.fill(out -> BinaryCodec.writeAppointment(out, appointment)));
+        assertNull(blankAppointment.getStatus());
+        assertNull(blankAppointment.getCreatedAt());
+        assertEquals("Chest pain", blankAppointment.getSymptoms());
+    }
+    
+    @Test
+    @DisplayName("Test readers skip unknown fields and reject newer schemas")
+    public void testSchemaEvolution() throws IOException {
+        Patient patient = new Patient("PAT-2", "Jane Smith", 28, "Female", "A+", "555-0102", "2 Oak Ave");
+        ByteBuffer encoded = pool.fill(out -> BinaryCodec.writePatient(out, patient));
+        byte[] current = Arrays.copyOf(encoded.array(), encoded.limit());
+        
+        // what a future writer might add: a string field 40 and a varint field 41
+        ByteArrayOutputStream future = new ByteArrayOutputStream();
+        future.write(current, 0, current.length - 1);
+        writeVarint(future, 40 << 3 | 2);
+        writeVarint(future, 3);
+        future.write('n');
+        future.write('e');
+        future.write('w');
+        writeVarint(future, 41 << 3);
+        writeVarint(future, 300);
+        future.write(0);
+        Patient decoded = BinaryCodec.readPatient(ByteBuffer.wrap(future.toByteArray()));
+        assertEquals("Jane Smith", decoded.getName());
+        assertEquals("2 Oak Ave", decoded.getAddress());
+        
+        current[1] = (byte) (BinaryCodec.SCHEMA_VERSION + 1);
+        assertThrows(IOException.class, () -> BinaryCodec.readPatient(ByteBuffer.wrap(current)));
+        assertThrows(IOException.class, () -> BinaryCodec.readDoctor(ByteBuffer.wrap(future.toByteArray())));
+    }
+    
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    
+    @Test
+    @DisplayName("Test patient change records carry only what changed")
+    public void testPatientChanges() throws IOException {
+        Patient stored = new Patient("PAT-1", "Ana Ruiz", 35, "Female", "O+", "555-0101", "1 Main St");
+        for (int i = 0; i < 200; i++) {
+            stored.addMedicalHistory("Visit " + i + ": follow-up");
+        }
+        stored.markClean();
+        ByteBuffer full = pool.fill(out -> BinaryCodec.writePatient(out, stored));
+        
+        Patient edited = new Patient(stored);
+        edited.setCritical(true);
+        edited.setAddress(null);
+        edited.addMedicalHistory("Admitted to ICU");
+        ByteBuffer changes = pool.fill(out -> BinaryCodec.writePatientChanges(out, edited));
+        assertTrue(changes.remaining() < full.remaining() / 50);
+        
+        Patient applied = BinaryCodec.readPatient(full);
+        BinaryCodec.applyPatientChanges(changes, applied);
+        assertTrue(applied.isCritical());
+        assertNull(applied.getAddress());
+        assertEquals("555-0101", applied.getContactNumber());
+        assertEquals(edited.getMedicalHistory(), applied.getMedicalHistory());
+        assertFalse(applied.hasChanges());
+        
+        // replacing the history sends all of it, cleared first
+        edited.markClean();
+        edited.setMedicalHistory(Arrays.asList("Records merged"));
+        BinaryCodec.applyPatientChanges(pool.fill(out -> BinaryCodec.writePatientChanges(out, edited)), applied);
+        assertEquals(Arrays.asList("Records merged"), applied.getMedicalHistory());
+    }
+}
@@ -0,0 +1,116 @@
+package com.hospital;
+
+import com.hospital.models.Doctor;
+import com.hospital.models.Patient;
+import com.hospital.repositories.AppointmentRepository;
+import com.hospital.repositories.DoctorRepository;
+import com.hospital.repositories.PatientRepository;
+import com.hospital.services.AppointmentService;
+import com.hospital.services.DoctorService;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures booking throughput per locking mode, one thread against one thread per core
+ * with each thread booking its own doctor, and the earliest-slot search over a large,
+ * mostly booked roster.
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.hospital.BookingBenchmark
+ * -Dexec.classpathScope=test
+ */
+public class BookingBenchmark {
+    private static final int DAYS_PER_THREAD = 200;
+    private static final int SEARCH_DOCTORS = 300;
+    private static final int SEARCH_BOOKED_DAYS = 60;
+    private static final int SEARCH_RUNS = 50;
+    
+    public static void main(String[] args) throws Exception {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        // warm-up
+        measureBookingThroughput(AppointmentService.LockingMode.PER_DOCTOR_DAY, threads);
+        
+        for (AppointmentService.LockingMode mode : AppointmentService.LockingMode.values()) {
+            double single = measureBookingThroughput(mode, 1);
+            double parallel = measureBookingThroughput(mode, threads);
+            System.out.printf("%s booking: 1 thread %.0f ops/s, %d threads %.0f ops/s (x%.2f)%n",
+                              mode, single, threads, parallel, parallel / single);
+        }
+        measureEarliestSlotSearch();
+    }
+    
+    private static double measureBookingThroughput(AppointmentService.LockingMode mode, int threads) throws Exception {
+        PatientRepository patients = new PatientRepository();
+        DoctorRepository doctors = new DoctorRepository();
+        AppointmentService service = new AppointmentService(new AppointmentRepository(), patients, doctors, mode);
+        DoctorService doctorService = new DoctorService(doctors);
+        
+        Patient patient = new Patient("PAT-BENCH", "Bench Patient", 40, "Male", "O+", "555-0000", "Bench St");
+        patients.addPatient(patient);
+        List<Doctor> threadDoctors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            threadDoctors.add(doctorService.registerDoctor("Dr. " + t, "General", "General", "555-1" + t,
+                                                           "d" + t + "@hospital.com", 5, 100.0));
+        }
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Integer>> futures = new ArrayList<>();
+        LocalDate firstDay = LocalDate.now().plusDays(1);
+        for (Doctor doctor : threadDoctors) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                int count = 0;
+                for (int d = 0; d < DAYS_PER_THREAD; d++) {
+                    for (String slot : doctor.getAppointmentSlots()) {
+                        service.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), firstDay.plusDays(d), slot);
+                        count++;
+                    }
+                }
+                return count;
+            }));
+        }
+        
+        long begin = System.nanoTime();
+        start.countDown();
+        int total = 0;
+        for (Future<Integer> future : futures) {
+            total += future.get(60, TimeUnit.SECONDS);
+        }
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return total / (elapsed / 1_000_000_000.0);
+    }
+    
+    private static void measureEarliestSlotSearch() throws Exception {
+        PatientRepository patients = new PatientRepository();
+        DoctorRepository doctors = new DoctorRepository();
+        AppointmentService service = new AppointmentService(new AppointmentRepository(), patients, doctors);
+        DoctorService doctorService = new DoctorService(doctors);
+        
+        Patient patient = new Patient("PAT-BENCH", "Bench Patient", 40, "Male", "O+", "555-0000", "Bench St");
+        patients.addPatient(patient);
+        LocalDate date = LocalDate.now().plusDays(1);
+        for (int i = 0; i < SEARCH_DOCTORS; i++) {
+            Doctor doctor = doctorService.registerDoctor("Dr. " + i, "Cardiology", "Cardiology", "555-" + i,
+                                                         i + "@hospital.com", 10, 200.0);
+            for (int d = 0; d < SEARCH_BOOKED_DAYS; d++) {
+                for (String slot : doctor.getAppointmentSlots()) {
+                    service.bookAppointment(patient.getPatientId(), doctor.getDoctorId(), date.plusDays(d), slot);
+                }
+            }
+        }
+        
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < SEARCH_RUNS; run++) {
+            long start = System.nanoTime();
+            service.findEarliestAvailableBySpecialization("Cardiology", date, 10);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("Earliest-slot search over %d doctors: %.3f ms%n", SEARCH_DOCTORS, best / 1_000_000.0);
+    }
+}
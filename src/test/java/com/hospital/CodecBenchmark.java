@@ -0,0 +1,109 @@
+package com.hospital;
+
+import com.hospital.models.Appointment;
+import com.hospital.models.Doctor;
+import com.hospital.models.Patient;
+import com.hospital.utils.BinaryCodec;
+import com.hospital.utils.ByteBufferPool;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+
+/**
+ * Compares BinaryCodec with Java serialization on record size and encode/decode time.
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.hospital.CodecBenchmark
+ * -Dexec.classpathScope=test
+ */
+public class CodecBenchmark {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+    // keeps the JIT from discarding results it can prove are unused
+    private static volatile long sink;
+    
+    interface Codec {
+        byte[] encode(Object value) throws Exception;
+        Object decode(byte[] bytes) throws Exception;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Patient patient = new Patient("PAT-0A8TZKAEG0000", "John Smith", 45, "Male", "O+", "555-0101", "123 Main St");
+        for (int i = 0; i < 10; i++) {
+            patient.addMedicalHistory("2024-01-" + (10 + i) + " Follow-up: blood pressure stable");
+        }
+        Doctor doctor = new Doctor("DOC-0A8TZKAEG0000", "Dr. Emily Davis", "Cardiology", "Cardiology",
+                                   "555-0201", "emily.davis@hospital.com", 15, 250.0);
+        doctor.addQualification("MD");
+        Appointment appointment = new Appointment("APT-0A8TZKAEG0000", patient.getPatientId(),
+                                                  doctor.getDoctorId(), LocalDate.now(), "09:00-10:00");
+        appointment.setSymptoms("Chest pain");
+        
+        ByteBufferPool pool = new ByteBufferPool(16 * 1024, 4);
+        Codec java = new Codec() {
+            public byte[] encode(Object value) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeObject(value);
+                }
+                return bytes.toByteArray();
+            }
+            
+            public Object decode(byte[] bytes) throws Exception {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                    return in.readObject();
+                }
+            }
+        };
+        
+        System.out.printf("%-12s %-8s %8s %12s %12s%n", "model", "codec", "bytes", "encode ns", "decode ns");
+        run("Patient", "java", patient, java);
+        run("Patient", "binary", patient, binary(pool, v -> b -> BinaryCodec.writePatient(b, (Patient) v),
+                                                 BinaryCodec::readPatient));
+        run("Doctor", "java", doctor, java);
+        run("Doctor", "binary", doctor, binary(pool, v -> b -> BinaryCodec.writeDoctor(b, (Doctor) v),
+                                               BinaryCodec::readDoctor));
+        run("Appointment", "java", appointment, java);
+        run("Appointment", "binary", appointment, binary(pool, v -> b -> BinaryCodec.writeAppointment(b, (Appointment) v),
+                                                         BinaryCodec::readAppointment));
+    }
+    
+    interface Reader {
+        Object read(ByteBuffer in) throws IOException;
+    }
+    
+    private static Codec binary(ByteBufferPool pool,
+                                java.util.function.Function<Object, java.util.function.Consumer<ByteBuffer>> writer,
+                                Reader reader) {
+        return new Codec() {
+            public byte[] encode(Object value) {
+                ByteBuffer buffer = pool.fill(writer.apply(value));
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                pool.release(buffer);
+                return bytes;
+            }
+            
+            public Object decode(byte[] bytes) throws IOException {
+                return reader.read(ByteBuffer.wrap(bytes));
+            }
+        };
+    }
+    
+    private static void run(String model, String name, Object value, Codec codec) throws Exception {
+        byte[] encoded = codec.encode(value);
+        for (int i = 0; i < WARMUP; i++) {
+            sink += codec.encode(value).length;
+            sink += codec.decode(encoded).hashCode();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.encode(value).length;
+        }
+        long encodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += codec.decode(encoded).hashCode();
+        }
+        long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+        System.out.printf("%-12s %-8s %8d %12d %12d%n", model, name, encoded.length, encodeNanos, decodeNanos);
+    }
+}
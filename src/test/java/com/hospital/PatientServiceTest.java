@@ -1,12 +1,43 @@
 package com.hospital;
 
+import com.hospital.models.HistoryPage;
+import com.hospital.models.ImportError;
+import com.hospital.models.ImportResult;
 import com.hospital.models.Patient;
 import com.hospital.services.PatientService;
 import com.hospital.repositories.PatientRepository;
 import com.hospital.exceptions.InvalidPatientException;
+import com.hospital.utils.IdGenerator;
+import com.hospital.utils.MedicalHistoryLog;
+import com.hospital.utils.PatientStore;
+import com.hospital.utils.ScalableBloomFilter;
+import com.hospital.utils.SegmentedPatientStore;
+import com.hospital.utils.TimeOrderedIdGenerator;
+import com.hospital.utils.WriteBehindPatientStore;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class PatientServiceTest {
@@ -64,4 +95,793 @@ public class PatientServiceTest {
             patientService.getPatient("INVALID_ID");
         });
     }
+    
+    @Test
+    @DisplayName("Test generated ids are unique and ordered by creation")
+    public void testIdGeneratorUniqueAndOrdered() throws Exception {
+        IdGenerator generator = new TimeOrderedIdGenerator(7);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                long previous = -1;
+                for (int i = 0; i < 50000; i++) {
+                    long id = generator.nextLong();
+                    assertTrue(id > previous);
+                    previous = id;
+                    ids.add(id);
+                }
+            }));
+        }
+        // get rethrows a worker's failed assertion here
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(200000, ids.size());
+        
+        long first = generator.nextLong();
+        long second = generator.nextLong();
+        assertTrue(IdGenerator.encode(first).compareTo(IdGenerator.encode(second)) < 0);
+        assertEquals(second, IdGenerator.decode("PAT-" + IdGenerator.encode(second)));
+        assertEquals(-1, IdGenerator.decode("P001"));
+        
+        // an id persisted an hour "ahead", as if the clock has since been stepped back
+        long persisted = ((first >>> 22) + 3_600_000L) << 22 | (7L << 12) | 5;
+        generator.advancePast(persisted);
+        assertTrue(generator.nextLong() > persisted);
+        
+        Patient older = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Patient newer = patientService.registerPatient("Jane Smith", 28, "Female", "A+", "0987654321", "456 Oak Ave");
+        assertTrue(older.getPatientId().startsWith("PAT-"));
+        assertTrue(older.getPatientId().compareTo(newer.getPatientId()) < 0);
+    }
+    
+    @Test
+    @DisplayName("Test write-behind persistence coalesces updates and flushes on demand")
+    public void testWriteBehindPatientStore() throws Exception {
+        CountDownLatch diskReady = new CountDownLatch(1);
+        Map<String, Patient> disk = new ConcurrentHashMap<>();
+        AtomicInteger writes = new AtomicInteger();
+        PatientStore slowDisk = new PatientStore() {
+            @Override
+            public void save(Patient patient) throws java.io.IOException {
+                try {
+                    diskReady.await();
+                } catch (InterruptedException e) {
+                    throw new java.io.InterruptedIOException();
+                }
+                writes.incrementAndGet();
+                disk.put(patient.getPatientId(), patient);
+            }
+            
+            @Override
+            public Patient load(String patientId) {
+                return disk.get(patientId);
+            }
+            
+            @Override
+            public void delete(String patientId) {
+                disk.remove(patientId);
+            }
+            
+            @Override
+            public List<Patient> loadAll(ForkJoinPool pool) {
+                return new ArrayList<>(disk.values());
+            }
+        };
+        WriteBehindPatientStore store = new WriteBehindPatientStore(slowDisk, 100);
+        patientService.setPatientStore(store);
+        
+        // the first write parks the worker on the "disk"; registrations must not wait for it
+        Patient first = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        Patient second = patientService.registerPatient("Jane Smith", 28, "Female", "A+", "0987654321", "456 Oak Ave");
+        for (int age = 29; age <= 40; age++) {
+            second.setAge(age);
+            patientService.updatePatient(second);
+        }
+        assertTrue(store.getCoalescedCount() >= 11);
+        assertEquals(40, store.load(second.getPatientId()).getAge());
+        Thread.sleep(20);
+        assertTrue(store.getDurabilityLagMillis() >= 20);
+        
+        diskReady.countDown();
+        store.flush();
+        assertEquals(0, store.getPendingCount());
+        assertEquals(0, store.getDurabilityLagMillis());
+        assertEquals(40, disk.get(second.getPatientId()).getAge());
+        assertTrue(disk.containsKey(first.getPatientId()));
+        assertTrue(writes.get() <= 3);
+        
+        patientService.deletePatient(first.getPatientId());
+        store.close();
+        assertFalse(disk.containsKey(first.getPatientId()));
+    }
+    
+    @Test
+    @DisplayName("Test write-behind keeps failed writes queued until the store accepts them")
+    public void testWriteBehindRetriesFailedWrites() throws Exception {
+        AtomicBoolean diskFull = new AtomicBoolean(true);
+        Map<String, Patient> disk = new ConcurrentHashMap<>();
+        PatientStore failingDisk = new PatientStore() {
+            @Override
+            public void save(Patient patient) throws java.io.IOException {
+                if (diskFull.get()) {
+                    throw new java.io.IOException("No space left on device");
+                }
+                disk.put(patient.getPatientId(), new Patient(patient));
+            }
+            
+            @Override
+            public Patient load(String patientId) {
+                return disk.get(patientId);
+            }
+            
+            @Override
+            public void delete(String patientId) {
+                disk.remove(patientId);
+            }
+            
+            @Override
+            public List<Patient> loadAll(ForkJoinPool pool) {
+                return new ArrayList<>(disk.values());
+            }
+        };
+        WriteBehindPatientStore store = new WriteBehindPatientStore(failingDisk, 100);
+        patientService.setPatientStore(store);
+        
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        assertThrows(java.io.IOException.class, store::flush);
+        assertTrue(store.getFailedCount() > 0);
+        assertEquals(1, store.getPendingCount(), "a failed write must stay queued");
+        assertEquals(30, store.load(patient.getPatientId()).getAge());
+        
+        patient.setAge(31);
+        patientService.updatePatient(patient);
+        diskFull.set(false);
+        store.flush();
+        
+        assertEquals(0, store.getPendingCount());
+        assertEquals(31, disk.get(patient.getPatientId()).getAge());
+        store.close();
+    }
+    
+    @Test
+    @DisplayName("Test a failed delta is retried as a full record and no concurrent change is lost")
+    public void testFailedDeltaIsRetriedInFull() throws Exception {
+        AtomicBoolean failNextDelta = new AtomicBoolean();
+        List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        Map<String, Patient> disk = new ConcurrentHashMap<>();
+        PatientStore deltaDisk = new PatientStore() {
+            @Override
+            public void save(Patient patient) {
+                calls.add("save");
+                disk.put(patient.getPatientId(), new Patient(patient));
+            }
+            
+            @Override
+            public void saveChanges(Patient patient) throws java.io.IOException {
+                calls.add("saveChanges");
+                if (failNextDelta.getAndSet(false)) {
+                    throw new java.io.IOException("Disk error");
+                }
+                disk.put(patient.getPatientId(), new Patient(patient));
+            }
+            
+            @Override
+            public Patient load(String patientId) {
+                return disk.get(patientId);
+            }
+            
+            @Override
+            public void delete(String patientId) {
+                disk.remove(patientId);
+            }
+            
+            @Override
+            public List<Patient> loadAll(ForkJoinPool pool) {
+                return new ArrayList<>(disk.values());
+            }
+        };
+        WriteBehindPatientStore store = new WriteBehindPatientStore(deltaDisk, 100);
+        patientService.setPatientStore(store);
+        
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        store.flush();
+        calls.clear();
+        
+        failNextDelta.set(true);
+        patient.setAge(31);
+        patientService.updatePatient(patient);
+        try {
+            store.flush();
+        } catch (java.io.IOException e) {
+            // the delta failed while we waited; the retry is already queued
+            store.flush();
+        }
+        assertEquals(List.of("saveChanges", "save"), calls.subList(0, 2));
+        assertEquals(31, disk.get(patient.getPatientId()).getAge());
+        store.close();
+        
+        // a change made after the snapshot stays recorded, and a failed write hands its changes back
+        Patient snapshot = patient.snapshotAndMarkClean();
+        assertFalse(patient.hasChanges());
+        patient.setAddress("9 New Rd");
+        patient.mergeChanges(snapshot);
+        assertEquals(EnumSet.of(Patient.Field.ADDRESS), patient.changedFields());
+        patient.setName("John Q. Doe");
+        Patient failed = patient.snapshotAndMarkClean();
+        patient.setAge(32);
+        patient.mergeChanges(failed);
+        assertEquals(EnumSet.of(Patient.Field.NAME, Patient.Field.ADDRESS, Patient.Field.AGE), patient.changedFields());
+    }
+    
+    @Test
+    @DisplayName("Test segmented patient store survives restart, compaction and a torn tail")
+    public void testSegmentedPatientStore(@TempDir Path dir) throws Exception {
+        SegmentedPatientStore store = new SegmentedPatientStore(dir, 4096);
+        List<Patient> patients = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            Patient patient = new Patient("PAT-" + i, "Patient " + i, 20 + i, "Male", "O+", "555-" + i, "Street " + i);
+            store.save(patient);
+            patients.add(patient);
+        }
+        // rewrite everyone a few times so older segments become mostly garbage
+        for (int round = 0; round < 5; round++) {
+            for (Patient patient : patients) {
+                patient.setAge(patient.getAge() + 1);
+                store.save(patient);
+            }
+        }
+        // rolling a segment queues compaction on the store's own thread
+        long deadline = System.currentTimeMillis() + 5000;
+        while (store.getSegmentCount() >= 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.getSegmentCount() < 20);
+        store.delete("PAT-0");
+        store.compact();
+        assertEquals(26, store.load("PAT-1").getAge());
+        assertNull(store.load("PAT-0"));
+        store.close();
+        
+        // simulate a crash halfway through an append
+        Path last;
+        try (java.util.stream.Stream<Path> files = Files.list(dir)) {
+            last = files.sorted().reduce((a, b) -> b).get();
+        }
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(java.nio.ByteBuffer.wrap(new byte[]{0, 0, 1, 0, 42, 42}));
+        }
+        
+        SegmentedPatientStore reopened = new SegmentedPatientStore(dir, 4096);
+        assertEquals(39, reopened.getPatientIds().size());
+        assertNull(reopened.load("PAT-0"));
+        for (int i = 1; i < 40; i++) {
+            assertEquals(25 + i, reopened.load("PAT-" + i).getAge());
+        }
+        reopened.save(new Patient("PAT-new", "New Patient", 50, "Female", "B+", "555-9999", "Elm St"));
+        reopened.close();
+        assertEquals("New Patient", new SegmentedPatientStore(dir, 4096).load("PAT-new").getName());
+    }
+    
+    @Test
+    @DisplayName("Test patient updates append delta records that survive restart and compaction")
+    public void testIncrementalPatientPersistence(@TempDir Path dir) throws Exception {
+        SegmentedPatientStore store = new SegmentedPatientStore(dir, 16 * 1024);
+        patientService.setPatientStore(store);
+        Patient patient = patientService.registerPatient("Chronic Case", 60, "Female", "A-", "555-0303", "Oak St");
+        for (int i = 0; i < 500; i++) {
+            patient.addMedicalHistory("Dialysis session " + i);
+        }
+        patientService.updatePatient(patient);
+        long fullSize = Files.size(dir.resolve("segment-000001.log"));
+        
+        patientService.markPatientAsCritical(patient.getPatientId(), true);
+        long deltaSize = Files.size(dir.resolve("segment-000001.log")) - fullSize;
+        assertTrue(deltaSize < 100, "delta record was " + deltaSize + " bytes");
+        assertTrue(store.load(patient.getPatientId()).isCritical());
+        
+        // enough changes to fold the chain back into full records and roll segments
+        for (int i = 0; i < 40; i++) {
+            patientService.addMedicalRecord(patient.getPatientId(), "Note " + i);
+            patient.setAge(61 + i);
+            patientService.updatePatient(patient);
+        }
+        store.compact();
+        assertTrue(store.getSegmentCount() < 5);
+        Patient loaded = store.load(patient.getPatientId());
+        assertEquals(patient.getMedicalHistory(), loaded.getMedicalHistory());
+        assertEquals(100, loaded.getAge());
+        store.close();
+        
+        SegmentedPatientStore reopened = new SegmentedPatientStore(dir, 16 * 1024);
+        Patient recovered = reopened.load(patient.getPatientId());
+        assertEquals(540, recovered.getMedicalHistory().size());
+        assertEquals("Note 39", recovered.getMedicalHistory().get(539));
+        assertTrue(recovered.isCritical());
+        assertEquals(100, recovered.getAge());
+        assertEquals(List.of(recovered.getName()),
+                     List.of(reopened.loadAll(ForkJoinPool.commonPool()).get(0).getName()));
+        reopened.close();
+    }
+    
+    @Test
+    @DisplayName("Test tiered repository keeps a bounded hot set and reads cold patients from disk")
+    public void testTieredPatientCache(@TempDir Path dir) throws Exception {
+        SegmentedPatientStore store = new SegmentedPatientStore(dir);
+        patientRepository.enableTiering(store, 10);
+        patientService.setPatientStore(store);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            ids.add(patientService.registerPatient("Patient " + i, 30, "Male", i % 2 == 0 ? "O+" : "A+",
+                                                   "555-" + i, "Street " + i).getPatientId());
+        }
+        assertEquals(10, ((Number) patientService.getCacheStats().get("cached")).intValue());
+        
+        // a cold read loads from disk once, then stays hot
+        Patient first = patientService.getPatient(ids.get(0));
+        assertEquals("Patient 0", first.getName());
+        assertSame(first, patientService.getPatient(ids.get(0)));
+        patientService.addMedicalRecord(ids.get(0), "Admitted");
+        patientService.markPatientAsCritical(ids.get(0), true);
+        
+        // push it back out, then check everything still sees it
+        for (int i = 10; i < 50; i++) {
+            patientService.getPatient(ids.get(i));
+        }
+        assertTrue(patientService.patientExists(ids.get(0)));
+        assertEquals(50, patientService.getTotalPatients());
+        assertEquals(25L, patientService.getPatientCountByBloodGroup().get("O+"));
+        List<Patient> critical = patientService.getCriticalPatients();
+        assertEquals(1, critical.size());
+        assertEquals(List.of("Admitted"), critical.get(0).getMedicalHistory());
+        assertEquals(50, patientService.getAllPatients().size());
+        
+        patientService.deletePatient(ids.get(1));
+        assertFalse(patientService.patientExists(ids.get(1)));
+        assertThrows(InvalidPatientException.class, () -> patientService.getPatient(ids.get(1)));
+        
+        Map<String, Object> stats = patientService.getCacheStats();
+        assertTrue(((Number) stats.get("hits")).longValue() > 0);
+        assertTrue(((Number) stats.get("misses")).longValue() > 0);
+        assertTrue(((Number) stats.get("evictions")).longValue() >= 40);
+        assertTrue(((Number) stats.get("weight")).longValue() <= 10);
+        store.close();
+    }
+    
+    @Test
+    @DisplayName("Test the tiered cache keeps patients the store failed to save")
+    public void testTieredCacheKeepsUnsavedPatients() throws Exception {
+        AtomicBoolean diskFull = new AtomicBoolean(false);
+        Map<String, Patient> disk = new ConcurrentHashMap<>();
+        PatientStore failingDisk = new PatientStore() {
+            @Override
+            public void save(Patient patient) throws java.io.IOException {
+                if (diskFull.get()) {
+                    throw new java.io.IOException("No space left on device");
+                }
+                disk.put(patient.getPatientId(), new Patient(patient));
+            }
+            
+            @Override
+            public Patient load(String patientId) {
+                Patient stored = disk.get(patientId);
+                return stored == null ? null : new Patient(stored);
+            }
+            
+            @Override
+            public void delete(String patientId) {
+                disk.remove(patientId);
+            }
+            
+            @Override
+            public List<Patient> loadAll(ForkJoinPool pool) {
+                return new ArrayList<>(disk.values());
+            }
+        };
+        patientRepository.enableTiering(failingDisk, 2);
+        patientService.setPatientStore(failingDisk);
+        
+        diskFull.set(true);
+        Patient unsaved = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        diskFull.set(false);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ids.add(patientService.registerPatient("Patient " + i, 30, "Male", "A+", "555-" + i, "Street " + i)
+                                  .getPatientId());
+        }
+        for (String id : ids) {
+            patientService.getPatient(id);
+        }
+        
+        assertFalse(disk.containsKey(unsaved.getPatientId()));
+        assertSame(unsaved, patientService.getPatient(unsaved.getPatientId()));
+        assertEquals(11, patientService.getAllPatients().size());
+        
+        // once a later save goes through, it may be evicted and read back like any other
+        patientService.markPatientAsCritical(unsaved.getPatientId(), true);
+        for (String id : ids) {
+            patientService.getPatient(id);
+        }
+        assertTrue(disk.containsKey(unsaved.getPatientId()));
+        assertTrue(patientService.getPatient(unsaved.getPatientId()).isCritical());
+    }
+    
+    @Test
+    @DisplayName("Test scalable Bloom filter grows past its estimate and keeps its error rate")
+    public void testExistenceFilter() throws Exception {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            filter.add("PAT-" + i);
+        }
+        assertTrue(filter.getStageCount() > 1);
+        for (int i = 0; i < count; i++) {
+            assertTrue(filter.mightContain("PAT-" + i));
+        }
+        int falsePositives = 0;
+        for (int i = count; i < 2 * count; i++) {
+            if (filter.mightContain("PAT-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < count / 100, falsePositives + " false positives");
+        
+        Patient patient = patientService.registerPatient("John Doe", 30, "Male", "O+", "1234567890", "123 Main St");
+        assertTrue(patientService.patientExists(patient.getPatientId()));
+        assertFalse(patientService.patientExists("PAT-UNKNOWN"));
+        patientService.deletePatient(patient.getPatientId());
+        assertFalse(patientService.patientExists(patient.getPatientId()));
+        patientRepository.rebuildExistenceFilter();
+        assertEquals(0L, patientService.getExistenceFilterStats().get("ids"));
+    }
+    
+    @Test
+    @DisplayName("Test incrementally maintained patient statistics")
+    public void testIncrementalPatientStats() throws Exception {
+        String[] groups = {"A+", "B+", "O+", "AB-"};
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ids.add(patientService.registerPatient("Patient " + i, 30, "Female", groups[i % groups.length],
+                                                   "555-" + i, "Street " + i).getPatientId());
+        }
+        
+        // threads flip critical flags and move blood groups on overlapping patients
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    String patientId = ids.get((i * 7 + thread) % ids.size());
+                    patientService.markPatientAsCritical(patientId, (i + thread) % 3 == 0);
+                    if (i % 5 == 0) {
+                        Patient patient = patientService.getPatient(patientId);
+                        patient.setBloodGroup(groups[(i + thread) % groups.length]);
+                        patientService.updatePatient(patient);
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        patientService.deletePatient(ids.get(0));
+        patientService.deletePatient(ids.get(1));
+        
+        List<Patient> all = patientService.getAllPatients();
+        assertEquals(all.size(), patientService.getTotalPatients());
+        assertEquals(all.stream().filter(Patient::isCritical).count(), patientService.getCriticalPatientCount());
+        assertEquals(all.stream().collect(Collectors.groupingBy(Patient::getBloodGroup, Collectors.counting())),
+                     patientService.getPatientCountByBloodGroup());
+        
+        Patient replacement = new Patient(ids.get(2), "Replaced", 40, "Male", "AB-", "555", "Street");
+        replacement.setCritical(true);
+        patientRepository.bulkLoad(List.of(replacement));
+        all = patientService.getAllPatients();
+        assertEquals(all.stream().filter(Patient::isCritical).count(), patientService.getCriticalPatientCount());
+        assertEquals(all.stream().collect(Collectors.groupingBy(Patient::getBloodGroup, Collectors.counting())),
+                     patientService.getPatientCountByBloodGroup());
+    }
+    
+    @Test
+    @DisplayName("Test critical patients are listed in the order they were flagged")
+    public void testCriticalPatientOrder() throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            ids.add(patientService.registerPatient("Patient " + i, 30, "Male", "O+", "555-" + i, "Street " + i)
+                                  .getPatientId());
+        }
+        patientService.markPatientAsCritical(ids.get(3), true);
+        patientService.markPatientAsCritical(ids.get(1), true);
+        patientService.markPatientAsCritical(ids.get(4), true);
+        // re-flagging or editing a critical patient keeps their place
+        patientService.markPatientAsCritical(ids.get(3), true);
+        Patient edited = patientService.getPatient(ids.get(1));
+        edited.setAddress("Ward 7");
+        patientService.updatePatient(edited);
+        assertEquals(List.of(ids.get(3), ids.get(1), ids.get(4)), criticalIds());
+        assertNotNull(patientService.getCriticalSince(ids.get(3)));
+        assertNull(patientService.getCriticalSince(ids.get(0)));
+        
+        // clearing and flagging again moves a patient to the end
+        patientService.markPatientAsCritical(ids.get(3), false);
+        patientService.markPatientAsCritical(ids.get(3), true);
+        patientService.deletePatient(ids.get(4));
+        assertEquals(List.of(ids.get(1), ids.get(3)), criticalIds());
+        assertEquals(2, patientService.getCriticalPatientCount());
+    }
+    
+    private List<String> criticalIds() {
+        List<String> ids = new ArrayList<>();
+        for (Patient patient : patientService.getCriticalPatients()) {
+            ids.add(patient.getPatientId());
+        }
+        return ids;
+    }
+    
+    @Test
+    @DisplayName("Test patient search by name, contact number and id")
+    public void testPatientSearch() throws Exception {
+        String[] first = {"John", "Jane", "Joan", "Mary", "Mark", "Martin", "Peter", "Paula",
+                          "Ahmed", "Aisha", "Wei", "Mei", "Carlos", "Lucia", "Ivan", "Olga"};
+        String[] last = {"Smith", "Smythe", "Doe", "Jones", "Johnson", "Brown", "Taylor", "Walker",
+                         "Khan", "Chen", "Garcia", "Petrov", "Nguyen", "Okafor", "Rossi", "Muller"};
+        List<Patient> loaded = new ArrayList<>();
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            loaded.add(new Patient(String.format("PAT-%06d", i), first[i % 16] + " " + last[(i / 16) % 16],
+                                   30, "Male", "O+", String.format("555-%07d", i), "Street " + i));
+        }
+        patientRepository.bulkLoad(loaded);
+        Patient patient = patientService.registerPatient("Johnathan Smithers", 41, "Male", "A+", "(020) 7946-0018", "Flat 2");
+        
+        assertEquals(patient.getPatientId(), patientService.searchPatients("johnathan smithers", 5).get(0).getPatientId());
+        assertEquals(patient.getPatientId(), patientService.searchPatients("020 7946", 5).get(0).getPatientId());
+        assertEquals(patient.getPatientId(), patientService.searchPatients("02079460018", 5).get(0).getPatientId());
+        assertEquals(patient.getPatientId(), patientService.searchPatients(patient.getPatientId(), 5).get(0).getPatientId());
+        assertEquals("PAT-001234", patientService.searchPatients("pat-001234", 5).get(0).getPatientId());
+        assertEquals("PAT-000042", patientService.searchPatients("555-0000042", 5).get(0).getPatientId());
+        // misspelt
+        assertEquals(patient.getPatientId(), patientService.searchPatients("jonathan smithers", 5).get(0).getPatientId());
+        assertEquals("Garcia", patientService.searchPatients("garsia", 5).get(0).getName().split(" ")[1]);
+        // the shortest words either term prefixes score best
+        List<Patient> prefixed = patientService.searchPatients("ma jo", 20);
+        assertEquals(20, prefixed.size());
+        for (Patient match : prefixed) {
+            assertTrue(match.getName().matches("Ma(ry|rk) Jones"), match.getName());
+        }
+        
+        List<Patient> marys = patientService.searchPatients("mar", 10);
+        assertEquals(10, marys.size());
+        for (Patient match : marys) {
+            assertTrue(match.getName().toLowerCase().startsWith("mar"), match.getName());
+        }
+        assertTrue(patientService.searchPatients("zzzz", 10).isEmpty());
+        
+        patient.setName("Johnathan Smithson");
+        patientService.updatePatient(patient);
+        assertEquals(patient.getPatientId(), patientService.searchPatients("smithson", 5).get(0).getPatientId());
+        patientService.deletePatient(patient.getPatientId());
+        // only the similar Smiths are left
+        assertTrue(patientService.searchPatients("smithson", 5).stream()
+                .noneMatch(match -> match.getPatientId().equals(patient.getPatientId())));
+        assertTrue(patientService.searchPatients(patient.getPatientId(), 5).isEmpty());
+        
+        assertEquals(count, patientService.getSearchIndexStats().get("patients"));
+    }
+    
+    @Test
+    @DisplayName("Test parallel rehydration of persisted patients")
+    public void testParallelRehydration(@TempDir Path dir) throws Exception {
+        int count = 20000;
+        SegmentedPatientStore store = new SegmentedPatientStore(dir, 1024 * 1024);
+        for (int i = 0; i < count; i++) {
+            Patient patient = new Patient("PAT-" + i, "Patient " + i, i % 90, "Female", "A+", "555-" + i, "Street " + i);
+            patient.addMedicalHistory("Admitted");
+            store.save(patient);
+        }
+        store.close();
+        
+        SegmentedPatientStore reopened = new SegmentedPatientStore(dir, 1024 * 1024);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        reopened.loadAll(pool, 1000, patientRepository::bulkLoad);
+        pool.shutdown();
+        patientRepository.rebuildExistenceFilter();
+        
+        assertEquals(count, patientService.getTotalPatients());
+        Patient sample = patientService.getPatient("PAT-12345");
+        assertEquals("Patient 12345", sample.getName());
+        assertEquals(List.of("Admitted"), sample.getMedicalHistory());
+        reopened.close();
+    }
+    
+    @Test
+    @DisplayName("Test concurrent medical history appends through pooled channels")
+    public void testMedicalHistoryLog(@TempDir Path dir) throws Exception {
+        MedicalHistoryLog writer = new MedicalHistoryLog(dir, 4, MedicalHistoryLog.FsyncPolicy.PER_BATCH);
+        int threads = 8;
+        int perThread = 300;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        // every thread hammers PAT-shared and also spreads over more files than the pool holds
+                        writer.append("PAT-shared", "thread " + thread + " entry " + i);
+                        writer.append("PAT-" + (i % 10), "thread " + thread + " entry " + i);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertTrue(writer.getOpenFileCount() <= 4);
+        // evicted patients are forgotten, not just closed
+        assertTrue(writer.getTrackedFileCount() <= 4);
+        assertTrue(writer.tail("PAT-missing", 5).isEmpty());
+        assertTrue(writer.getTrackedFileCount() <= 4);
+        writer.close();
+        
+        List<String> shared = Files.readAllLines(dir.resolve(MedicalHistoryLog.fileName("PAT-shared")));
+        assertEquals(threads * perThread, shared.size());
+        int[] nextEntry = new int[threads];
+        for (String line : shared) {
+            assertTrue(line.matches("\\[\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\] thread \\d+ entry \\d+"), line);
+            String[] parts = line.substring(line.indexOf("] ") + 2).split(" ");
+            int thread = Integer.parseInt(parts[1]);
+            // one thread's appends land in the order it made them
+            assertEquals(nextEntry[thread]++, Integer.parseInt(parts[3]));
+        }
+        int spread = 0;
+        for (int i = 0; i < 10; i++) {
+            spread += Files.readAllLines(dir.resolve(MedicalHistoryLog.fileName("PAT-" + i))).size();
+        }
+        assertEquals(threads * perThread, spread);
+    }
+    
+    @Test
+    @DisplayName("Test indexed tail, range and paged medical history reads")
+    public void testIndexedMedicalHistoryReads(@TempDir Path dir) throws Exception {
+        // a file written before indexing existed, with a torn last line
+        Files.writeString(dir.resolve(MedicalHistoryLog.fileName("PAT-1")),
+                          "[2024-01-01 09:00:00] Admitted\n"
+                          + "[2024-01-02 09:00:00] Blood test\n"
+                          + "[2024-01-03 09:00:00] Discharged\n"
+                          + "[2024-01-04 09:0");
+        MedicalHistoryLog log = new MedicalHistoryLog(dir, 2, MedicalHistoryLog.FsyncPolicy.NEVER);
+        assertEquals(List.of("[2024-01-02 09:00:00] Blood test", "[2024-01-03 09:00:00] Discharged"),
+                     log.tail("PAT-1", 2));
+        
+        for (int i = 0; i < 120; i++) {
+            log.append("PAT-1", "Note " + i);
+        }
+        List<String> tail = log.tail("PAT-1", 3);
+        assertEquals(3, tail.size());
+        assertTrue(tail.get(2).endsWith("] Note 119"));
+        
+        HistoryPage january = log.range("PAT-1", LocalDateTime.of(2024, 1, 2, 0, 0),
+                                         LocalDateTime.of(2024, 1, 3, 9, 0), null, 10);
+        assertEquals(List.of("[2024-01-02 09:00:00] Blood test", "[2024-01-03 09:00:00] Discharged"),
+                     january.getEntries());
+        assertFalse(january.isHasMore());
+        
+        List<String> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            HistoryPage page = log.page("PAT-1", cursor, 50);
+            paged.addAll(page.getEntries());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(123, paged.size());
+        log.close();
+        assertEquals(paged, Files.readAllLines(dir.resolve(MedicalHistoryLog.fileName("PAT-1"))));
+        
+        // the index is reused, and lines appended behind its back are picked up
+        Files.write(dir.resolve(MedicalHistoryLog.fileName("PAT-1")), List.of("[2030-01-01 00:00:00] Follow-up"),
+                    StandardOpenOption.APPEND);
+        MedicalHistoryLog reopened = new MedicalHistoryLog(dir, 2, MedicalHistoryLog.FsyncPolicy.NEVER);
+        assertEquals(124, reopened.page("PAT-1", null, 1).getTotalEntries());
+        assertEquals(List.of("[2030-01-01 00:00:00] Follow-up"),
+                     reopened.range("PAT-1", LocalDateTime.of(2029, 1, 1, 0, 0), null, null, 10).getEntries());
+        assertTrue(reopened.tail("PAT-unknown", 5).isEmpty());
+        
+        // a record that could pass for more than one line is refused before anything is written
+        assertThrows(IllegalArgumentException.class, () ->
+            reopened.append("PAT-1", "Chest pain\n[2031-01-01 00:00:00] Discharged"));
+        assertThrows(IllegalArgumentException.class, () -> reopened.append("PAT-1", "Chest\rpain"));
+        reopened.close();
+        MedicalHistoryLog again = new MedicalHistoryLog(dir, 2, MedicalHistoryLog.FsyncPolicy.NEVER);
+        assertEquals(124, again.page("PAT-1", null, 1).getTotalEntries());
+        assertEquals(List.of("[2030-01-01 00:00:00] Follow-up"), again.tail("PAT-1", 1));
+        again.delete("PAT-1");
+        assertFalse(Files.exists(dir.resolve(MedicalHistoryLog.indexFileName("PAT-1"))));
+        again.close();
+    }
+    
+    @Test
+    @DisplayName("Test streaming patient import with per-record errors")
+    public void testPatientImport(@TempDir Path dir) throws Exception {
+        WriteBehindPatientStore store = new WriteBehindPatientStore(new SegmentedPatientStore(dir), 10000);
+        patientService.setPatientStore(store);
+        int count = 100000;
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i == 10) {
+                ndjson.append("{\"patientId\":\"PAT-IMP-10\",\"name\":\"Bad Age\",\"age\":\"ten\",\"gender\":\"Male\",\"bloodGroup\":\"A+\",\"contactNumber\":\"555\"}\n");
+            } else if (i == 20) {
+                ndjson.append("{\"name\": \"Torn\n");
+            } else if (i == 30) {
+                ndjson.append("\n");
+            } else {
+                // the last record repeats the first id
+                int id = i == count - 1 ? 0 : i;
+                ndjson.append(String.format("{\"patientId\":\"PAT-IMP-%d\",\"name\":\"Patient %d\",\"age\":%d,"
+                                            + "\"gender\":\"Female\",\"bloodGroup\":\"o+\",\"contactNumber\":\"555-%07d\","
+                                            + "\"critical\":%b}%n", id, i, i % 90, i, i % 1000 == 0));
+            }
+        }
+        byte[] body = ndjson.toString().getBytes(StandardCharsets.UTF_8);
+        
+        ImportResult result = patientService.importPatients(new ByteArrayInputStream(body), null);
+        
+        assertEquals(count - 4, result.getImported());
+        assertEquals(3, result.getFailed());
+        assertEquals(List.of(11L, 21L, (long) count), result.getErrors().stream().map(ImportError::getLine)
+                                                            .collect(Collectors.toList()));
+        assertEquals("age must be a whole number: ten", result.getErrors().get(0).getMessage());
+        assertTrue(result.getErrors().get(1).getMessage().startsWith("Malformed JSON"));
+        assertEquals("Patient already exists: PAT-IMP-0", result.getErrors().get(2).getMessage());
+        assertEquals(count - 4, patientService.getTotalPatients());
+        assertEquals("O+", patientService.getPatient("PAT-IMP-12345").getBloodGroup());
+        assertEquals(count / 1000, patientService.getCriticalPatientCount());
+        
+        store.close();
+        SegmentedPatientStore reopened = new SegmentedPatientStore(dir);
+        assertEquals(count - 4, reopened.getPatientIds().size());
+        assertEquals("Patient 99998", reopened.load("PAT-IMP-99998").getName());
+        reopened.close();
+        
+        // a store that refuses the batch leaves nothing behind in the repository
+        String late = "{\"patientId\":\"PAT-IMP-LATE\",\"name\":\"Too Late\",\"age\":50,\"gender\":\"Male\","
+                    + "\"bloodGroup\":\"B+\",\"contactNumber\":\"555-0199\"}\n";
+        result = patientService.importPatients(new ByteArrayInputStream(late.getBytes(StandardCharsets.UTF_8)), null);
+        assertEquals(0, result.getImported());
+        assertEquals(1, result.getFailed());
+        assertTrue(result.getErrors().get(0).getMessage().startsWith("Failed to save patient"));
+        assertFalse(patientService.patientExists("PAT-IMP-LATE"));
+        assertEquals(count - 4, patientService.getTotalPatients());
+        
+        SegmentedPatientStore csvStore = new SegmentedPatientStore(dir.resolve("csv"));
+        patientService.setPatientStore(csvStore);
+        String csv = "Name,Age,Gender,BloodGroup,ContactNumber,Address,Ward\n"
+                   + "\"O'Brien, Pat\",41,Male,AB-,555-0100,\"1 \"\"Quoted\"\" Rd\",7\n"
+                   + "Short Row,30,Male\n"
+                   + "Bad Group,30,Male,C+,555-0101,,7\n";
+        result = patientService.importPatients(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "csv");
+        assertEquals(1, result.getImported());
+        assertEquals(List.of("Expected 7 fields but found 3", "Unknown blood group: C+"),
+                     result.getErrors().stream().map(ImportError::getMessage).collect(Collectors.toList()));
+        Patient imported = patientService.searchPatients("o'brien", 1).get(0);
+        assertEquals("O'Brien, Pat", imported.getName());
+        assertEquals("1 \"Quoted\" Rd", imported.getAddress());
+        
+        assertThrows(IllegalArgumentException.class, () -> patientService.importPatients(
+            new ByteArrayInputStream("name,age\nA,1\n".getBytes(StandardCharsets.UTF_8)), "csv"));
+        assertEquals(1, csvStore.getPatientIds().size());
+        csvStore.close();
+    }
 }
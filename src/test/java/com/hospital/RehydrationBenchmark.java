@@ -0,0 +1,49 @@
+package com.hospital;
+
+import com.hospital.models.Patient;
+import com.hospital.repositories.PatientRepository;
+import com.hospital.utils.SegmentedPatientStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Measures how fast persisted patients are decoded from segments and loaded into the
+ * repository, the way Main rehydrates on start.
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.hospital.RehydrationBenchmark
+ * -Dexec.classpathScope=test
+ */
+public class RehydrationBenchmark {
+    private static final int PATIENTS = 200000;
+    private static final int BATCH = 10000;
+    private static final long SEGMENT_BYTES = 16 * 1024 * 1024;
+    
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("rehydration-benchmark");
+        SegmentedPatientStore store = new SegmentedPatientStore(dir, SEGMENT_BYTES);
+        for (int i = 0; i < PATIENTS; i++) {
+            Patient patient = new Patient("PAT-" + i, "Patient " + i, i % 90, "Female", "A+", "555-" + i, "Street " + i);
+            patient.addMedicalHistory("Admitted");
+            store.save(patient);
+        }
+        store.close();
+        
+        long start = System.nanoTime();
+        PatientRepository repository = new PatientRepository();
+        SegmentedPatientStore reopened = new SegmentedPatientStore(dir, SEGMENT_BYTES);
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        reopened.loadAll(pool, BATCH, repository::bulkLoad);
+        pool.shutdown();
+        repository.rebuildExistenceFilter();
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.println("Rehydrated " + PATIENTS + " patients in " + elapsedMillis + " ms ("
+                           + (PATIENTS * 1000L / elapsedMillis) + " records/sec)");
+        reopened.close();
+        
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.hospital;
+
+import com.hospital.models.Patient;
+import com.hospital.repositories.PatientRepository;
+import com.hospital.services.PatientService;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures patient search latency over a large synthetic population.
+ * Run with: mvn test-compile exec:java -Dexec.mainClass=com.hospital.SearchBenchmark
+ * -Dexec.classpathScope=test
+ */
+public class SearchBenchmark {
+    private static final int PATIENTS = 200000;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 200;
+    private static final String[] QUERIES = {"john", "smith", "ma jo", "555-01", "pat-0999",
+                                             "johnathan smithers", "taylr"};
+    // keeps the JIT from discarding results it can prove are unused
+    private static volatile long sink;
+    
+    public static void main(String[] args) throws Exception {
+        String[] first = {"John", "Jane", "Joan", "Mary", "Mark", "Martin", "Peter", "Paula",
+                          "Ahmed", "Aisha", "Wei", "Mei", "Carlos", "Lucia", "Ivan", "Olga"};
+        String[] last = {"Smith", "Smythe", "Doe", "Jones", "Johnson", "Brown", "Taylor", "Walker",
+                         "Khan", "Chen", "Garcia", "Petrov", "Nguyen", "Okafor", "Rossi", "Muller"};
+        PatientRepository patientRepository = new PatientRepository();
+        PatientService patientService = new PatientService(patientRepository);
+        List<Patient> loaded = new ArrayList<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            loaded.add(new Patient(String.format("PAT-%06d", i), first[i % 16] + " " + last[(i / 16) % 16],
+                                   30, "Male", "O+", String.format("555-%07d", i), "Street " + i));
+        }
+        long start = System.nanoTime();
+        patientRepository.bulkLoad(loaded);
+        System.out.printf("Indexed %d patients in %d ms%n", PATIENTS, (System.nanoTime() - start) / 1_000_000);
+        
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            search(patientService);
+        }
+        start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            search(patientService);
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / (ROUNDS * QUERIES.length);
+        System.out.printf("Patient search over %d patients: %.0f us per query%n", PATIENTS, micros);
+    }
+    
+    private static void search(PatientService patientService) {
+        for (String query : QUERIES) {
+            sink += patientService.searchPatients(query, 20).size();
+        }
+    }
+}